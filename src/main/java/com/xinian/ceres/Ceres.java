@@ -2,6 +2,7 @@ package com.xinian.ceres;
 
 import com.xinian.ceres.common.CeresNetworkCore;
 import com.xinian.ceres.common.compression.CeresCompressionManager;
+import com.xinian.ceres.network.CeresCapabilitiesPacket;
 import com.xinian.ceres.network.CompressedDataPacket;
 import com.xinian.ceres.network.DuplicatePacketFilter;
 import com.xinian.ceres.network.NetworkOptimizer;
@@ -36,8 +37,8 @@ public class Ceres {
         NETWORK = NetworkRegistry.newSimpleChannel(
                 channelName,
                 () -> PROTOCOL_VERSION,
-                PROTOCOL_VERSION::equals,
-                PROTOCOL_VERSION::equals
+                NetworkRegistry.acceptMissingOr(PROTOCOL_VERSION),
+                NetworkRegistry.acceptMissingOr(PROTOCOL_VERSION)
         );
     }
 
@@ -135,6 +136,12 @@ public class Ceres {
                 CompressedDataPacket::decode,
                 CompressedDataPacket::handle);
 
+        NETWORK.registerMessage(id++,
+                CeresCapabilitiesPacket.class,
+                CeresCapabilitiesPacket::encode,
+                CeresCapabilitiesPacket::decode,
+                CeresCapabilitiesPacket::handle);
+
         LOGGER.info("Registered {} network messages", id);
     }
 
@@ -8,6 +8,9 @@ import net.minecraftforge.fml.config.ModConfig;
 import net.minecraftforge.fml.event.config.ModConfigEvent;
 import org.apache.commons.lang3.tuple.Pair;
 import com.xinian.ceres.common.compression.CeresCompressionType;
+import com.xinian.ceres.common.network.compression.CeresCompressionLevelLadder;
+
+import java.util.List;
 
 @Mod.EventBusSubscriber(modid = Ceres.MOD_ID, bus = Mod.EventBusSubscriber.Bus.MOD)
 public class CeresConfig {
@@ -109,6 +112,25 @@ public class CeresConfig {
         public final ForgeConfigSpec.BooleanValue prioritizePlayerPositionPackets;
         public final ForgeConfigSpec.BooleanValue useChunkDeltaCompression;
         public final ForgeConfigSpec.IntValue chunkUpdatePriority;
+        public final ForgeConfigSpec.BooleanValue enableChunkPacketCache;
+        public final ForgeConfigSpec.IntValue chunkPacketCacheSizeMb;
+        public final ForgeConfigSpec.IntValue chunkPacketCacheTtlSeconds;
+        public final ForgeConfigSpec.BooleanValue enableBroadcastPreEncoding;
+        public final ForgeConfigSpec.BooleanValue enableTickFlushScheduler;
+        public final ForgeConfigSpec.IntValue flushBypassBudgetMicros;
+        public final ForgeConfigSpec.BooleanValue enableSpatialEntityTracking;
+        public final ForgeConfigSpec.BooleanValue enableChunkTrackingBitset;
+        public final ForgeConfigSpec.BooleanValue enableChunkUnloadHysteresis;
+        public final ForgeConfigSpec.IntValue chunkUnloadHysteresisBlocks;
+        public final ForgeConfigSpec.IntValue chunkUnloadHysteresisSeconds;
+        public final ForgeConfigSpec.IntValue viewDistanceChangeCooldownMs;
+        public final ForgeConfigSpec.BooleanValue enableChunkSendQueue;
+        public final ForgeConfigSpec.IntValue chunkSendBudgetKb;
+        public final ForgeConfigSpec.BooleanValue enableChunkPrefetch;
+        public final ForgeConfigSpec.IntValue chunkPrefetchMinSpeed;
+        public final ForgeConfigSpec.IntValue chunkPrefetchLookaheadSeconds;
+        public final ForgeConfigSpec.IntValue chunkPrefetchPerTick;
+        public final ForgeConfigSpec.IntValue chunkPrefetchMaxChunks;
 
         public ServerConfig(ForgeConfigSpec.Builder builder) {
             builder.push("server");
@@ -137,6 +159,84 @@ public class CeresConfig {
                     .comment("Priority for chunk update packets (higher values = higher priority)")
                     .defineInRange("chunkUpdatePriority", 5, 0, 10);
 
+            enableChunkPacketCache = builder
+                    .comment("Encode and compress each chunk packet once and share the result between players")
+                    .define("enableChunkPacketCache", true);
+
+            chunkPacketCacheSizeMb = builder
+                    .comment("Maximum memory used by the chunk packet cache per dimension (MB)")
+                    .defineInRange("chunkPacketCacheSizeMb", 64, 1, 1024);
+
+            chunkPacketCacheTtlSeconds = builder
+                    .comment("Maximum age of a cached chunk packet before it is rebuilt (seconds)")
+                    .defineInRange("chunkPacketCacheTtlSeconds", 300, 10, 3600);
+
+            enableBroadcastPreEncoding = builder
+                    .comment("Serialize packets broadcast to several players once and share the encoded bytes")
+                    .define("enableBroadcastPreEncoding", true);
+
+            enableTickFlushScheduler = builder
+                    .comment("Hold play packets until one flush per connection at the end of the server tick, or the next event loop pass outside a tick")
+                    .define("enableTickFlushScheduler", true);
+
+            flushBypassBudgetMicros = builder
+                    .comment("Longest time in microseconds a keep-alive or teleport packet may wait for a flush (0 = flush immediately)")
+                    .defineInRange("flushBypassBudgetMicros", 250, 0, 50000);
+
+            enableSpatialEntityTracking = builder
+                    .comment("When a player moves, only update trackers of entities in chunks around the player's old and new position")
+                    .define("enableSpatialEntityTracking", true);
+
+            enableChunkTrackingBitset = builder
+                    .comment("Keep a per-player bitset of tracked chunks and only update chunks that enter or leave the view when a player moves")
+                    .define("enableChunkTrackingBitset", true);
+
+            enableChunkUnloadHysteresis = builder
+                    .comment("Keep chunks that leave the view loaded on the client for a while, so walking back does not resend them (requires enableChunkTrackingBitset)")
+                    .define("enableChunkUnloadHysteresis", true);
+
+            chunkUnloadHysteresisBlocks = builder
+                    .comment("Unload a chunk once it is this many blocks beyond the view distance. "
+                            + "Limited to one chunk: the client only keeps chunks up to one chunk beyond the tracked area "
+                            + "and silently drops anything further, which would leave holes that are never resent")
+                    .defineInRange("chunkUnloadHysteresisBlocks", 16, 0, 16);
+
+            chunkUnloadHysteresisSeconds = builder
+                    .comment("Unload a chunk once it has been out of view for this many seconds")
+                    .defineInRange("chunkUnloadHysteresisSeconds", 15, 1, 600);
+
+            viewDistanceChangeCooldownMs = builder
+                    .comment("Minimum time in milliseconds between two applied view distance changes of a player")
+                    .defineInRange("viewDistanceChangeCooldownMs", 1000, 0, 10000);
+
+            enableChunkSendQueue = builder
+                    .comment("Queue chunks per player and send the nearest ones first under a per-tick byte budget, instead of writing the whole view at once")
+                    .define("enableChunkSendQueue", true);
+
+            chunkSendBudgetKb = builder
+                    .comment("Starting chunk data budget per player per tick in KB of bytes written to the connection (after compression when it is enabled), adjusted between a quarter and four times this value from the connection backlog and measured drain rate")
+                    .defineInRange("chunkSendBudgetKb", 128, 8, 4096);
+
+            enableChunkPrefetch = builder
+                    .comment("Pre-serialize and pre-compress loaded chunks ahead of fast-moving players into the chunk packet cache (requires enableChunkPacketCache)")
+                    .define("enableChunkPrefetch", true);
+
+            chunkPrefetchMinSpeed = builder
+                    .comment("Minimum horizontal speed in blocks per second before chunks are prefetched for a player")
+                    .defineInRange("chunkPrefetchMinSpeed", 8, 1, 100);
+
+            chunkPrefetchLookaheadSeconds = builder
+                    .comment("How many seconds ahead of a player's current movement to prefetch chunks")
+                    .defineInRange("chunkPrefetchLookaheadSeconds", 3, 1, 10);
+
+            chunkPrefetchPerTick = builder
+                    .comment("Maximum chunks prefetched per player per tick")
+                    .defineInRange("chunkPrefetchPerTick", 4, 1, 64);
+
+            chunkPrefetchMaxChunks = builder
+                    .comment("Maximum prefetched chunks waiting in each level's chunk packet cache")
+                    .defineInRange("chunkPrefetchMaxChunks", 256, 16, 4096);
+
             builder.pop();
         }
     }
@@ -165,6 +265,22 @@ public class CeresConfig {
         public final ForgeConfigSpec.BooleanValue enableAdaptiveCompression;
         public final ForgeConfigSpec.IntValue adaptiveThreshold;
         public final ForgeConfigSpec.IntValue minPacketSizeToCompress;
+        public final ForgeConfigSpec.BooleanValue enableParallelCompression;
+        public final ForgeConfigSpec.IntValue parallelCompressionMinSize;
+        public final ForgeConfigSpec.IntValue compressionWorkerThreads;
+        public final ForgeConfigSpec.BooleanValue enableDictionaryCompression;
+        public final ForgeConfigSpec.BooleanValue enableStreamingCompression;
+        public final ForgeConfigSpec.IntValue streamingCompressionMemoryMb;
+        public final ForgeConfigSpec.IntValue streamingMinPacketSize;
+        public final ForgeConfigSpec.BooleanValue enableCompressibilityProbe;
+        public final ForgeConfigSpec.BooleanValue enableCompressionLadder;
+        public final ForgeConfigSpec.ConfigValue<List<? extends String>> compressionLadder;
+        public final ForgeConfigSpec.ConfigValue<List<? extends String>> compressionLadderOverrides;
+        public final ForgeConfigSpec.EnumValue<CipherEngine> cipherEngine;
+        public final ForgeConfigSpec.BooleanValue enableFusedEncryption;
+        public final ForgeConfigSpec.BooleanValue enableInPlaceLengthPrefix;
+        public final ForgeConfigSpec.BooleanValue enableBatchedFrameDecoding;
+        public final ForgeConfigSpec.BooleanValue enableAdaptiveBufferSizing;
 
         public CommonConfig(ForgeConfigSpec.Builder builder) {
             builder.push("common");
@@ -224,7 +340,8 @@ public class CeresConfig {
             builder.push("advanced_compression");
 
             compressionEngine = builder
-                    .comment("Compression engine to use: AUTO (select best), JAVA (built-in), LIBDEFLATE (high performance)")
+                    .comment("Compression engine to use: AUTO (select best), JAVA (built-in), LIBDEFLATE (high performance), " +
+                            "LZ4 (fast, only with Ceres peers that also enable it; others use AUTO)")
                     .defineEnum("compressionEngine", CompressionEngine.AUTO);
 
             useNativeCompression = builder
@@ -251,8 +368,87 @@ public class CeresConfig {
                     .comment("Minimum packet size to apply compression (bytes)")
                     .defineInRange("minPacketSizeToCompress", 256, 64, 8192);
 
+            enableParallelCompression = builder
+                    .comment("Compress large frames on worker threads instead of the network thread")
+                    .define("enableParallelCompression", true);
+
+            parallelCompressionMinSize = builder
+                    .comment("Minimum frame size in bytes to compress on a worker thread")
+                    .defineInRange("parallelCompressionMinSize", 32768, 1024, 8388608);
+
+            compressionWorkerThreads = builder
+                    .comment("Number of compression worker threads (0 = number of CPU cores)")
+                    .defineInRange("compressionWorkerThreads", 0, 0, 64);
+
+            enableDictionaryCompression = builder
+                    .comment("Use a preset compression dictionary with other Ceres clients or servers that ship the same dictionary")
+                    .define("enableDictionaryCompression", true);
+
+            enableStreamingCompression = builder
+                    .comment("Keep one deflate stream per connection with other Ceres clients or servers, so packets can reference earlier packets")
+                    .define("enableStreamingCompression", true);
+
+            streamingCompressionMemoryMb = builder
+                    .comment("Native memory budget for streaming compression contexts (about 256 KB each); connections beyond it use per-packet compression")
+                    .defineInRange("streamingCompressionMemoryMb", 64, 1, 4096);
+
+            streamingMinPacketSize = builder
+                    .comment("Minimum packet size to compress in streaming mode (bytes), may be below the server compression threshold")
+                    .defineInRange("streamingMinPacketSize", 32, 1, 8192);
+
+            enableCompressibilityProbe = builder
+                    .comment("Sample packets before compressing and send data that is predicted to be incompressible (high entropy, no repeats) without compression")
+                    .define("enableCompressibilityProbe", true);
+
+            enableCompressionLadder = builder
+                    .comment("Choose the compression level per frame by frame size and packet class instead of using one level for every frame")
+                    .define("enableCompressionLadder", true);
+
+            compressionLadder = builder
+                    .comment("Compression level per frame size bracket as \"minSize:level\"; frames use the bracket with the largest minSize they reach")
+                    .defineList("compressionLadder", List.of("0:1", "1024:3", "16384:6"),
+                            CeresCompressionLevelLadder::isValidEntry);
+
+            compressionLadderOverrides = builder
+                    .comment("Compression level for specific packet classes as \"SimpleClassName:level\", overrides the size brackets")
+                    .defineList("compressionLadderOverrides", List.of(
+                                    "ClientboundLoginPacket:9",
+                                    "ClientboundUpdateRecipesPacket:9",
+                                    "ClientboundUpdateTagsPacket:9",
+                                    "ClientboundCommandsPacket:9"),
+                            CeresCompressionLevelLadder::isValidEntry);
+
             builder.pop(); // advanced_compression
 
+            builder.push("encryption");
+
+            cipherEngine = builder
+                    .comment("AES/CFB8 engine: AUTO (native if available, else CERES), NATIVE (OpenSSL via velocity-native), " +
+                            "CERES (Java engine on the AES block primitive, verified against JCE on first use), JAVA (plain JCE)")
+                    .defineEnum("cipherEngine", CipherEngine.AUTO);
+
+            enableFusedEncryption = builder
+                    .comment("When both compression and encryption are active, compress, length-prefix and encrypt each frame in one pooled buffer")
+                    .define("enableFusedEncryption", true);
+
+            builder.pop(); // encryption
+
+            builder.push("framing");
+
+            enableInPlaceLengthPrefix = builder
+                    .comment("Reserve space for the frame length in front of encoded packets and write it in place instead of copying every frame into a new buffer")
+                    .define("enableInPlaceLengthPrefix", true);
+
+            enableBatchedFrameDecoding = builder
+                    .comment("Parse inbound frame lengths a word at a time and split every complete frame in the read buffer in one pass")
+                    .define("enableBatchedFrameDecoding", true);
+
+            enableAdaptiveBufferSizing = builder
+                    .comment("Size encode and compress buffers from per-packet-class size history instead of growing them while writing")
+                    .define("enableAdaptiveBufferSizing", true);
+
+            builder.pop(); // framing
+
             builder.pop(); // common
         }
     }
@@ -265,6 +461,14 @@ public class CeresConfig {
     public enum CompressionEngine {
         AUTO,       // 自动选择最佳引擎
         JAVA,       // 使用Java内置压缩
-        LIBDEFLATE  // 使用libdeflate高性能压缩
+        LIBDEFLATE, // 使用libdeflate高性能压缩
+        LZ4         // 与协商过的Ceres对端使用纯Java LZ4，其他连接按AUTO选择DEFLATE引擎
+    }
+
+    public enum CipherEngine {
+        AUTO,       // 本地实现可用时使用本地实现，否则使用CERES
+        NATIVE,     // 使用velocity-native的OpenSSL实现，不可用时使用JAVA
+        CERES,      // 使用基于AES分组原语的Java实现，自检失败时使用JAVA
+        JAVA        // 使用JCE的AES/CFB8/NoPadding
     }
 }
@@ -6,13 +6,35 @@ import com.mojang.brigadier.context.CommandContext;
 import com.xinian.ceres.Ceres;
 import com.xinian.ceres.CeresConfig;
 import com.xinian.ceres.CeresConfig.CommonConfig.*;
+import com.xinian.ceres.common.compression.CeresCompressibilityEstimator;
 import com.xinian.ceres.common.compression.CeresCompressionManager;
+import com.xinian.ceres.common.compression.CeresDictionaryTrainer;
 import com.xinian.ceres.common.compression.CompressionBenchmark;
+import com.xinian.ceres.common.entity.CeresSpatialEntityTracker;
+import com.xinian.ceres.common.network.CeresFlushScheduler;
+import com.xinian.ceres.common.network.CeresPacketSizeEstimator;
+import com.xinian.ceres.common.network.CeresPreEncodedPacket;
+import com.xinian.ceres.common.network.FriendlyByteBufBenchmark;
+import com.xinian.ceres.common.network.CeresProtocolFeatures;
+import com.xinian.ceres.common.network.chunk.CeresChunkPacketCache;
+import com.xinian.ceres.common.network.compression.CeresAdaptiveCompressionController;
+import com.xinian.ceres.common.network.compression.CeresCompressionLevelLadder;
+import com.xinian.ceres.common.network.compression.CeresCompressionWorkerPool;
+import com.xinian.ceres.common.network.compression.CeresMinecraftCompressEncoder;
+import com.xinian.ceres.common.network.compression.CeresStreamingCompressor;
+import com.xinian.ceres.common.network.pipeline.CeresFrameDecoder;
+import com.xinian.ceres.common.network.pipeline.CeresLengthPrepender;
+import com.xinian.ceres.common.network.pipeline.CipherBenchmark;
+import com.xinian.ceres.common.network.pipeline.FrameDecoderBenchmark;
+import com.xinian.ceres.common.player.CeresChunkSendQueue;
+import com.xinian.ceres.common.player.CeresChunkTrackingView;
 import net.minecraft.commands.CommandSourceStack;
 import net.minecraft.commands.Commands;
 import net.minecraft.network.chat.Component;
 import net.minecraft.server.level.ServerPlayer;
 
+import java.nio.file.Path;
+
 
 public class CeresCompressionCommand {
 
@@ -31,13 +53,30 @@ public class CeresCompressionCommand {
                                                 .suggests((context, builder) -> {
                                                     builder.suggest("JAVA");
                                                     builder.suggest("LIBDEFLATE");
+                                                    builder.suggest("LZ4");
                                                     builder.suggest("AUTO");
                                                     return builder.buildFuture();
                                                 })
                                                 .executes(CeresCompressionCommand::setEngine)))
                                 .then(Commands.literal("benchmark")
-                                        .executes(CeresCompressionCommand::runBenchmark))
+                                        .executes(CeresCompressionCommand::runBenchmark)
+                                        .then(Commands.literal("dictionary")
+                                                .executes(CeresCompressionCommand::runDictionaryBenchmark)))
+                                .then(Commands.literal("dictionary")
+                                        .then(Commands.literal("capture")
+                                                .executes(CeresCompressionCommand::startDictionaryCapture))
+                                        .then(Commands.literal("train")
+                                                .executes(CeresCompressionCommand::trainDictionary)))
                         )
+                        .then(Commands.literal("cipher")
+                                .then(Commands.literal("benchmark")
+                                        .executes(CeresCompressionCommand::runCipherBenchmark)))
+                        .then(Commands.literal("framing")
+                                .then(Commands.literal("benchmark")
+                                        .executes(CeresCompressionCommand::runFrameDecoderBenchmark)))
+                        .then(Commands.literal("buffer")
+                                .then(Commands.literal("benchmark")
+                                        .executes(CeresCompressionCommand::runBufferBenchmark)))
         );
     }
 
@@ -47,12 +86,91 @@ public class CeresCompressionCommand {
                 Component.literal("Compression stats: " + CeresCompressionManager.getCompressionStats()),
                 false
         );
+        context.getSource().sendSuccess(
+                Component.literal(CeresAdaptiveCompressionController.getAdaptiveStats()),
+                false
+        );
+        context.getSource().sendSuccess(
+                Component.literal(CeresChunkPacketCache.getCacheStats()),
+                false
+        );
+        context.getSource().sendSuccess(
+                Component.literal(CeresPreEncodedPacket.getBroadcastStats()),
+                false
+        );
+        context.getSource().sendSuccess(
+                Component.literal(CeresCompressionWorkerPool.getParallelStats()),
+                false
+        );
+        context.getSource().sendSuccess(
+                Component.literal(CeresProtocolFeatures.getNegotiationStats()),
+                false
+        );
+        context.getSource().sendSuccess(
+                Component.literal(CeresStreamingCompressor.getStreamingStats()),
+                false
+        );
+        context.getSource().sendSuccess(
+                Component.literal(CeresCompressibilityEstimator.getProbeStats()),
+                false
+        );
+        context.getSource().sendSuccess(
+                Component.literal(CeresCompressionLevelLadder.getLadderStats()),
+                false
+        );
+        context.getSource().sendSuccess(
+                Component.literal(CeresMinecraftCompressEncoder.getFusedStats()),
+                false
+        );
+        context.getSource().sendSuccess(
+                Component.literal(CeresLengthPrepender.getPrependerStats()),
+                false
+        );
+        context.getSource().sendSuccess(
+                Component.literal(CeresFrameDecoder.getDecoderStats()),
+                false
+        );
+        context.getSource().sendSuccess(
+                Component.literal(CeresPacketSizeEstimator.getSizingStats()),
+                false
+        );
+        context.getSource().sendSuccess(
+                Component.literal(CeresFlushScheduler.getFlushStats()),
+                false
+        );
+        context.getSource().sendSuccess(
+                Component.literal(CeresSpatialEntityTracker.getTrackingStats()),
+                false
+        );
+        context.getSource().sendSuccess(
+                Component.literal(CeresChunkTrackingView.getTrackingStats()),
+                false
+        );
+        context.getSource().sendSuccess(
+                Component.literal(CeresChunkSendQueue.getSendStats()),
+                false
+        );
         return 1;
     }
 
 
     private static int resetStats(CommandContext<CommandSourceStack> context) {
         CeresCompressionManager.resetStats();
+        CeresAdaptiveCompressionController.resetStats();
+        CeresChunkPacketCache.resetStats();
+        CeresPreEncodedPacket.resetStats();
+        CeresCompressionWorkerPool.resetStats();
+        CeresProtocolFeatures.resetStats();
+        CeresStreamingCompressor.resetStats();
+        CeresCompressibilityEstimator.resetStats();
+        CeresCompressionLevelLadder.resetStats();
+        CeresLengthPrepender.resetStats();
+        CeresFrameDecoder.resetStats();
+        CeresPacketSizeEstimator.resetStats();
+        CeresFlushScheduler.resetStats();
+        CeresSpatialEntityTracker.resetStats();
+        CeresChunkTrackingView.resetStats();
+        CeresChunkSendQueue.resetStats();
         context.getSource().sendSuccess(
                 Component.literal("Compression stats reset"),
                 false
@@ -103,5 +221,85 @@ public class CeresCompressionCommand {
 
         return 1;
     }
-}
 
+    /**
+     * 运行预设字典基准测试
+     */
+    private static int runDictionaryBenchmark(CommandContext<CommandSourceStack> context) {
+        int threshold = context.getSource().getServer().getCompressionThreshold();
+
+        if (context.getSource().getEntity() instanceof ServerPlayer player) {
+            CompressionBenchmark.runDictionaryBenchmarkForPlayer(player, threshold);
+        } else {
+            CompressionBenchmark.runDictionaryBenchmark(threshold);
+        }
+        return 1;
+    }
+
+    /**
+     * 运行加密基准测试
+     */
+    private static int runCipherBenchmark(CommandContext<CommandSourceStack> context) {
+        if (context.getSource().getEntity() instanceof ServerPlayer player) {
+            CipherBenchmark.runBenchmarkForPlayer(player);
+        } else {
+            CipherBenchmark.runBenchmark();
+        }
+        return 1;
+    }
+
+    /**
+     * 运行入站帧拆分的性能测试
+     */
+    private static int runFrameDecoderBenchmark(CommandContext<CommandSourceStack> context) {
+        if (context.getSource().getEntity() instanceof ServerPlayer player) {
+            FrameDecoderBenchmark.runBenchmarkForPlayer(player);
+        } else {
+            FrameDecoderBenchmark.runBenchmark();
+        }
+        return 1;
+    }
+
+    /**
+     * 运行数据包字段读写的性能测试
+     */
+    private static int runBufferBenchmark(CommandContext<CommandSourceStack> context) {
+        if (context.getSource().getEntity() instanceof ServerPlayer player) {
+            FriendlyByteBufBenchmark.runBenchmarkForPlayer(player);
+        } else {
+            FriendlyByteBufBenchmark.runBenchmark();
+        }
+        return 1;
+    }
+
+    /**
+     * 开始采集字典训练样本
+     */
+    private static int startDictionaryCapture(CommandContext<CommandSourceStack> context) {
+        CeresDictionaryTrainer.startCapture();
+        context.getSource().sendSuccess(
+                Component.literal("Capturing compressed packets for dictionary training"),
+                true
+        );
+        return 1;
+    }
+
+    /**
+     * 使用采集的样本训练字典
+     */
+    private static int trainDictionary(CommandContext<CommandSourceStack> context) {
+        try {
+            Path path = CeresDictionaryTrainer.trainAndSave(16 * 1024);
+            context.getSource().sendSuccess(
+                    Component.literal("Dictionary written to " + path + ", restart to use it (clients need the same file)"),
+                    true
+            );
+            return 1;
+        } catch (Exception e) {
+            context.getSource().sendFailure(
+                    Component.literal("Failed to train dictionary: " + e.getMessage())
+            );
+            return 0;
+        }
+    }
+}
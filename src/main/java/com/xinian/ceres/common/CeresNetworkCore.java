@@ -85,8 +85,7 @@ public class CeresNetworkCore {
      * @return 如果使用本地实现则为true
      */
     public static boolean isUsingNativeImplementation() {
-        return !getCompressionImplementation().equals("Java") ||
-                !getEncryptionImplementation().equals("Java");
+        return CeresNatives.compress.isNative() || CeresNatives.cipher.isNative();
     }
 
     /**
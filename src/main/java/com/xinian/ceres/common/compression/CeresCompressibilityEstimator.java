@@ -0,0 +1,313 @@
+package com.xinian.ceres.common.compression;
+
+import com.xinian.ceres.CeresConfig;
+import io.netty.buffer.ByteBuf;
+
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 可压缩性预估器
+ *
+ * <p>在运行压缩器之前用很小的代价判断数据是否值得压缩：</p>
+ * <ul>
+ *   <li>按数据包ID记录实际达到的压缩率，长期压不下去的数据包类型（地图图像、
+ *       已经压缩过的自定义负载等）直接跳过，每隔一段时间仍会重新压缩一次以刷新记录</li>
+ *   <li>对数据抽样最多4KB，计算字节直方图的熵，并用4字节哈希探测重复片段。
+ *       熵接近8位且几乎没有重复时，DEFLATE既找不到匹配也无法通过哈夫曼编码节省空间</li>
+ * </ul>
+ *
+ * <p><strong>线程安全性</strong>：所有方法都可以从任意线程调用，
+ * 压缩率记录的并发更新可能丢失个别样本，这不影响判断。</p>
+ */
+public final class CeresCompressibilityEstimator {
+    private static final int SAMPLE_SIZE = 4096;
+    private static final int SAMPLE_CHUNKS = 8;
+    private static final int MAX_TRACKED_PACKET_ID = 256;
+    private static final int MATCH_TABLE_BITS = 10;
+
+    /**
+     * 熵超过这个值（位/字节）时哈夫曼编码最多节省约5%
+     */
+    private static final double INCOMPRESSIBLE_ENTROPY = 7.6;
+
+    /**
+     * 抽样中4字节重复片段的比例低于这个值时，LZ77几乎找不到匹配
+     */
+    private static final double INCOMPRESSIBLE_MATCH_RATE = 0.01;
+
+    /**
+     * 压缩后大小超过原始大小的这个比例（千分比）时，视为没有压缩收益
+     */
+    private static final int INCOMPRESSIBLE_RATIO_PERMILLE = 970;
+    private static final int MIN_HISTORY_SAMPLES = 16;
+    private static final int MIN_RATIO_SAMPLES = 4;
+    private static final int REPROBE_INTERVAL = 32;
+
+    private static final AtomicIntegerArray RATIO_PERMILLE = new AtomicIntegerArray(MAX_TRACKED_PACKET_ID);
+    private static final AtomicIntegerArray RATIO_SAMPLES = new AtomicIntegerArray(MAX_TRACKED_PACKET_ID);
+    private static final AtomicIntegerArray SKIP_COUNTER = new AtomicIntegerArray(MAX_TRACKED_PACKET_ID);
+
+    private static final AtomicLong PROBED = new AtomicLong(0);
+    private static final AtomicLong SKIPPED_BY_HISTORY = new AtomicLong(0);
+    private static final AtomicLong SKIPPED_BY_SAMPLE = new AtomicLong(0);
+    private static final AtomicLong BYTES_SKIPPED = new AtomicLong(0);
+
+    /**
+     * c * log2(c)，c从0到SAMPLE_SIZE
+     */
+    private static final double[] C_LOG_C = new double[SAMPLE_SIZE + 1];
+
+    private static final ThreadLocal<Scratch> SCRATCH = ThreadLocal.withInitial(Scratch::new);
+
+    static {
+        for (int c = 1; c <= SAMPLE_SIZE; c++) {
+            C_LOG_C[c] = c * (Math.log(c) / Math.log(2));
+        }
+    }
+
+    private CeresCompressibilityEstimator() {
+    }
+
+    /**
+     * 判断一个未压缩的数据包是否应该不经压缩直接发送
+     * 数据包以VarInt数据包ID开头，不会修改缓冲区的读写索引
+     *
+     * @param packet 未压缩的数据包
+     * @return 如果预计压缩没有收益则返回true
+     */
+    public static boolean shouldSkip(ByteBuf packet) {
+        if (!CeresConfig.COMMON.enableCompressibilityProbe.get()) {
+            return false;
+        }
+
+        int packetId = peekPacketId(packet);
+        if (packetId >= 0 && RATIO_SAMPLES.get(packetId) >= MIN_HISTORY_SAMPLES
+                && RATIO_PERMILLE.get(packetId) >= INCOMPRESSIBLE_RATIO_PERMILLE) {
+            // 定期重新压缩一次，数据包内容变化后记录可以恢复
+            if (SKIP_COUNTER.incrementAndGet(packetId) % REPROBE_INTERVAL != 0) {
+                SKIPPED_BY_HISTORY.incrementAndGet();
+                BYTES_SKIPPED.addAndGet(packet.readableBytes());
+                return true;
+            }
+            return false;
+        }
+
+        if (isLikelyIncompressible(packet)) {
+            SKIPPED_BY_SAMPLE.incrementAndGet();
+            BYTES_SKIPPED.addAndGet(packet.readableBytes());
+            if (packetId >= 0) {
+                record(packetId, 1000);
+            }
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * 记录一个数据包实际达到的压缩率
+     *
+     * @param packetId 数据包ID，可以由{@link #peekPacketId}在压缩前获取
+     * @param uncompressedSize 压缩前的大小
+     * @param compressedSize 压缩后的大小
+     */
+    public static void recordCompressed(int packetId, int uncompressedSize, int compressedSize) {
+        if (packetId < 0 || uncompressedSize <= 0) {
+            return;
+        }
+        record(packetId, (int) Math.min(1000L, compressedSize * 1000L / uncompressedSize));
+    }
+
+    private static void record(int packetId, int ratioPermille) {
+        int samples = RATIO_SAMPLES.get(packetId);
+        if (samples == 0) {
+            RATIO_PERMILLE.set(packetId, ratioPermille);
+        } else {
+            // 指数移动平均，最近的样本权重1/8
+            int old = RATIO_PERMILLE.get(packetId);
+            RATIO_PERMILLE.set(packetId, old + (ratioPermille - old) / 8);
+        }
+        if (samples < MIN_HISTORY_SAMPLES) {
+            RATIO_SAMPLES.set(packetId, samples + 1);
+        }
+    }
+
+    /**
+     * 获取数据包ID记录的压缩率，用于预估压缩输出的大小
+     *
+     * @param packetId 数据包ID
+     * @return 压缩后与压缩前大小的千分比，样本不足时返回-1
+     */
+    public static int expectedRatioPermille(int packetId) {
+        if (packetId < 0 || packetId >= MAX_TRACKED_PACKET_ID || RATIO_SAMPLES.get(packetId) < MIN_RATIO_SAMPLES) {
+            return -1;
+        }
+        return RATIO_PERMILLE.get(packetId);
+    }
+
+    /**
+     * 读取数据包开头的VarInt数据包ID
+     *
+     * @param packet 未压缩的数据包
+     * @return 数据包ID，如果无法读取或超出记录范围则返回-1
+     */
+    public static int peekPacketId(ByteBuf packet) {
+        int index = packet.readerIndex();
+        int end = packet.writerIndex();
+        int value = 0;
+        for (int shift = 0; shift < 14 && index < end; shift += 7) {
+            byte b = packet.getByte(index++);
+            value |= (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) {
+                return value < MAX_TRACKED_PACKET_ID ? value : -1;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * 抽样判断缓冲区中的数据是否几乎不可压缩，不会修改缓冲区的读写索引
+     *
+     * @param buf 数据
+     * @return 如果预计压缩率接近1则返回true
+     */
+    public static boolean isLikelyIncompressible(ByteBuf buf) {
+        if (!CeresConfig.COMMON.enableCompressibilityProbe.get()) {
+            return false;
+        }
+
+        int length = buf.readableBytes();
+        if (buf.hasArray()) {
+            return isLikelyIncompressible(buf.array(), buf.arrayOffset() + buf.readerIndex(), length);
+        }
+
+        Scratch scratch = SCRATCH.get();
+        int sampled = sample(buf, length, scratch.sample);
+        return estimate(scratch, scratch.sample, 0, sampled, sampled == length ? 1 : SAMPLE_CHUNKS);
+    }
+
+    /**
+     * 抽样判断数据是否几乎不可压缩
+     *
+     * @param data 数据
+     * @param offset 起始位置
+     * @param length 长度
+     * @return 如果预计压缩率接近1则返回true
+     */
+    public static boolean isLikelyIncompressible(byte[] data, int offset, int length) {
+        if (!CeresConfig.COMMON.enableCompressibilityProbe.get()) {
+            return false;
+        }
+
+        Scratch scratch = SCRATCH.get();
+        if (length <= SAMPLE_SIZE) {
+            return estimate(scratch, data, offset, length, 1);
+        }
+
+        // 均匀分布在整个数据中的若干段，避免只看到头部的固定结构
+        int chunk = SAMPLE_SIZE / SAMPLE_CHUNKS;
+        long step = (long) (length - chunk) / (SAMPLE_CHUNKS - 1);
+        for (int i = 0; i < SAMPLE_CHUNKS; i++) {
+            System.arraycopy(data, offset + (int) (step * i), scratch.sample, i * chunk, chunk);
+        }
+        return estimate(scratch, scratch.sample, 0, SAMPLE_SIZE, SAMPLE_CHUNKS);
+    }
+
+    private static int sample(ByteBuf buf, int length, byte[] out) {
+        int readerIndex = buf.readerIndex();
+        if (length <= SAMPLE_SIZE) {
+            buf.getBytes(readerIndex, out, 0, length);
+            return length;
+        }
+
+        int chunk = SAMPLE_SIZE / SAMPLE_CHUNKS;
+        long step = (long) (length - chunk) / (SAMPLE_CHUNKS - 1);
+        for (int i = 0; i < SAMPLE_CHUNKS; i++) {
+            buf.getBytes(readerIndex + (int) (step * i), out, i * chunk, chunk);
+        }
+        return SAMPLE_SIZE;
+    }
+
+    private static boolean estimate(Scratch scratch, byte[] data, int offset, int length, int chunks) {
+        PROBED.incrementAndGet();
+        if (length < 64) {
+            return false;
+        }
+
+        int[] histogram = scratch.histogram;
+        Arrays.fill(histogram, 0);
+        int end = offset + length;
+        for (int i = offset; i < end; i++) {
+            histogram[data[i] & 0xFF]++;
+        }
+
+        double sum = 0;
+        int symbols = 0;
+        for (int count : histogram) {
+            if (count != 0) {
+                sum += C_LOG_C[count];
+                symbols++;
+            }
+        }
+        // Miller-Madow修正：小样本的经验熵偏低，否则几百字节的随机数据永远不会被判为不可压缩
+        double entropy = (C_LOG_C[length] - sum) / length + (symbols - 1) / (2.0 * length * Math.log(2));
+        if (entropy < INCOMPRESSIBLE_ENTROPY) {
+            return false;
+        }
+
+        // 熵很高时再探测重复片段，例如重复的高熵块仍然可以被LZ77压缩
+        int[] table = scratch.matchTable;
+        Arrays.fill(table, -1);
+        int chunkLength = length / chunks;
+        int positions = 0;
+        int matches = 0;
+        for (int c = 0; c < chunks; c++) {
+            int chunkStart = offset + c * chunkLength;
+            int chunkEnd = chunkStart + chunkLength - 3;
+            for (int i = chunkStart; i < chunkEnd; i++) {
+                int sequence = (data[i] & 0xFF) | (data[i + 1] & 0xFF) << 8
+                        | (data[i + 2] & 0xFF) << 16 | (data[i + 3] & 0xFF) << 24;
+                int h = (sequence * -1640531535) >>> (32 - MATCH_TABLE_BITS);
+                int candidate = table[h];
+                if (candidate >= 0 && data[candidate] == data[i] && data[candidate + 1] == data[i + 1]
+                        && data[candidate + 2] == data[i + 2] && data[candidate + 3] == data[i + 3]) {
+                    matches++;
+                }
+                table[h] = i;
+                positions++;
+            }
+        }
+
+        return positions > 0 && matches < positions * INCOMPRESSIBLE_MATCH_RATE;
+    }
+
+    /**
+     * 获取预估统计信息
+     *
+     * @return 统计信息字符串
+     */
+    public static String getProbeStats() {
+        return String.format("Compressibility probe: %d sampled, %d skipped by sample, %d skipped by history, %d KB sent raw",
+                PROBED.get(), SKIPPED_BY_SAMPLE.get(), SKIPPED_BY_HISTORY.get(), BYTES_SKIPPED.get() / 1024);
+    }
+
+    /**
+     * 重置统计信息，压缩率记录保持不变
+     */
+    public static void resetStats() {
+        PROBED.set(0);
+        SKIPPED_BY_SAMPLE.set(0);
+        SKIPPED_BY_HISTORY.set(0);
+        BYTES_SKIPPED.set(0);
+    }
+
+    /**
+     * 每个线程复用的抽样缓冲区
+     */
+    private static final class Scratch {
+        private final byte[] sample = new byte[SAMPLE_SIZE];
+        private final int[] histogram = new int[256];
+        private final int[] matchTable = new int[1 << MATCH_TABLE_BITS];
+    }
+}
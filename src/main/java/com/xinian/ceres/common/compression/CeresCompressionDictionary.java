@@ -0,0 +1,124 @@
+package com.xinian.ceres.common.compression;
+
+import com.xinian.ceres.Ceres;
+import net.minecraftforge.fml.loading.FMLPaths;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.zip.Adler32;
+
+/**
+ * Ceres预设压缩字典
+ *
+ * <p>字典按版本随模组发布（{@code /ceres/dictionary/v<版本>.bin}），
+ * 也可以用{@code config/ceres/dictionary.bin}覆盖，例如使用{@link CeresDictionaryTrainer}训练出的字典。
+ * 协商时双方会比较版本和Adler-32校验值，内容不一致时不会启用字典模式。</p>
+ */
+public final class CeresCompressionDictionary {
+    /**
+     * 字典格式版本
+     */
+    public static final int VERSION = 1;
+
+    /**
+     * DEFLATE窗口大小，超过的部分永远不会被引用
+     */
+    public static final int MAX_SIZE = 32 * 1024;
+
+    private static final String RESOURCE_PATH = "/ceres/dictionary/v" + VERSION + ".bin";
+
+    private static byte[] dictionary;
+    private static int id;
+    private static boolean loaded = false;
+
+    private CeresCompressionDictionary() {
+    }
+
+    /**
+     * 获取覆盖字典的路径
+     *
+     * @return 字典文件路径
+     */
+    public static Path getOverridePath() {
+        return FMLPaths.CONFIGDIR.get().resolve("ceres").resolve("dictionary.bin");
+    }
+
+    /**
+     * 检查字典是否可用
+     *
+     * @return 如果字典可用则返回true
+     */
+    public static boolean isAvailable() {
+        return get() != null;
+    }
+
+    /**
+     * 获取字典内容
+     *
+     * @return 字典内容，调用者不能修改；如果字典不可用则返回null
+     */
+    public static synchronized byte[] get() {
+        if (!loaded) {
+            load();
+        }
+        return dictionary;
+    }
+
+    /**
+     * 获取字典的Adler-32校验值，与ZLIB流中的DICTID相同
+     *
+     * @return 校验值，如果字典不可用则返回0
+     */
+    public static synchronized int id() {
+        if (!loaded) {
+            load();
+        }
+        return id;
+    }
+
+    private static void load() {
+        loaded = true;
+        byte[] data = null;
+
+        Path overridePath = getOverridePath();
+        try {
+            if (Files.isRegularFile(overridePath)) {
+                data = Files.readAllBytes(overridePath);
+                Ceres.LOGGER.info("Loaded compression dictionary override from {}", overridePath);
+            }
+        } catch (IOException e) {
+            Ceres.LOGGER.warn("Failed to read compression dictionary override {}: {}", overridePath, e.getMessage());
+        }
+
+        if (data == null) {
+            try (InputStream in = CeresCompressionDictionary.class.getResourceAsStream(RESOURCE_PATH)) {
+                if (in != null) {
+                    data = in.readAllBytes();
+                }
+            } catch (IOException e) {
+                Ceres.LOGGER.warn("Failed to read bundled compression dictionary: {}", e.getMessage());
+            }
+        }
+
+        if (data == null || data.length == 0) {
+            Ceres.LOGGER.warn("No compression dictionary available, dictionary mode disabled");
+            return;
+        }
+
+        if (data.length > MAX_SIZE) {
+            // 只有最后32KB在DEFLATE窗口内
+            byte[] tail = new byte[MAX_SIZE];
+            System.arraycopy(data, data.length - MAX_SIZE, tail, 0, MAX_SIZE);
+            data = tail;
+        }
+
+        Adler32 adler = new Adler32();
+        adler.update(data);
+        dictionary = data;
+        id = (int) adler.getValue();
+
+        Ceres.LOGGER.info("Compression dictionary v{}: {} bytes, id {}", VERSION, data.length, Integer.toHexString(id));
+    }
+}
@@ -19,6 +19,7 @@ public class CeresCompressionManager {
 
 
     private static CeresConfig.CompressionEngine currentEngine = CeresConfig.CompressionEngine.JAVA;
+    private static boolean lz4Preferred = false;
 
 
     private static final ThreadLocal<CeresLibdeflateCompressor> LIBDEFLATE_COMPRESSOR =
@@ -40,7 +41,13 @@ public class CeresCompressionManager {
 
         CeresConfig.CompressionEngine configEngine = CeresConfig.COMMON.compressionEngine.get();
 
-        if (configEngine == CeresConfig.CompressionEngine.AUTO) {
+        // LZ4只能用于协商过的Ceres连接，其他连接仍然需要一个DEFLATE引擎
+        lz4Preferred = configEngine == CeresConfig.CompressionEngine.LZ4;
+        if (lz4Preferred) {
+            Ceres.LOGGER.info("Using LZ4 with Ceres peers that support it");
+        }
+
+        if (configEngine == CeresConfig.CompressionEngine.AUTO || lz4Preferred) {
 
             if (CeresLibdeflate.isAvailable() && CeresConfig.COMMON.useNativeCompression.get()) {
                 currentEngine = CeresConfig.CompressionEngine.LIBDEFLATE;
@@ -84,6 +91,11 @@ public class CeresCompressionManager {
             return data;
         }
 
+        // 预计压缩不会变小时直接跳过压缩器
+        if (CeresCompressibilityEstimator.isLikelyIncompressible(data, 0, data.length)) {
+            return data;
+        }
+
         long startTime = System.nanoTime();
         byte[] result;
 
@@ -348,6 +360,15 @@ public class CeresCompressionManager {
         return currentEngine;
     }
 
+    /**
+     * 检查是否在协商过的Ceres连接上优先使用LZ4
+     *
+     * @return 如果配置的引擎是LZ4则返回true
+     */
+    public static boolean isLz4Preferred() {
+        return lz4Preferred;
+    }
+
 
     public static void shutdown() {
 
@@ -0,0 +1,241 @@
+package com.xinian.ceres.common.compression;
+
+import com.xinian.ceres.Ceres;
+import io.netty.buffer.ByteBuf;
+import it.unimi.dsi.fastutil.longs.Long2IntOpenHashMap;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * 压缩字典训练器
+ *
+ * <p>从真实流量中采集刚好超过压缩阈值的数据包，离线训练预设字典。
+ * 训练方法与zstd的COVER算法类似：统计每个8字节片段在多少个样本中出现，
+ * 把样本分成若干段，每段选出覆盖最多高频片段的子串加入字典，
+ * 已覆盖的片段不再计分。最有价值的子串放在字典末尾，离数据最近，引用距离最短。</p>
+ *
+ * <p>采集在编码器中进行，训练结果写入{@link CeresCompressionDictionary#getOverridePath()}，
+ * 重启后生效。客户端必须使用相同的字典才能启用字典模式。</p>
+ */
+public final class CeresDictionaryTrainer {
+    private static final int KMER_LENGTH = 8;
+    private static final int SEGMENT_LENGTH = 64;
+    private static final int MAX_SAMPLE_SIZE = 16 * 1024;
+    private static final int MAX_SAMPLES = 4096;
+    private static final int MAX_SAMPLE_BYTES = 16 * 1024 * 1024;
+
+    private static final List<byte[]> SAMPLES = new ArrayList<>();
+    private static volatile boolean capturing = false;
+    private static int sampleBytes;
+
+    private CeresDictionaryTrainer() {
+    }
+
+    /**
+     * 开始采集样本
+     */
+    public static synchronized void startCapture() {
+        SAMPLES.clear();
+        sampleBytes = 0;
+        capturing = true;
+    }
+
+    /**
+     * 停止采集样本
+     */
+    public static void stopCapture() {
+        capturing = false;
+    }
+
+    /**
+     * 检查是否正在采集样本
+     *
+     * @return 如果正在采集则返回true
+     */
+    public static boolean isCapturing() {
+        return capturing;
+    }
+
+    /**
+     * 提供一个未压缩的数据包作为样本，不会修改缓冲区的读写索引
+     *
+     * @param packet 未压缩的数据包
+     */
+    public static void offer(ByteBuf packet) {
+        int length = packet.readableBytes();
+        if (!capturing || length > MAX_SAMPLE_SIZE) {
+            return;
+        }
+
+        synchronized (CeresDictionaryTrainer.class) {
+            if (SAMPLES.size() >= MAX_SAMPLES || sampleBytes + length > MAX_SAMPLE_BYTES) {
+                capturing = false;
+                return;
+            }
+            byte[] sample = new byte[length];
+            packet.getBytes(packet.readerIndex(), sample);
+            SAMPLES.add(sample);
+            sampleBytes += length;
+        }
+    }
+
+    /**
+     * 获取已采集的样本
+     *
+     * @return 样本副本列表
+     */
+    public static synchronized List<byte[]> getSamples() {
+        return new ArrayList<>(SAMPLES);
+    }
+
+    /**
+     * 使用已采集的样本训练字典并写入覆盖路径
+     *
+     * @param dictionarySize 字典大小（字节数）
+     * @return 写入的字典文件路径
+     * @throws IOException 如果写入失败
+     */
+    public static Path trainAndSave(int dictionarySize) throws IOException {
+        stopCapture();
+        List<byte[]> samples = getSamples();
+        if (samples.isEmpty()) {
+            throw new IllegalStateException("No samples captured");
+        }
+
+        byte[] dictionary = train(samples, dictionarySize);
+        Path path = CeresCompressionDictionary.getOverridePath();
+        Files.createDirectories(path.getParent());
+        Files.write(path, dictionary);
+
+        Ceres.LOGGER.info("Trained {} byte compression dictionary from {} samples, written to {}",
+                dictionary.length, samples.size(), path);
+        return path;
+    }
+
+    /**
+     * 从样本训练字典
+     *
+     * @param samples 样本
+     * @param dictionarySize 字典大小（字节数）
+     * @return 字典内容
+     */
+    public static byte[] train(List<byte[]> samples, int dictionarySize) {
+        dictionarySize = Math.min(dictionarySize, CeresCompressionDictionary.MAX_SIZE);
+
+        // 每个片段在多少个样本中出现（同一样本中重复出现只计一次）
+        Long2IntOpenHashMap frequency = new Long2IntOpenHashMap();
+        for (byte[] sample : samples) {
+            Long2IntOpenHashMap seen = new Long2IntOpenHashMap();
+            for (int i = 0; i + KMER_LENGTH <= sample.length; i++) {
+                long kmer = kmer(sample, i);
+                if (seen.put(kmer, 1) == 0) {
+                    frequency.addTo(kmer, 1);
+                }
+            }
+        }
+
+        int totalLength = 0;
+        for (byte[] sample : samples) {
+            totalLength += sample.length;
+        }
+
+        int segments = Math.max(1, dictionarySize / SEGMENT_LENGTH);
+        int epochLength = Math.max(SEGMENT_LENGTH, totalLength / segments);
+        List<byte[]> selected = new ArrayList<>();
+        int selectedBytes = 0;
+
+        // 把所有样本看作一个连续的序列，按段选择
+        int epochStart = 0;
+        while (selectedBytes < dictionarySize && epochStart < totalLength) {
+            byte[] best = selectSegment(samples, frequency, epochStart, epochStart + epochLength);
+            if (best != null) {
+                selected.add(best);
+                selectedBytes += best.length;
+            }
+            epochStart += epochLength;
+        }
+
+        // 先选出的片段更有价值，放在末尾
+        ByteArrayOutputStream out = new ByteArrayOutputStream(selectedBytes);
+        for (int i = selected.size() - 1; i >= 0; i--) {
+            out.writeBytes(selected.get(i));
+        }
+
+        byte[] dictionary = out.toByteArray();
+        if (dictionary.length > dictionarySize) {
+            byte[] tail = new byte[dictionarySize];
+            System.arraycopy(dictionary, dictionary.length - dictionarySize, tail, 0, dictionarySize);
+            dictionary = tail;
+        }
+        return dictionary;
+    }
+
+    /**
+     * 在[from, to)范围内选出得分最高的片段，并把它覆盖的片段频率清零
+     */
+    private static byte[] selectSegment(List<byte[]> samples, Long2IntOpenHashMap frequency, int from, int to) {
+        int offset = 0;
+        long bestScore = 0;
+        byte[] bestSample = null;
+        int bestStart = 0;
+
+        for (byte[] sample : samples) {
+            int sampleEnd = offset + sample.length;
+            if (sampleEnd > from && offset < to && sample.length >= SEGMENT_LENGTH) {
+                int start = Math.max(0, from - offset);
+                int end = Math.min(sample.length, to - offset);
+
+                // 滑动窗口计算每个起点的得分
+                long score = 0;
+                int windowKmers = SEGMENT_LENGTH - KMER_LENGTH + 1;
+                for (int i = start; i + SEGMENT_LENGTH <= sample.length && i < end; i++) {
+                    if (i == start) {
+                        score = 0;
+                        for (int k = 0; k < windowKmers; k++) {
+                            score += frequency.get(kmer(sample, i + k));
+                        }
+                    } else {
+                        score -= frequency.get(kmer(sample, i - 1));
+                        score += frequency.get(kmer(sample, i + windowKmers - 1));
+                    }
+
+                    if (score > bestScore) {
+                        bestScore = score;
+                        bestSample = sample;
+                        bestStart = i;
+                    }
+                }
+            }
+            offset = sampleEnd;
+            if (offset >= to) {
+                break;
+            }
+        }
+
+        // 只出现在一个样本中的片段对其他数据包没有帮助
+        if (bestSample == null || bestScore <= SEGMENT_LENGTH - KMER_LENGTH + 1) {
+            return null;
+        }
+
+        for (int k = 0; k + KMER_LENGTH <= SEGMENT_LENGTH; k++) {
+            frequency.put(kmer(bestSample, bestStart + k), 0);
+        }
+
+        byte[] segment = new byte[SEGMENT_LENGTH];
+        System.arraycopy(bestSample, bestStart, segment, 0, SEGMENT_LENGTH);
+        return segment;
+    }
+
+    private static long kmer(byte[] data, int index) {
+        long value = 0;
+        for (int i = 0; i < KMER_LENGTH; i++) {
+            value = (value << 8) | (data[index + i] & 0xFF);
+        }
+        return value;
+    }
+}
@@ -0,0 +1,210 @@
+package com.xinian.ceres.common.compression;
+
+import com.xinian.ceres.common.network.util.CeresNatives.CeresCompressor;
+import io.netty.buffer.ByteBuf;
+
+import java.nio.ByteBuffer;
+import java.util.zip.DataFormatException;
+
+/**
+ * 基于libdeflate的零拷贝ByteBuf压缩器
+ *
+ * <p>直接在ByteBuf的底层内存上调用libdeflate：直接缓冲区使用其内部NIO视图，
+ * 堆缓冲区使用其底层数组，整个过程不会分配中间的{@code byte[]}。
+ * 输出始终使用ZLIB容器，与原版Minecraft的压缩格式保持一致。</p>
+ *
+ * <p>libdeflate的级别在分配压缩上下文时固定，按帧选择级别时每个用到的级别各保留一个上下文。</p>
+ *
+ * <p><strong>线程安全性</strong>：与libdeflate上下文一样不是线程安全的，
+ * 应该只在所属通道的事件循环中使用。</p>
+ */
+public class CeresLibdeflateByteBufCompressor implements CeresCompressor {
+    private static final CeresCompressionType FORMAT = CeresCompressionType.ZLIB;
+
+    private static final int MAX_LEVEL = 12;
+
+    private int level;
+    private final CeresLibdeflateCompressor[] compressors = new CeresLibdeflateCompressor[MAX_LEVEL + 1];
+    private CeresLibdeflateDecompressor decompressor;
+    private boolean closed = false;
+
+    /**
+     * 创建一个新的libdeflate ByteBuf压缩器
+     *
+     * @param level 压缩级别，从0到12
+     */
+    public CeresLibdeflateByteBufCompressor(int level) {
+        CeresLibdeflate.ensureAvailable();
+        this.level = Math.max(0, Math.min(MAX_LEVEL, level));
+    }
+
+    @Override
+    public void deflate(ByteBuf source, ByteBuf destination) {
+        deflate(source, destination, level);
+    }
+
+    @Override
+    public void deflate(ByteBuf source, ByteBuf destination, int level) {
+        int sourceLength = source.readableBytes();
+        if (sourceLength == 0) {
+            return;
+        }
+
+        CeresLibdeflateCompressor ctx = compressor(Math.max(0, Math.min(MAX_LEVEL, level)));
+        int bound = (int) ctx.getCompressBound(sourceLength, FORMAT);
+        destination.ensureWritable(bound);
+
+        ByteBuf in = contiguous(source);
+        try {
+            long produced = compress0(ctx, in, destination, bound);
+            if (produced <= 0) {
+                throw new IllegalStateException("libdeflate failed to compress " + sourceLength + " bytes");
+            }
+            destination.writerIndex(destination.writerIndex() + (int) produced);
+            source.skipBytes(sourceLength);
+        } finally {
+            if (in != source) {
+                in.release();
+            }
+        }
+    }
+
+    @Override
+    public void inflate(ByteBuf source, ByteBuf destination, int uncompressedSize) {
+        int sourceLength = source.readableBytes();
+        if (sourceLength == 0) {
+            return;
+        }
+
+        destination.ensureWritable(uncompressedSize);
+
+        ByteBuf in = contiguous(source);
+        try {
+            ByteBuffer inNio = in.internalNioBuffer(in.readerIndex(), sourceLength);
+            ByteBuffer outNio = destination.internalNioBuffer(destination.writerIndex(), uncompressedSize);
+            decompressor().decompress(inNio, outNio, FORMAT, uncompressedSize);
+            destination.writerIndex(destination.writerIndex() + uncompressedSize);
+            source.skipBytes(sourceLength);
+        } catch (DataFormatException e) {
+            throw new RuntimeException("Failed to decompress data", e);
+        } finally {
+            if (in != source) {
+                in.release();
+            }
+        }
+    }
+
+    @Override
+    public void close() {
+        // 编码器和解码器共享同一个实例，两者移除时都会调用close
+        if (closed) {
+            return;
+        }
+        closed = true;
+        releaseCompressors();
+        if (decompressor != null) {
+            decompressor.close();
+        }
+    }
+
+    @Override
+    public boolean setLevel(int level) {
+        int newLevel = Math.max(0, Math.min(MAX_LEVEL, level));
+        if (newLevel != this.level) {
+            this.level = newLevel;
+            // 级别调整后原来的上下文大多不会再用到，全部释放，下次压缩时按需重新分配
+            releaseCompressors();
+        }
+        return true;
+    }
+
+    @Override
+    public int getLevel() {
+        return level;
+    }
+
+    @Override
+    public int outputBound(int sourceLength) {
+        return (int) compressor(level).getCompressBound(sourceLength, FORMAT);
+    }
+
+    @Override
+    public int getMaxLevel() {
+        return MAX_LEVEL;
+    }
+
+    /**
+     * 根据源和目标的内存类型选择对应的本地压缩入口
+     */
+    private static long compress0(CeresLibdeflateCompressor ctx, ByteBuf in, ByteBuf out, int outLength) {
+        int inLength = in.readableBytes();
+        int type = FORMAT.getNativeType();
+
+        if (in.hasArray()) {
+            byte[] inArray = in.array();
+            int inPos = in.arrayOffset() + in.readerIndex();
+            if (out.hasArray()) {
+                return CeresLibdeflateCompressor.compressBothHeap(ctx.ctx, inArray, inPos, inLength,
+                        out.array(), out.arrayOffset() + out.writerIndex(), outLength, type);
+            }
+            ByteBuffer outNio = out.internalNioBuffer(out.writerIndex(), outLength);
+            return CeresLibdeflateCompressor.compressOnlyDestinationDirect(ctx.ctx, inArray, inPos, inLength,
+                    outNio, outNio.position(), outLength, type);
+        }
+
+        ByteBuffer inNio = in.internalNioBuffer(in.readerIndex(), inLength);
+        if (out.hasArray()) {
+            return CeresLibdeflateCompressor.compressOnlySourceDirect(ctx.ctx, inNio, inNio.position(), inLength,
+                    out.array(), out.arrayOffset() + out.writerIndex(), outLength, type);
+        }
+        ByteBuffer outNio = out.internalNioBuffer(out.writerIndex(), outLength);
+        return CeresLibdeflateCompressor.compressBothDirect(ctx.ctx, inNio, inNio.position(), inLength,
+                outNio, outNio.position(), outLength, type);
+    }
+
+    /**
+     * 确保缓冲区的可读区域是单块连续内存
+     * 只有复合缓冲区和只读的堆缓冲区才需要复制，正常的池化缓冲区原样返回
+     */
+    private static ByteBuf contiguous(ByteBuf buf) {
+        if (buf.hasArray() || (buf.isDirect() && buf.nioBufferCount() == 1)) {
+            return buf;
+        }
+        ByteBuf copy = buf.alloc().directBuffer(buf.readableBytes());
+        copy.writeBytes(buf, buf.readerIndex(), buf.readableBytes());
+        return copy;
+    }
+
+    private CeresLibdeflateCompressor compressor(int level) {
+        ensureNotClosed();
+        CeresLibdeflateCompressor compressor = compressors[level];
+        if (compressor == null) {
+            compressor = new CeresLibdeflateCompressor(level);
+            compressors[level] = compressor;
+        }
+        return compressor;
+    }
+
+    private void releaseCompressors() {
+        for (int i = 0; i < compressors.length; i++) {
+            if (compressors[i] != null) {
+                compressors[i].close();
+                compressors[i] = null;
+            }
+        }
+    }
+
+    private CeresLibdeflateDecompressor decompressor() {
+        ensureNotClosed();
+        if (decompressor == null) {
+            decompressor = new CeresLibdeflateDecompressor();
+        }
+        return decompressor;
+    }
+
+    private void ensureNotClosed() {
+        if (closed) {
+            throw new IllegalStateException("Compressor already closed.");
+        }
+    }
+}
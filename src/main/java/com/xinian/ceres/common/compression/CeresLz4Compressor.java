@@ -0,0 +1,321 @@
+package com.xinian.ceres.common.compression;
+
+import com.xinian.ceres.common.network.util.CeresNatives.CeresCompressor;
+import io.netty.buffer.ByteBuf;
+import io.netty.handler.codec.DecoderException;
+
+import java.util.Arrays;
+
+/**
+ * 纯Java实现的LZ4块压缩器
+ *
+ * <p>输出标准的LZ4块格式（不带帧头），解压需要知道原始大小，
+ * 这正好由Minecraft压缩帧头部的未压缩大小提供。
+ * 压缩使用单次哈希查找的快速模式，没有压缩级别，CPU开销远低于任何级别的DEFLATE，
+ * 适合带宽充足、延迟敏感的局域网和代理到后端的链路。</p>
+ *
+ * <p>LZ4不是原版协议的一部分，只有双方通过Ceres通道协商之后才会使用。</p>
+ *
+ * <p><strong>线程安全性</strong>：此类不是线程安全的，每个通道使用自己的实例。</p>
+ */
+public class CeresLz4Compressor implements CeresCompressor {
+    private static final int MIN_MATCH = 4;
+    private static final int LAST_LITERALS = 5;
+    private static final int MF_LIMIT = 12;
+    private static final int MAX_DISTANCE = 65535;
+    private static final int HASH_LOG = 12;
+    private static final int ML_BITS = 4;
+    private static final int ML_MASK = (1 << ML_BITS) - 1;
+    private static final int RUN_MASK = (1 << (8 - ML_BITS)) - 1;
+
+    private final int[] hashTable = new int[1 << HASH_LOG];
+    private byte[] input = new byte[0];
+    private byte[] output = new byte[0];
+
+    /**
+     * 计算最坏情况下的压缩大小
+     *
+     * @param length 原始大小
+     * @return 压缩后的最大大小
+     */
+    public static int maxCompressedLength(int length) {
+        return length + length / 255 + 16;
+    }
+
+    @Override
+    public int outputBound(int sourceLength) {
+        return maxCompressedLength(sourceLength);
+    }
+
+    @Override
+    public void deflate(ByteBuf source, ByteBuf destination) {
+        int length = source.readableBytes();
+        byte[] src;
+        int srcOffset;
+        if (source.hasArray()) {
+            src = source.array();
+            srcOffset = source.arrayOffset() + source.readerIndex();
+        } else {
+            src = inputBuffer(length);
+            source.getBytes(source.readerIndex(), src, 0, length);
+            srcOffset = 0;
+        }
+
+        int maxLength = maxCompressedLength(length);
+        destination.ensureWritable(maxLength);
+        int written;
+        if (destination.hasArray()) {
+            written = compress(src, srcOffset, length, destination.array(),
+                    destination.arrayOffset() + destination.writerIndex());
+        } else {
+            byte[] dst = outputBuffer(maxLength);
+            written = compress(src, srcOffset, length, dst, 0);
+            destination.setBytes(destination.writerIndex(), dst, 0, written);
+        }
+
+        destination.writerIndex(destination.writerIndex() + written);
+        source.skipBytes(length);
+    }
+
+    @Override
+    public void inflate(ByteBuf source, ByteBuf destination, int uncompressedSize) {
+        int length = source.readableBytes();
+        byte[] src;
+        int srcOffset;
+        if (source.hasArray()) {
+            src = source.array();
+            srcOffset = source.arrayOffset() + source.readerIndex();
+        } else {
+            src = inputBuffer(length);
+            source.getBytes(source.readerIndex(), src, 0, length);
+            srcOffset = 0;
+        }
+
+        destination.ensureWritable(uncompressedSize);
+        if (destination.hasArray()) {
+            decompress(src, srcOffset, length, destination.array(),
+                    destination.arrayOffset() + destination.writerIndex(), uncompressedSize);
+        } else {
+            byte[] dst = outputBuffer(uncompressedSize);
+            decompress(src, srcOffset, length, dst, 0, uncompressedSize);
+            destination.setBytes(destination.writerIndex(), dst, 0, uncompressedSize);
+        }
+
+        destination.writerIndex(destination.writerIndex() + uncompressedSize);
+        source.skipBytes(length);
+    }
+
+    /**
+     * 压缩一个块
+     *
+     * @return 写入的字节数
+     */
+    int compress(byte[] src, int srcOffset, int length, byte[] dst, int dstOffset) {
+        int srcEnd = srcOffset + length;
+        int matchLimit = srcEnd - LAST_LITERALS;
+        int mfLimit = srcEnd - MF_LIMIT;
+        int op = dstOffset;
+        int anchor = srcOffset;
+
+        if (length >= MF_LIMIT + 1) {
+            Arrays.fill(hashTable, -1);
+            int ip = srcOffset;
+
+            while (ip < mfLimit) {
+                int sequence = readInt(src, ip);
+                int h = hash(sequence);
+                int ref = hashTable[h];
+                hashTable[h] = ip;
+
+                if (ref < 0 || ip - ref > MAX_DISTANCE || readInt(src, ref) != sequence) {
+                    // 没有匹配时随着连续失败加快步进，不可压缩的数据可以快速跳过
+                    ip += 1 + ((ip - anchor) >>> 6);
+                    continue;
+                }
+
+                // 向前扩展匹配
+                while (ip > anchor && ref > srcOffset && src[ip - 1] == src[ref - 1]) {
+                    ip--;
+                    ref--;
+                }
+
+                // 向后扩展匹配
+                int matchLength = MIN_MATCH;
+                while (ip + matchLength < matchLimit && src[ip + matchLength] == src[ref + matchLength]) {
+                    matchLength++;
+                }
+
+                op = writeSequence(src, anchor, ip - anchor, dst, op, ip - ref, matchLength);
+                ip += matchLength;
+                anchor = ip;
+
+                if (ip < mfLimit) {
+                    hashTable[hash(readInt(src, ip - 2))] = ip - 2;
+                }
+            }
+        }
+
+        // 最后的字面量
+        int literals = srcEnd - anchor;
+        op = writeLength(dst, op, literals);
+        System.arraycopy(src, anchor, dst, op, literals);
+        op += literals;
+        return op - dstOffset;
+    }
+
+    /**
+     * 解压一个块，输出必须恰好是预期大小
+     */
+    static void decompress(byte[] src, int srcOffset, int length, byte[] dst, int dstOffset, int uncompressedSize) {
+        int ip = srcOffset;
+        int srcEnd = srcOffset + length;
+        int op = dstOffset;
+        int dstEnd = dstOffset + uncompressedSize;
+
+        while (true) {
+            if (ip >= srcEnd) {
+                throw new DecoderException("Badly compressed LZ4 packet - truncated input");
+            }
+            int token = src[ip++] & 0xFF;
+
+            int literals = token >>> ML_BITS;
+            if (literals == RUN_MASK) {
+                int b;
+                do {
+                    if (ip >= srcEnd) {
+                        throw new DecoderException("Badly compressed LZ4 packet - truncated literal length");
+                    }
+                    b = src[ip++] & 0xFF;
+                    literals += b;
+                } while (b == 255);
+            }
+
+            if (literals > srcEnd - ip || literals > dstEnd - op) {
+                throw new DecoderException("Badly compressed LZ4 packet - literals out of bounds");
+            }
+            System.arraycopy(src, ip, dst, op, literals);
+            ip += literals;
+            op += literals;
+
+            if (ip == srcEnd) {
+                // 最后一个序列只有字面量
+                if (op != dstEnd) {
+                    throw new DecoderException("Badly compressed LZ4 packet - expected " + uncompressedSize
+                            + " bytes, got " + (op - dstOffset));
+                }
+                return;
+            }
+
+            if (srcEnd - ip < 2) {
+                throw new DecoderException("Badly compressed LZ4 packet - truncated offset");
+            }
+            int offset = (src[ip] & 0xFF) | ((src[ip + 1] & 0xFF) << 8);
+            ip += 2;
+            if (offset == 0 || offset > op - dstOffset) {
+                throw new DecoderException("Badly compressed LZ4 packet - invalid offset " + offset);
+            }
+
+            int matchLength = token & ML_MASK;
+            if (matchLength == ML_MASK) {
+                int b;
+                do {
+                    if (ip >= srcEnd) {
+                        throw new DecoderException("Badly compressed LZ4 packet - truncated match length");
+                    }
+                    b = src[ip++] & 0xFF;
+                    matchLength += b;
+                } while (b == 255);
+            }
+            matchLength += MIN_MATCH;
+
+            if (matchLength > dstEnd - op) {
+                throw new DecoderException("Badly compressed LZ4 packet - match out of bounds");
+            }
+
+            int ref = op - offset;
+            if (offset >= matchLength) {
+                System.arraycopy(dst, ref, dst, op, matchLength);
+                op += matchLength;
+            } else {
+                // 重叠的匹配必须逐字节复制
+                for (int i = 0; i < matchLength; i++) {
+                    dst[op++] = dst[ref++];
+                }
+            }
+        }
+    }
+
+    private static int writeSequence(byte[] src, int anchor, int literals, byte[] dst, int op,
+                                     int offset, int matchLength) {
+        int tokenIndex = op;
+        op = writeLength(dst, op, literals);
+        System.arraycopy(src, anchor, dst, op, literals);
+        op += literals;
+
+        dst[op++] = (byte) offset;
+        dst[op++] = (byte) (offset >>> 8);
+
+        int extra = matchLength - MIN_MATCH;
+        if (extra >= ML_MASK) {
+            dst[tokenIndex] |= ML_MASK;
+            extra -= ML_MASK;
+            while (extra >= 255) {
+                dst[op++] = (byte) 255;
+                extra -= 255;
+            }
+            dst[op++] = (byte) extra;
+        } else {
+            dst[tokenIndex] |= (byte) extra;
+        }
+        return op;
+    }
+
+    /**
+     * 写入令牌和字面量长度，令牌的匹配部分由调用者补上
+     */
+    private static int writeLength(byte[] dst, int op, int literals) {
+        if (literals >= RUN_MASK) {
+            dst[op++] = (byte) (RUN_MASK << ML_BITS);
+            int remaining = literals - RUN_MASK;
+            while (remaining >= 255) {
+                dst[op++] = (byte) 255;
+                remaining -= 255;
+            }
+            dst[op++] = (byte) remaining;
+        } else {
+            dst[op++] = (byte) (literals << ML_BITS);
+        }
+        return op;
+    }
+
+    private static int readInt(byte[] buf, int index) {
+        return (buf[index] & 0xFF)
+                | (buf[index + 1] & 0xFF) << 8
+                | (buf[index + 2] & 0xFF) << 16
+                | (buf[index + 3] & 0xFF) << 24;
+    }
+
+    private static int hash(int sequence) {
+        return (sequence * -1640531535) >>> (32 - HASH_LOG);
+    }
+
+    private byte[] inputBuffer(int length) {
+        if (input.length < length) {
+            input = new byte[Math.max(length, 8192)];
+        }
+        return input;
+    }
+
+    private byte[] outputBuffer(int length) {
+        if (output.length < length) {
+            output = new byte[Math.max(length, 8192)];
+        }
+        return output;
+    }
+
+    @Override
+    public void close() {
+        input = new byte[0];
+        output = new byte[0];
+    }
+}
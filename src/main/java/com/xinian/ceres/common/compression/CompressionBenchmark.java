@@ -3,12 +3,23 @@ package com.xinian.ceres.common.compression;
 import com.xinian.ceres.Ceres;
 import com.xinian.ceres.CeresConfig;
 import com.xinian.ceres.CeresConfig.CommonConfig.*;
+import com.xinian.ceres.common.network.compression.CeresDictionaryCompressor;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import net.minecraft.network.FriendlyByteBuf;
 import net.minecraft.network.chat.Component;
 import net.minecraft.server.level.ServerPlayer;
+import net.minecraft.world.item.Item;
+import net.minecraft.world.item.ItemStack;
+import net.minecraft.world.item.Items;
+import net.minecraft.world.item.enchantment.Enchantment;
+import net.minecraft.world.item.enchantment.Enchantments;
 
 import java.io.ByteArrayOutputStream;
 import java.nio.ByteBuffer;
 import java.text.DecimalFormat;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Random;
 import java.util.zip.Deflater;
 import java.util.zip.GZIPOutputStream;
@@ -19,6 +30,7 @@ public class CompressionBenchmark {
     private static final int[] TEST_SIZES = {1024, 8 * 1024, 64 * 1024, 256 * 1024, 1024 * 1024};
     private static final int WARMUP_ITERATIONS = 3;
     private static final int TEST_ITERATIONS = 5;
+    private static final int DICTIONARY_SAMPLE_COUNT = 500;
 
     public static void runBenchmarkForPlayer(ServerPlayer player) {
         player.sendSystemMessage(Component.literal("§6Running Ceres compression benchmark..."));
@@ -88,6 +100,15 @@ public class CompressionBenchmark {
                 results.append("§cLibdeflate not available\n");
             }
 
+            long lz4Time = timeLz4(testData);
+            byte[] lz4Compressed = compressWithLz4(testData);
+            results.append(String.format("§aLZ4 (Ceres peers only): %s → %s (%.1f%%) in %.2f ms, %.2fx Java speed\n",
+                    formatSize(testData.length),
+                    formatSize(lz4Compressed.length),
+                    (double) lz4Compressed.length / testData.length * 100,
+                    lz4Time / 1_000_000.0,
+                    (double) javaTime / lz4Time));
+
             results.append("\n");
         }
 
@@ -169,6 +190,15 @@ public class CompressionBenchmark {
             } else {
                 Ceres.LOGGER.info("Libdeflate not available");
             }
+
+            long lz4Time = timeLz4(testData);
+            byte[] lz4Compressed = compressWithLz4(testData);
+            Ceres.LOGGER.info("LZ4 (Ceres peers only): {} → {} ({}%) in {} ms, {}x Java speed",
+                    formatSize(testData.length),
+                    formatSize(lz4Compressed.length),
+                    DECIMAL_FORMAT.format((double) lz4Compressed.length / testData.length * 100),
+                    DECIMAL_FORMAT.format(lz4Time / 1_000_000.0),
+                    DECIMAL_FORMAT.format((double) javaTime / lz4Time));
         }
 
 
@@ -180,6 +210,160 @@ public class CompressionBenchmark {
     }
 
 
+    /**
+     * 比较有无预设字典时刚超过压缩阈值的数据包的压缩率，并把结果发送给玩家
+     *
+     * @param player 玩家
+     * @param threshold 服务器的压缩阈值
+     */
+    public static void runDictionaryBenchmarkForPlayer(ServerPlayer player, int threshold) {
+        player.sendSystemMessage(Component.literal("§6Running Ceres dictionary benchmark..."));
+        for (String line : dictionaryBenchmark(threshold)) {
+            player.sendSystemMessage(Component.literal("§a" + line));
+        }
+    }
+
+    /**
+     * 比较有无预设字典时刚超过压缩阈值的数据包的压缩率，并把结果记录到日志
+     *
+     * @param threshold 服务器的压缩阈值
+     */
+    public static void runDictionaryBenchmark(int threshold) {
+        Ceres.LOGGER.info("Running dictionary benchmark...");
+        for (String line : dictionaryBenchmark(threshold)) {
+            Ceres.LOGGER.info(line);
+        }
+    }
+
+    private static List<String> dictionaryBenchmark(int threshold) {
+        List<String> lines = new ArrayList<>();
+        byte[] dictionary = CeresCompressionDictionary.get();
+        if (dictionary == null) {
+            lines.add("No compression dictionary available");
+            return lines;
+        }
+
+        threshold = Math.max(threshold, 64);
+        List<byte[]> samples = new ArrayList<>();
+        for (byte[] sample : CeresDictionaryTrainer.getSamples()) {
+            if (sample.length >= threshold && sample.length < threshold * 4) {
+                samples.add(sample);
+            }
+        }
+        String source = "captured";
+        if (samples.isEmpty()) {
+            samples = generateItemPackets(threshold, DICTIONARY_SAMPLE_COUNT);
+            source = "synthetic item";
+        }
+
+        int level = Math.min(9, Math.max(1, CeresConfig.COMMON.compressionLevel.get()));
+        long totalSize = 0;
+        for (byte[] sample : samples) {
+            totalSize += sample.length;
+        }
+
+        Deflater deflater = new Deflater(level);
+        CeresDictionaryCompressor dictionaryCompressor = new CeresDictionaryCompressor(level, dictionary);
+        try {
+            for (int i = 0; i < WARMUP_ITERATIONS; i++) {
+                compressAll(samples, deflater, null);
+                compressAll(samples, null, dictionaryCompressor);
+            }
+
+            long plainStart = System.nanoTime();
+            long plainSize = compressAll(samples, deflater, null);
+            long plainTime = System.nanoTime() - plainStart;
+
+            long dictionaryStart = System.nanoTime();
+            long dictionarySize = compressAll(samples, null, dictionaryCompressor);
+            long dictionaryTime = System.nanoTime() - dictionaryStart;
+
+            lines.add(String.format("%d %s packets, %s total, avg %d B (threshold %d, level %d)",
+                    samples.size(), source, formatSize(totalSize), totalSize / samples.size(), threshold, level));
+            lines.add(String.format("Without dictionary: %s (%.1f%%) in %.2f ms",
+                    formatSize(plainSize), plainSize * 100.0 / totalSize, plainTime / 1_000_000.0));
+            lines.add(String.format("With dictionary v%d (%s): %s (%.1f%%) in %.2f ms",
+                    CeresCompressionDictionary.VERSION, formatSize(dictionary.length),
+                    formatSize(dictionarySize), dictionarySize * 100.0 / totalSize, dictionaryTime / 1_000_000.0));
+            lines.add(String.format("Dictionary saves %.1f%% of compressed bytes",
+                    (plainSize - dictionarySize) * 100.0 / plainSize));
+        } finally {
+            deflater.end();
+            dictionaryCompressor.close();
+        }
+        return lines;
+    }
+
+    private static long compressAll(List<byte[]> samples, Deflater deflater, CeresDictionaryCompressor compressor) {
+        long total = 0;
+        byte[] buffer = new byte[64 * 1024];
+        ByteBuf out = Unpooled.buffer(64 * 1024);
+        try {
+            for (byte[] sample : samples) {
+                if (compressor != null) {
+                    out.clear();
+                    compressor.deflate(Unpooled.wrappedBuffer(sample), out);
+                    total += out.readableBytes();
+                } else {
+                    deflater.setInput(sample);
+                    deflater.finish();
+                    while (!deflater.finished()) {
+                        total += deflater.deflate(buffer);
+                    }
+                    deflater.reset();
+                }
+            }
+        } finally {
+            out.release();
+        }
+        return total;
+    }
+
+    /**
+     * 生成类似容器内容数据包的样本，大小在阈值和两倍阈值之间
+     */
+    private static List<byte[]> generateItemPackets(int threshold, int count) {
+        Random random = new Random(42);
+        Item[] items = {Items.DIAMOND_SWORD, Items.NETHERITE_PICKAXE, Items.BOW, Items.ELYTRA,
+                Items.IRON_CHESTPLATE, Items.ENCHANTED_BOOK, Items.OAK_LOG, Items.COBBLESTONE,
+                Items.BREAD, Items.TORCH, Items.SHIELD, Items.TRIDENT};
+        Enchantment[] enchantments = {Enchantments.SHARPNESS, Enchantments.UNBREAKING, Enchantments.MENDING,
+                Enchantments.BLOCK_EFFICIENCY, Enchantments.ALL_DAMAGE_PROTECTION, Enchantments.POWER_ARROWS,
+                Enchantments.FIRE_ASPECT, Enchantments.LOYALTY};
+
+        List<byte[]> packets = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            int targetSize = threshold + random.nextInt(threshold);
+            FriendlyByteBuf buf = new FriendlyByteBuf(Unpooled.buffer(targetSize * 2));
+            try {
+                buf.writeVarInt(0x10);
+                buf.writeByte(random.nextInt(100));
+                buf.writeVarInt(random.nextInt(1000));
+                while (buf.readableBytes() < targetSize) {
+                    ItemStack stack = new ItemStack(items[random.nextInt(items.length)], 1 + random.nextInt(64));
+                    if (stack.isDamageableItem()) {
+                        stack.setDamageValue(random.nextInt(stack.getMaxDamage()));
+                    }
+                    int enchantCount = random.nextInt(4);
+                    for (int e = 0; e < enchantCount; e++) {
+                        stack.enchant(enchantments[random.nextInt(enchantments.length)], 1 + random.nextInt(5));
+                    }
+                    if (random.nextInt(4) == 0) {
+                        stack.setHoverName(Component.literal("Item #" + random.nextInt(10000)));
+                    }
+                    buf.writeItem(stack);
+                }
+
+                byte[] packet = new byte[buf.readableBytes()];
+                buf.readBytes(packet);
+                packets.add(packet);
+            } finally {
+                buf.release();
+            }
+        }
+        return packets;
+    }
+
     private static byte[] generateTestData(int size) {
         byte[] data = new byte[size];
         Random random = new Random(42);
@@ -221,6 +405,38 @@ public class CompressionBenchmark {
         }
     }
 
+    /**
+     * 使用纯Java LZ4压缩数据
+     *
+     * @param data 原始数据
+     * @return 压缩后的数据
+     */
+    private static byte[] compressWithLz4(byte[] data) {
+        CeresLz4Compressor compressor = new CeresLz4Compressor();
+        byte[] output = new byte[CeresLz4Compressor.maxCompressedLength(data.length)];
+        int compressedSize = compressor.compress(data, 0, data.length, output, 0);
+        byte[] result = new byte[compressedSize];
+        System.arraycopy(output, 0, result, 0, compressedSize);
+        return result;
+    }
+
+    /**
+     * 测量LZ4压缩的平均耗时（包括预热）
+     *
+     * @param data 原始数据
+     * @return 平均耗时（纳秒）
+     */
+    private static long timeLz4(byte[] data) {
+        for (int i = 0; i < WARMUP_ITERATIONS; i++) {
+            compressWithLz4(data);
+        }
+        long startTime = System.nanoTime();
+        for (int i = 0; i < TEST_ITERATIONS; i++) {
+            compressWithLz4(data);
+        }
+        return Math.max(1, (System.nanoTime() - startTime) / TEST_ITERATIONS);
+    }
+
     /**
      * 使用libdeflate压缩数据
      *
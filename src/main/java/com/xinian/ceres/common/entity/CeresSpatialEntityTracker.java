@@ -0,0 +1,154 @@
+package com.xinian.ceres.common.entity;
+
+import com.xinian.ceres.CeresConfig;
+import it.unimi.dsi.fastutil.ints.Int2ObjectMap;
+import net.minecraft.server.level.ChunkMap;
+import net.minecraft.server.level.ServerLevel;
+import net.minecraft.server.level.ServerPlayer;
+import net.minecraft.world.entity.Entity;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 玩家移动时只更新附近实体的追踪状态
+ *
+ * <p>原版在每次玩家移动时遍历世界中所有的实体追踪器。这里通过{@link CeresWorldEntityByChunkAccess}
+ * 只取出玩家旧位置和新位置周围区块中的实体：</p>
+ * <ul>
+ *   <li>实体只有在所在区块被玩家追踪时才会被看到，玩家追踪的区块以旧位置为中心，
+ *       所以已经看到的实体都在旧位置周围，离开范围的实体仍然会被移除</li>
+ *   <li>新位置周围的实体覆盖了所有可能进入范围的实体</li>
+ *   <li>实体跨区段移动时由{@code ChunkMap.tick}对所有玩家重新检查，不依赖这里</li>
+ * </ul>
+ *
+ * <p>实体很少而视距很大时，逐个区块查询反而更慢，这时仍然遍历所有追踪器。</p>
+ *
+ * <p><strong>线程安全性</strong>：只能在服务器主线程中调用，统计信息可以从任意线程读取。</p>
+ */
+public final class CeresSpatialEntityTracker {
+    private static final AtomicLong MOVES = new AtomicLong(0);
+    private static final AtomicLong SPATIAL_MOVES = new AtomicLong(0);
+    private static final AtomicLong TRACKERS_UPDATED = new AtomicLong(0);
+    private static final AtomicLong TRACKERS_SKIPPED = new AtomicLong(0);
+
+    private CeresSpatialEntityTracker() {
+    }
+
+    /**
+     * 检查是否启用了按区块查找附近实体
+     *
+     * @return 如果启用则返回true
+     */
+    public static boolean isEnabled() {
+        return CeresConfig.SERVER.enableSpatialEntityTracking.get();
+    }
+
+    /**
+     * 更新玩家对附近实体的追踪状态，以及玩家自身的追踪器
+     *
+     * @param level 世界
+     * @param entityMap 实体ID到追踪器的映射
+     * @param player 移动的玩家
+     * @param oldChunkX 玩家上次更新时的区块X坐标
+     * @param oldChunkZ 玩家上次更新时的区块Z坐标
+     * @param newChunkX 玩家当前的区块X坐标
+     * @param newChunkZ 玩家当前的区块Z坐标
+     * @param viewDistance 服务器视距
+     */
+    public static void updateTrackers(ServerLevel level, Int2ObjectMap<ChunkMap.TrackedEntity> entityMap, ServerPlayer player,
+                                      int oldChunkX, int oldChunkZ, int newChunkX, int newChunkZ, int viewDistance) {
+        MOVES.incrementAndGet();
+
+        // 追踪范围不超过视距，加1覆盖实体在区块内的偏移
+        int radius = viewDistance + 1;
+        int side = 2 * radius + 1;
+        boolean overlapping = Math.abs(oldChunkX - newChunkX) <= 2 * radius && Math.abs(oldChunkZ - newChunkZ) <= 2 * radius;
+        long chunkCount = overlapping
+                ? (long) (side + Math.abs(oldChunkX - newChunkX)) * (side + Math.abs(oldChunkZ - newChunkZ))
+                : 2L * side * side;
+
+        if (!(level instanceof CeresWorldEntityByChunkAccess access) || entityMap.size() <= chunkCount) {
+            updateAll(level, entityMap, player);
+            return;
+        }
+        SPATIAL_MOVES.incrementAndGet();
+
+        ChunkMap.TrackedEntity own = entityMap.get(player.getId());
+        if (own != null) {
+            own.updatePlayers(level.players());
+        }
+
+        int updated = 0;
+        for (int x = newChunkX - radius; x <= newChunkX + radius; ++x) {
+            for (int z = newChunkZ - radius; z <= newChunkZ + radius; ++z) {
+                updated += updateChunk(access, entityMap, player, x, z);
+            }
+        }
+        for (int x = oldChunkX - radius; x <= oldChunkX + radius; ++x) {
+            for (int z = oldChunkZ - radius; z <= oldChunkZ + radius; ++z) {
+                if (Math.abs(x - newChunkX) > radius || Math.abs(z - newChunkZ) > radius) {
+                    updated += updateChunk(access, entityMap, player, x, z);
+                }
+            }
+        }
+
+        TRACKERS_UPDATED.addAndGet(updated);
+        TRACKERS_SKIPPED.addAndGet(Math.max(0, entityMap.size() - updated - 1));
+    }
+
+    private static int updateChunk(CeresWorldEntityByChunkAccess access, Int2ObjectMap<ChunkMap.TrackedEntity> entityMap,
+                                   ServerPlayer player, int chunkX, int chunkZ) {
+        int updated = 0;
+        for (Entity entity : access.getEntitiesInChunk(chunkX, chunkZ)) {
+            if (entity == player) {
+                continue;
+            }
+            ChunkMap.TrackedEntity tracker = entityMap.get(entity.getId());
+            if (tracker != null) {
+                tracker.updatePlayer(player);
+                updated++;
+            }
+        }
+        return updated;
+    }
+
+    /**
+     * 原版的做法，遍历所有追踪器
+     */
+    private static void updateAll(ServerLevel level, Int2ObjectMap<ChunkMap.TrackedEntity> entityMap, ServerPlayer player) {
+        for (ChunkMap.TrackedEntity entityTracker : entityMap.values()) {
+            if (entityTracker.entity == player) {
+                entityTracker.updatePlayers(level.players());
+            } else {
+                entityTracker.updatePlayer(player);
+            }
+        }
+        TRACKERS_UPDATED.addAndGet(entityMap.size());
+    }
+
+    /**
+     * 获取实体追踪统计信息
+     *
+     * @return 统计信息字符串
+     */
+    public static String getTrackingStats() {
+        if (!isEnabled()) {
+            return "Spatial entity tracking: disabled";
+        }
+        long updated = TRACKERS_UPDATED.get();
+        long skipped = TRACKERS_SKIPPED.get();
+        long total = updated + skipped;
+        return String.format("Spatial entity tracking: %d/%d moves by chunk lookup, %d tracker updates, %d skipped (%.1f%% skipped)",
+                SPATIAL_MOVES.get(), MOVES.get(), updated, skipped, total > 0 ? skipped * 100.0 / total : 0.0);
+    }
+
+    /**
+     * 重置统计信息
+     */
+    public static void resetStats() {
+        MOVES.set(0);
+        SPATIAL_MOVES.set(0);
+        TRACKERS_UPDATED.set(0);
+        TRACKERS_SKIPPED.set(0);
+    }
+}
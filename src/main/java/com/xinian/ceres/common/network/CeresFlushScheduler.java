@@ -0,0 +1,217 @@
+package com.xinian.ceres.common.network;
+
+import com.xinian.ceres.CeresConfig;
+import io.netty.channel.Channel;
+import io.netty.channel.ChannelFuture;
+import io.netty.util.AttributeKey;
+import net.minecraft.network.protocol.game.ClientboundDisconnectPacket;
+import net.minecraft.network.protocol.game.ClientboundKeepAlivePacket;
+import net.minecraft.network.protocol.game.ClientboundMoveVehiclePacket;
+import net.minecraft.network.protocol.game.ClientboundPingPacket;
+import net.minecraft.network.protocol.game.ClientboundPlayerPositionPacket;
+
+import java.util.Iterator;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 按服务器刻合并刷新
+ *
+ * <p>游戏阶段的数据包只写入通道，不立即刷新：</p>
+ * <ul>
+ *   <li>服务器刻进行中写入的连接记录下来，在刻结束时每个连接刷新一次</li>
+ *   <li>刻之外写入的（例如主线程空闲时处理玩家操作的回应）在事件循环的下一轮刷新</li>
+ *   <li>对延迟敏感的数据包（心跳、传送）最多等待配置的微秒数，
+ *       同一时间窗口内的多个敏感数据包共用一次刷新；预算为0时立即刷新</li>
+ *   <li>断开连接的数据包总是立即刷新</li>
+ * </ul>
+ *
+ * <p>刷新次数减少后，每次系统调用写出的数据更多，TCP分段也更满。</p>
+ *
+ * <p><strong>线程安全性</strong>：{@link #write}在连接的事件循环中调用，
+ * 刻开始和结束的回调在服务器主线程中调用。</p>
+ */
+public final class CeresFlushScheduler {
+    private static final AttributeKey<FlushState> FLUSH_STATE = AttributeKey.valueOf("ceres:flush_state");
+
+    private static final Set<Channel> DIRTY = ConcurrentHashMap.newKeySet();
+    private static volatile boolean inTick;
+
+    private static final AtomicLong DEFERRED_WRITES = new AtomicLong(0);
+    private static final AtomicLong TICK_FLUSHES = new AtomicLong(0);
+    private static final AtomicLong IDLE_FLUSHES = new AtomicLong(0);
+    private static final AtomicLong BYPASS_FLUSHES = new AtomicLong(0);
+
+    private CeresFlushScheduler() {
+    }
+
+    /**
+     * 检查是否启用了按刻合并刷新
+     *
+     * @return 如果启用则返回true
+     */
+    public static boolean isEnabled() {
+        return CeresConfig.SERVER.enableTickFlushScheduler.get();
+    }
+
+    /**
+     * 写入数据包并安排刷新，必须在通道的事件循环中调用
+     *
+     * @param channel 通道
+     * @param packet 数据包
+     * @return 写入的结果
+     */
+    public static ChannelFuture write(Channel channel, Object packet) {
+        ChannelFuture future = channel.write(packet);
+        DEFERRED_WRITES.incrementAndGet();
+
+        if (packet instanceof ClientboundDisconnectPacket) {
+            // 断开连接之后通道可能马上被关闭，不能等待
+            channel.flush();
+            BYPASS_FLUSHES.incrementAndGet();
+        } else if (isLatencyCritical(packet)) {
+            scheduleBypassFlush(channel);
+        } else if (!inTick) {
+            scheduleIdleFlush(channel);
+        } else {
+            DIRTY.add(channel);
+            // 刻可能刚好在这之前结束，那时的刷新不一定看到这个通道
+            if (!inTick) {
+                scheduleIdleFlush(channel);
+            }
+        }
+        return future;
+    }
+
+    /**
+     * 请求刷新通道，刻进行中时推迟到刻结束
+     * 可以从任意线程调用
+     *
+     * @param channel 通道
+     */
+    public static void requestFlush(Channel channel) {
+        if (isEnabled() && inTick) {
+            DIRTY.add(channel);
+            if (inTick) {
+                return;
+            }
+        }
+        channel.flush();
+    }
+
+    /**
+     * 服务器刻开始时调用
+     */
+    public static void onTickStart() {
+        inTick = true;
+    }
+
+    /**
+     * 服务器刻结束时调用，刷新刻内写入过的所有连接
+     */
+    public static void onTickEnd() {
+        inTick = false;
+        flushAll();
+    }
+
+    /**
+     * 立即刷新所有等待中的连接，例如服务器停止时
+     */
+    public static void flushAll() {
+        Iterator<Channel> iterator = DIRTY.iterator();
+        while (iterator.hasNext()) {
+            Channel channel = iterator.next();
+            iterator.remove();
+            if (channel.isActive()) {
+                channel.flush();
+                TICK_FLUSHES.incrementAndGet();
+            }
+        }
+    }
+
+    /**
+     * 检查数据包是否需要尽快送达
+     */
+    private static boolean isLatencyCritical(Object packet) {
+        return packet instanceof ClientboundKeepAlivePacket
+                || packet instanceof ClientboundPlayerPositionPacket
+                || packet instanceof ClientboundMoveVehiclePacket
+                || packet instanceof ClientboundPingPacket;
+    }
+
+    private static void scheduleBypassFlush(Channel channel) {
+        int budget = CeresConfig.SERVER.flushBypassBudgetMicros.get();
+        if (budget <= 0) {
+            channel.flush();
+            BYPASS_FLUSHES.incrementAndGet();
+            return;
+        }
+
+        FlushState state = state(channel);
+        if (!state.bypassPending) {
+            state.bypassPending = true;
+            channel.eventLoop().schedule(() -> {
+                state.bypassPending = false;
+                channel.flush();
+                BYPASS_FLUSHES.incrementAndGet();
+            }, budget, TimeUnit.MICROSECONDS);
+        }
+    }
+
+    private static void scheduleIdleFlush(Channel channel) {
+        FlushState state = state(channel);
+        if (!state.idlePending) {
+            state.idlePending = true;
+            channel.eventLoop().execute(() -> {
+                state.idlePending = false;
+                channel.flush();
+                IDLE_FLUSHES.incrementAndGet();
+            });
+        }
+    }
+
+    private static FlushState state(Channel channel) {
+        FlushState state = channel.attr(FLUSH_STATE).get();
+        if (state == null) {
+            state = new FlushState();
+            channel.attr(FLUSH_STATE).set(state);
+        }
+        return state;
+    }
+
+    /**
+     * 获取刷新统计信息
+     *
+     * @return 统计信息字符串
+     */
+    public static String getFlushStats() {
+        if (!isEnabled()) {
+            return "Flush scheduler: disabled";
+        }
+        long writes = DEFERRED_WRITES.get();
+        long flushes = TICK_FLUSHES.get() + IDLE_FLUSHES.get() + BYPASS_FLUSHES.get();
+        return String.format("Flush scheduler: %d writes, %d flushes (%d end of tick, %d idle, %d latency bypass), %.1f writes/flush",
+                writes, flushes, TICK_FLUSHES.get(), IDLE_FLUSHES.get(), BYPASS_FLUSHES.get(),
+                flushes > 0 ? (double) writes / flushes : 0.0);
+    }
+
+    /**
+     * 重置统计信息
+     */
+    public static void resetStats() {
+        DEFERRED_WRITES.set(0);
+        TICK_FLUSHES.set(0);
+        IDLE_FLUSHES.set(0);
+        BYPASS_FLUSHES.set(0);
+    }
+
+    /**
+     * 每个通道的刷新状态，只在事件循环中访问
+     */
+    private static final class FlushState {
+        private boolean idlePending;
+        private boolean bypassPending;
+    }
+}
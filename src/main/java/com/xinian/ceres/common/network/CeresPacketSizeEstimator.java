@@ -0,0 +1,170 @@
+package com.xinian.ceres.common.network;
+
+import com.xinian.ceres.CeresConfig;
+import com.xinian.ceres.common.compression.CeresCompressibilityEstimator;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 按数据包类预估输出缓冲区大小
+ *
+ * <p>编码缓冲区默认从分配器的初始容量开始，区块和注册表这样的大数据包在编码过程中要多次扩容复制。
+ * 这里为每个数据包类记录编码后大小的移动平均和平均偏差，分配时直接给出足够大的容量。
+ * 压缩缓冲区按{@link CeresCompressibilityEstimator}记录的每个数据包ID的压缩率预估。</p>
+ *
+ * <p>数据包类在第一次出现时分配一个下标，之后的记录和查询只访问基本类型数组。
+ * 预估不足导致缓冲区扩容的次数作为误判计入统计。</p>
+ *
+ * <p><strong>线程安全性</strong>：所有方法都可以从任意线程调用，
+ * 并发更新可能丢失个别样本，这不影响预估。</p>
+ */
+public final class CeresPacketSizeEstimator {
+    private static final int MAX_TRACKED_CLASSES = 1024;
+    private static final int MIN_SAMPLES = 4;
+    private static final int MIN_CAPACITY = 64;
+
+    /**
+     * 长度前缀最多3字节，帧不会超过这个大小
+     */
+    private static final int MAX_CAPACITY = (1 << 21) - 1;
+
+    private static final AtomicInteger NEXT_INDEX = new AtomicInteger(0);
+    private static final ClassValue<Integer> CLASS_INDEX = new ClassValue<>() {
+        @Override
+        protected Integer computeValue(Class<?> type) {
+            int index = NEXT_INDEX.getAndIncrement();
+            return index < MAX_TRACKED_CLASSES ? index : -1;
+        }
+    };
+
+    private static final AtomicIntegerArray MEAN_SIZE = new AtomicIntegerArray(MAX_TRACKED_CLASSES);
+    private static final AtomicIntegerArray MEAN_DEVIATION = new AtomicIntegerArray(MAX_TRACKED_CLASSES);
+    private static final AtomicIntegerArray SAMPLES = new AtomicIntegerArray(MAX_TRACKED_CLASSES);
+
+    private static final AtomicLong ENCODE_FRAMES = new AtomicLong(0);
+    private static final AtomicLong ENCODE_GROWN = new AtomicLong(0);
+    private static final AtomicLong COMPRESS_FRAMES = new AtomicLong(0);
+    private static final AtomicLong COMPRESS_GROWN = new AtomicLong(0);
+
+    private CeresPacketSizeEstimator() {
+    }
+
+    /**
+     * 检查是否启用了按数据包类预估缓冲区大小
+     *
+     * @return 如果启用则返回true
+     */
+    public static boolean isEnabled() {
+        return CeresConfig.COMMON.enableAdaptiveBufferSizing.get();
+    }
+
+    /**
+     * 获取数据包编码缓冲区的预估容量
+     *
+     * @param packetClass 数据包类
+     * @return 预估容量，样本不足时返回-1
+     */
+    public static int encodeCapacity(Class<?> packetClass) {
+        int index = CLASS_INDEX.get(packetClass);
+        if (index < 0 || SAMPLES.get(index) < MIN_SAMPLES) {
+            return -1;
+        }
+        // 平均值加两倍平均偏差，大小波动的数据包也很少需要扩容
+        long capacity = MEAN_SIZE.get(index) + 2L * MEAN_DEVIATION.get(index) + 16;
+        return (int) Math.max(MIN_CAPACITY, Math.min(MAX_CAPACITY, capacity));
+    }
+
+    /**
+     * 记录数据包编码后的大小
+     *
+     * @param packetClass 数据包类
+     * @param size 编码后的大小
+     * @param grown 编码过程中缓冲区是否扩容过
+     */
+    public static void recordEncoded(Class<?> packetClass, int size, boolean grown) {
+        ENCODE_FRAMES.incrementAndGet();
+        if (grown) {
+            ENCODE_GROWN.incrementAndGet();
+        }
+
+        int index = CLASS_INDEX.get(packetClass);
+        if (index < 0) {
+            return;
+        }
+        int samples = SAMPLES.get(index);
+        if (samples == 0) {
+            MEAN_SIZE.set(index, size);
+            MEAN_DEVIATION.set(index, 0);
+        } else {
+            // 指数移动平均，最近的样本权重1/8
+            int mean = MEAN_SIZE.get(index);
+            int deviation = MEAN_DEVIATION.get(index);
+            MEAN_SIZE.set(index, mean + (size - mean) / 8);
+            MEAN_DEVIATION.set(index, deviation + (Math.abs(size - mean) - deviation) / 8);
+        }
+        if (samples < MIN_SAMPLES) {
+            SAMPLES.set(index, samples + 1);
+        }
+    }
+
+    /**
+     * 获取压缩输出的预估大小，不包括帧头
+     *
+     * @param packetId 数据包ID，可以由{@link CeresCompressibilityEstimator#peekPacketId}获取
+     * @param uncompressedSize 压缩前的大小
+     * @return 预估大小，没有记录时返回-1
+     */
+    public static int compressedCapacity(int packetId, int uncompressedSize) {
+        int ratio = CeresCompressibilityEstimator.expectedRatioPermille(packetId);
+        if (ratio < 0) {
+            return -1;
+        }
+        // 留出1/8的余量，但不超过DEFLATE存储模式的最坏情况
+        long predicted = (long) uncompressedSize * ratio / 1000 + uncompressedSize / 8 + MIN_CAPACITY;
+        long worstCase = uncompressedSize + (uncompressedSize >>> 10) + 16;
+        return (int) Math.min(predicted, worstCase);
+    }
+
+    /**
+     * 记录压缩帧的缓冲区是否在压缩过程中扩容
+     *
+     * @param grown 缓冲区是否扩容过
+     */
+    public static void recordCompressed(boolean grown) {
+        COMPRESS_FRAMES.incrementAndGet();
+        if (grown) {
+            COMPRESS_GROWN.incrementAndGet();
+        }
+    }
+
+    /**
+     * 获取预估统计信息
+     *
+     * @return 统计信息字符串
+     */
+    public static String getSizingStats() {
+        if (!isEnabled()) {
+            return "Buffer sizing: disabled";
+        }
+        return String.format("Buffer sizing: %d classes, encode %d/%d grown (%.2f%%), compress %d/%d grown (%.2f%%)",
+                Math.min(NEXT_INDEX.get(), MAX_TRACKED_CLASSES),
+                ENCODE_GROWN.get(), ENCODE_FRAMES.get(), percent(ENCODE_GROWN.get(), ENCODE_FRAMES.get()),
+                COMPRESS_GROWN.get(), COMPRESS_FRAMES.get(), percent(COMPRESS_GROWN.get(), COMPRESS_FRAMES.get()));
+    }
+
+    private static double percent(long part, long total) {
+        return total > 0 ? part * 100.0 / total : 0.0;
+    }
+
+    /**
+     * 重置统计信息，大小记录保持不变
+     */
+    public static void resetStats() {
+        ENCODE_FRAMES.set(0);
+        ENCODE_GROWN.set(0);
+        COMPRESS_FRAMES.set(0);
+        COMPRESS_GROWN.set(0);
+    }
+}
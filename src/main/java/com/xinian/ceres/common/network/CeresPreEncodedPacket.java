@@ -0,0 +1,246 @@
+package com.xinian.ceres.common.network;
+
+import com.xinian.ceres.CeresConfig;
+import com.xinian.ceres.common.compression.CeresCompressibilityEstimator;
+import com.xinian.ceres.common.network.util.CeresNatives.CeresCompressor;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufUtil;
+import io.netty.buffer.Unpooled;
+import net.minecraft.network.ConnectionProtocol;
+import net.minecraft.network.FriendlyByteBuf;
+import net.minecraft.network.protocol.Packet;
+import net.minecraft.network.protocol.PacketFlow;
+import net.minecraft.network.protocol.game.ClientGamePacketListener;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 预编码数据包
+ *
+ * <p>包装一个游戏阶段的客户端数据包，使其在多个连接之间只序列化一次、只压缩一次。
+ * 第一个写出它的连接负责编码（以及压缩），后续连接直接复用结果，
+ * 每次写出时只创建一个只读的包装缓冲区。</p>
+ *
+ * <p>编码结果保存在不可变的堆数组中，因此不需要引用计数，
+ * 在途的数据包被丢弃时也不会泄漏池化内存。</p>
+ *
+ * <p>内存连接（单人游戏和局域网主机）不经过编码器，发送时会尽量换回原始数据包；
+ * 如果原始数据包已被释放，{@link #handle}会从编码结果中解码出一个新的数据包。</p>
+ *
+ * <p><strong>线程安全性</strong>：可以被多个事件循环同时写出，编码和压缩都只会执行一次。</p>
+ */
+public class CeresPreEncodedPacket implements Packet<ClientGamePacketListener> {
+    private static final AtomicLong BROADCASTS_PRE_ENCODED = new AtomicLong(0);
+    private static final AtomicLong BROADCAST_RECIPIENTS = new AtomicLong(0);
+
+    private volatile Packet<?> source;
+    private volatile byte[] encoded;
+    private volatile byte[] compressedFrame;
+    private int bodyOffset;
+
+    /**
+     * 创建一个新的预编码数据包
+     *
+     * @param source 被包装的游戏阶段客户端数据包
+     */
+    public CeresPreEncodedPacket(Packet<?> source) {
+        this.source = source;
+    }
+
+    /**
+     * 为广播包装数据包，使所有接收者共享同一份编码结果
+     * 只有游戏阶段的客户端数据包才会被包装，单个接收者时包装没有收益
+     *
+     * @param packet 要广播的数据包
+     * @param recipients 预计的接收者数量
+     * @return 预编码数据包，或者不适合包装时返回原数据包
+     */
+    public static Packet<?> forBroadcast(Packet<?> packet, int recipients) {
+        if (recipients < 2 || packet instanceof CeresPreEncodedPacket
+                || !CeresConfig.SERVER.enableBroadcastPreEncoding.get()
+                || ConnectionProtocol.PLAY.getPacketId(PacketFlow.CLIENTBOUND, packet) == null) {
+            return packet;
+        }
+
+        BROADCASTS_PRE_ENCODED.incrementAndGet();
+        BROADCAST_RECIPIENTS.addAndGet(recipients);
+        return new CeresPreEncodedPacket(packet);
+    }
+
+    /**
+     * 获取编码后的数据包（数据包ID + 数据包内容）
+     * 第一次调用时编码，之后释放对原始数据包的引用
+     *
+     * @return 编码后的字节，调用者不能修改
+     */
+    public byte[] encoded() {
+        byte[] data = this.encoded;
+        if (data != null) {
+            return data;
+        }
+
+        synchronized (this) {
+            if (this.encoded == null) {
+                Packet<?> packet = this.source;
+                Integer packetId = ConnectionProtocol.PLAY.getPacketId(PacketFlow.CLIENTBOUND, packet);
+                if (packetId == null) {
+                    throw new IllegalStateException("Can't pre-encode unregistered packet " + packet.getClass().getName());
+                }
+
+                FriendlyByteBuf buf = new FriendlyByteBuf(Unpooled.buffer());
+                try {
+                    buf.writeVarInt(packetId);
+                    this.bodyOffset = buf.writerIndex();
+                    packet.write(buf);
+                    this.encoded = ByteBufUtil.getBytes(buf);
+                } finally {
+                    buf.release();
+                }
+
+                this.source = null;
+                onEncoded(this.encoded.length);
+            }
+            return this.encoded;
+        }
+    }
+
+    /**
+     * 获取压缩后的帧（未压缩大小的VarInt + ZLIB数据）
+     * 第一次调用时使用调用者的压缩器压缩，任何ZLIB解码器都可以解压结果
+     *
+     * @param compressor 调用者通道上的压缩器
+     * @return 压缩后的帧，调用者不能修改
+     */
+    public byte[] compressedFrame(CeresCompressor compressor) {
+        byte[] frame = this.compressedFrame;
+        if (frame != null) {
+            return frame;
+        }
+
+        byte[] data = encoded();
+        synchronized (this) {
+            if (this.compressedFrame == null) {
+                FriendlyByteBuf out = new FriendlyByteBuf(Unpooled.buffer(data.length + 5));
+                try {
+                    out.writeVarInt(data.length);
+                    compressor.deflate(Unpooled.wrappedBuffer(data), out);
+                    this.compressedFrame = ByteBufUtil.getBytes(out);
+                } finally {
+                    out.release();
+                }
+                // 共享的压缩帧不经过编码器的压缩路径，在这里记录压缩率
+                CeresCompressibilityEstimator.recordCompressed(
+                        CeresCompressibilityEstimator.peekPacketId(Unpooled.wrappedBuffer(data)),
+                        data.length, this.compressedFrame.length);
+                onEncoded(this.compressedFrame.length);
+            }
+            return this.compressedFrame;
+        }
+    }
+
+    /**
+     * 获取已经生成的压缩帧的大小
+     *
+     * @return 压缩帧的字节数，还没有压缩时返回-1
+     */
+    public int compressedSize() {
+        byte[] frame = this.compressedFrame;
+        return frame != null ? frame.length : -1;
+    }
+
+    /**
+     * 获取未压缩的编码数据的只读包装
+     *
+     * @return 只读缓冲区
+     */
+    public ByteBuf encodedBuffer() {
+        return Unpooled.wrappedBuffer(encoded()).asReadOnly();
+    }
+
+    /**
+     * 获取原始数据包，用于不经过编码器的内存连接
+     *
+     * @return 原始数据包，如果已经编码并释放则返回自身
+     */
+    public Packet<?> unwrap() {
+        Packet<?> packet = this.source;
+        return packet != null ? packet : this;
+    }
+
+    /**
+     * 获取一个真正的数据包对象，用于按数据包类处理的管道处理器
+     *
+     * @return 原始数据包，如果已经编码并释放则从编码结果中解码出一个新的数据包
+     */
+    public Packet<?> toPacket() {
+        Packet<?> packet = this.source;
+        return packet != null ? packet : decode();
+    }
+
+    /**
+     * 获取压缩帧的只读包装
+     *
+     * @param compressor 调用者通道上的压缩器
+     * @return 只读缓冲区
+     */
+    public ByteBuf compressedFrameBuffer(CeresCompressor compressor) {
+        return Unpooled.wrappedBuffer(compressedFrame(compressor)).asReadOnly();
+    }
+
+    /**
+     * 编码或压缩结果生成后调用，子类可用于统计内存占用
+     *
+     * @param bytes 新生成的字节数
+     */
+    protected void onEncoded(int bytes) {
+    }
+
+    /**
+     * 获取广播预编码统计信息
+     *
+     * @return 统计信息字符串
+     */
+    public static String getBroadcastStats() {
+        long broadcasts = BROADCASTS_PRE_ENCODED.get();
+        long recipients = BROADCAST_RECIPIENTS.get();
+        return String.format("Pre-encoded broadcasts: %d packets for %d recipients (%d encodes saved)",
+                broadcasts, recipients, recipients - broadcasts);
+    }
+
+    /**
+     * 重置统计信息
+     */
+    public static void resetStats() {
+        BROADCASTS_PRE_ENCODED.set(0);
+        BROADCAST_RECIPIENTS.set(0);
+    }
+
+    @Override
+    public void write(FriendlyByteBuf buf) {
+        byte[] data = encoded();
+        buf.writeBytes(data, bodyOffset, data.length - bodyOffset);
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public void handle(ClientGamePacketListener listener) {
+        Packet<?> packet = this.source;
+        if (packet == null) {
+            packet = decode();
+        }
+        ((Packet<ClientGamePacketListener>) packet).handle(listener);
+    }
+
+    /**
+     * 从编码结果中解码出一个新的数据包
+     */
+    private Packet<?> decode() {
+        FriendlyByteBuf buf = new FriendlyByteBuf(Unpooled.wrappedBuffer(encoded()));
+        int packetId = buf.readVarInt();
+        Packet<?> packet = ConnectionProtocol.PLAY.createPacket(PacketFlow.CLIENTBOUND, packetId, buf);
+        if (packet == null) {
+            throw new IllegalStateException("Can't decode pre-encoded packet with id " + packetId);
+        }
+        return packet;
+    }
+}
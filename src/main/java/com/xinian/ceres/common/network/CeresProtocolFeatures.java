@@ -0,0 +1,225 @@
+package com.xinian.ceres.common.network;
+
+import com.xinian.ceres.Ceres;
+import com.xinian.ceres.CeresConfig;
+import com.xinian.ceres.common.compression.CeresCompressionDictionary;
+import com.xinian.ceres.common.compression.CeresCompressionManager;
+import com.xinian.ceres.common.compression.CeresLz4Compressor;
+import com.xinian.ceres.common.network.compression.CeresDictionaryCompressor;
+import com.xinian.ceres.common.network.compression.CeresMinecraftCompressDecoder;
+import com.xinian.ceres.common.network.compression.CeresMinecraftCompressEncoder;
+import com.xinian.ceres.common.network.compression.CeresMinecraftCompressorFactory;
+import com.xinian.ceres.common.network.compression.CeresStreamingCompressor;
+import com.xinian.ceres.common.network.util.CeresNatives.CeresCompressor;
+import io.netty.channel.Channel;
+import io.netty.channel.ChannelPipeline;
+import net.minecraft.network.Connection;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Ceres协议扩展
+ *
+ * <p>双方都安装了Ceres时，服务器通过{@code Ceres.NETWORK}发送自己支持的扩展，
+ * 客户端回复双方都支持的部分。能力交换之后，每一方的压缩编码器在切换模式时
+ * 先写出一个控制帧（未压缩大小为{@link #CONTROL_FRAME}，后跟扩展位），
+ * 对端的解码器读到控制帧时在同一帧边界切换，与自定义数据包在哪个线程处理无关。</p>
+ *
+ * <p>原版客户端或没有安装Ceres的客户端不会收到能力声明，也就不会收到控制帧。</p>
+ */
+public final class CeresProtocolFeatures {
+    /**
+     * 预设字典压缩
+     */
+    public static final int DICTIONARY = 1;
+
+    /**
+     * 流式（上下文接管）压缩，见{@link CeresStreamingCompressor}
+     */
+    public static final int STREAMING = 2;
+
+    /**
+     * LZ4块压缩，见{@link CeresLz4Compressor}
+     * 与DEFLATE的扩展互斥，同时协商时优先使用LZ4
+     */
+    public static final int LZ4 = 4;
+
+    /**
+     * 控制帧的未压缩大小标记，正常帧的未压缩大小不会是负数
+     */
+    public static final int CONTROL_FRAME = -1;
+
+    private static final AtomicLong CONNECTIONS_NEGOTIATED = new AtomicLong(0);
+    private static final AtomicLong DICTIONARY_CONNECTIONS = new AtomicLong(0);
+    private static final AtomicLong STREAMING_CONNECTIONS = new AtomicLong(0);
+    private static final AtomicLong LZ4_CONNECTIONS = new AtomicLong(0);
+
+    private CeresProtocolFeatures() {
+    }
+
+    /**
+     * 获取本地启用的扩展
+     *
+     * @return 扩展位
+     */
+    public static int localFeatures() {
+        int features = 0;
+        if (CeresConfig.COMMON.enableDictionaryCompression.get() && CeresCompressionDictionary.isAvailable()) {
+            features |= DICTIONARY;
+        }
+        if (CeresConfig.COMMON.enableStreamingCompression.get()) {
+            features |= STREAMING;
+        }
+        if (CeresCompressionManager.isLz4Preferred()) {
+            features |= LZ4;
+        }
+        return features;
+    }
+
+    /**
+     * 检查连接是否使用Ceres的压缩编解码器
+     *
+     * @param connection 连接
+     * @return 如果压缩编码器和解码器都是Ceres的则返回true
+     */
+    public static boolean hasCeresPipeline(Connection connection) {
+        Channel channel = connection.channel();
+        if (channel == null) {
+            return false;
+        }
+        ChannelPipeline pipeline = channel.pipeline();
+        return pipeline.get("compress") instanceof CeresMinecraftCompressEncoder
+                && pipeline.get("decompress") instanceof CeresMinecraftCompressDecoder;
+    }
+
+    /**
+     * 根据对端声明的能力计算双方都支持的扩展
+     *
+     * @param offered 对端声明的扩展位
+     * @param dictionaryVersion 对端的字典版本
+     * @param dictionaryId 对端字典的校验值
+     * @return 双方都支持的扩展位
+     */
+    public static int negotiate(int offered, int dictionaryVersion, int dictionaryId) {
+        int agreed = offered & localFeatures();
+        if ((agreed & DICTIONARY) != 0
+                && (dictionaryVersion != CeresCompressionDictionary.VERSION
+                || dictionaryId != CeresCompressionDictionary.id())) {
+            agreed &= ~DICTIONARY;
+        }
+        if ((agreed & LZ4) != 0) {
+            agreed &= ~(DICTIONARY | STREAMING);
+        }
+        return agreed;
+    }
+
+    /**
+     * 检查扩展位是否都被本地支持，解码器收到控制帧时调用
+     *
+     * @param features 扩展位
+     * @return 如果全部支持则返回true
+     */
+    public static boolean isSupported(int features) {
+        return (features & ~localFeatures()) == 0;
+    }
+
+    /**
+     * 检查扩展下的压缩帧是否仍是独立的ZLIB数据
+     * 只有这样才能混入工作线程压缩的帧和共享的预编码帧
+     *
+     * @param features 扩展位
+     * @return 如果压缩帧是独立的ZLIB数据则返回true
+     */
+    public static boolean producesZlibFrames(int features) {
+        return (features & (STREAMING | LZ4)) == 0;
+    }
+
+    /**
+     * 为扩展创建压缩器
+     *
+     * @param features 扩展位
+     * @param level 压缩级别
+     * @return 压缩器
+     */
+    public static CeresCompressor createCompressor(int features, int level) {
+        return createCompressor(features, level, false);
+    }
+
+    /**
+     * 为扩展创建压缩器
+     *
+     * @param features 扩展位
+     * @param level 压缩级别
+     * @param reserved 流式压缩上下文的内存是否已经预留
+     * @return 压缩器
+     */
+    public static CeresCompressor createCompressor(int features, int level, boolean reserved) {
+        if ((features & LZ4) != 0) {
+            return new CeresLz4Compressor();
+        }
+        if ((features & STREAMING) != 0) {
+            byte[] dictionary = (features & DICTIONARY) != 0 ? CeresCompressionDictionary.get() : null;
+            return new CeresStreamingCompressor(level, dictionary, reserved);
+        }
+        if ((features & DICTIONARY) != 0) {
+            return new CeresDictionaryCompressor(level, CeresCompressionDictionary.get());
+        }
+        return CeresMinecraftCompressorFactory.createCompressor(level);
+    }
+
+    /**
+     * 在连接的事件循环中切换压缩编码器的模式
+     *
+     * @param connection 连接
+     * @param features 双方都支持的扩展位
+     */
+    public static void enableEncoder(Connection connection, int features) {
+        Channel channel = connection.channel();
+        if (channel == null) {
+            return;
+        }
+
+        channel.eventLoop().execute(() -> {
+            if (channel.pipeline().get("compress") instanceof CeresMinecraftCompressEncoder encoder) {
+                int enabled = encoder.switchFeatures(features);
+                CONNECTIONS_NEGOTIATED.incrementAndGet();
+                if ((enabled & DICTIONARY) != 0) {
+                    DICTIONARY_CONNECTIONS.incrementAndGet();
+                }
+                if ((enabled & STREAMING) != 0) {
+                    STREAMING_CONNECTIONS.incrementAndGet();
+                }
+                if ((enabled & LZ4) != 0) {
+                    LZ4_CONNECTIONS.incrementAndGet();
+                }
+
+                if (CeresConfig.COMMON.enableLogging.get()) {
+                    Ceres.LOGGER.debug("Enabled Ceres protocol features {} (agreed {}) on {}",
+                            enabled, features, channel.remoteAddress());
+                }
+            }
+        });
+    }
+
+    /**
+     * 获取协商统计信息
+     *
+     * @return 统计信息字符串
+     */
+    public static String getNegotiationStats() {
+        return String.format("Protocol extensions: %d encoders switched, %d using dictionary v%d, %d streaming, " +
+                        "%d LZ4 (local features %d)",
+                CONNECTIONS_NEGOTIATED.get(), DICTIONARY_CONNECTIONS.get(), CeresCompressionDictionary.VERSION,
+                STREAMING_CONNECTIONS.get(), LZ4_CONNECTIONS.get(), localFeatures());
+    }
+
+    /**
+     * 重置统计信息
+     */
+    public static void resetStats() {
+        CONNECTIONS_NEGOTIATED.set(0);
+        DICTIONARY_CONNECTIONS.set(0);
+        STREAMING_CONNECTIONS.set(0);
+        LZ4_CONNECTIONS.set(0);
+    }
+}
@@ -0,0 +1,161 @@
+package com.xinian.ceres.common.network;
+
+import com.xinian.ceres.Ceres;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.PooledByteBufAllocator;
+import net.minecraft.core.BlockPos;
+import net.minecraft.network.FriendlyByteBuf;
+import net.minecraft.network.chat.Component;
+import net.minecraft.server.level.ServerPlayer;
+
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * 数据包字段读写的性能测试
+ * 报告每个字段的耗时和分配的字节数，在调用线程上单线程运行
+ */
+public class FriendlyByteBufBenchmark {
+    private static final int FIELDS_PER_ROUND = 4096;
+    private static final long WARMUP_NANOS = 100_000_000L;
+    private static final long MEASURE_NANOS = 250_000_000L;
+
+    private static final int[] VARINTS = {0, 1, 127, 128, 300, 16383, 16384, 2097151, 2097152, Integer.MAX_VALUE, -1};
+    private static final long[] VARLONGS = {0L, 1L, 127L, 300L, 1L << 35, Long.MAX_VALUE, -1L};
+    private static final String[] STRINGS = {"minecraft:stone", "minecraft:oak_log", "Steve", "这是一条聊天消息"};
+
+    /**
+     * 运行测试并把结果发送给玩家
+     *
+     * @param player 玩家
+     */
+    public static void runBenchmarkForPlayer(ServerPlayer player) {
+        player.sendSystemMessage(Component.literal("§6Running Ceres packet field benchmark..."));
+        for (String line : benchmark()) {
+            player.sendSystemMessage(Component.literal("§a" + line));
+        }
+    }
+
+    /**
+     * 运行测试并把结果记录到日志
+     */
+    public static void runBenchmark() {
+        Ceres.LOGGER.info("Running packet field benchmark...");
+        for (String line : benchmark()) {
+            Ceres.LOGGER.info(line);
+        }
+    }
+
+    private static List<String> benchmark() {
+        List<String> lines = new ArrayList<>();
+        if (!(ManagementFactory.getThreadMXBean() instanceof com.sun.management.ThreadMXBean threads)
+                || !threads.isThreadAllocatedMemorySupported()) {
+            lines.add("Allocation measurement is not supported by this JVM, reporting time only");
+        }
+
+        ByteBuf buf = PooledByteBufAllocator.DEFAULT.directBuffer(FIELDS_PER_ROUND * 64);
+        try {
+            FriendlyByteBuf friendly = new FriendlyByteBuf(buf);
+            lines.add(measure("writeVarInt", buf, () -> {
+                for (int i = 0; i < FIELDS_PER_ROUND; i++) {
+                    friendly.writeVarInt(VARINTS[i % VARINTS.length]);
+                }
+            }, null));
+            lines.add(measure("readVarInt", buf, () -> {
+                for (int i = 0; i < FIELDS_PER_ROUND; i++) {
+                    friendly.readVarInt();
+                }
+            }, () -> {
+                for (int i = 0; i < FIELDS_PER_ROUND; i++) {
+                    friendly.writeVarInt(VARINTS[i % VARINTS.length]);
+                }
+            }));
+            lines.add(measure("writeVarLong", buf, () -> {
+                for (int i = 0; i < FIELDS_PER_ROUND; i++) {
+                    friendly.writeVarLong(VARLONGS[i % VARLONGS.length]);
+                }
+            }, null));
+            lines.add(measure("readVarLong", buf, () -> {
+                for (int i = 0; i < FIELDS_PER_ROUND; i++) {
+                    friendly.readVarLong();
+                }
+            }, () -> {
+                for (int i = 0; i < FIELDS_PER_ROUND; i++) {
+                    friendly.writeVarLong(VARLONGS[i % VARLONGS.length]);
+                }
+            }));
+            BlockPos pos = new BlockPos(123, 64, -456);
+            lines.add(measure("writeBlockPos", buf, () -> {
+                for (int i = 0; i < FIELDS_PER_ROUND; i++) {
+                    friendly.writeBlockPos(pos);
+                }
+            }, null));
+            lines.add(measure("writeUtf", buf, () -> {
+                for (int i = 0; i < FIELDS_PER_ROUND; i++) {
+                    friendly.writeUtf(STRINGS[i % STRINGS.length]);
+                }
+            }, null));
+            // 字符串本身必须分配，这里的分配量应当只有字符串对象和它的数组
+            lines.add(measure("readUtf", buf, () -> {
+                for (int i = 0; i < FIELDS_PER_ROUND; i++) {
+                    friendly.readUtf();
+                }
+            }, () -> {
+                for (int i = 0; i < FIELDS_PER_ROUND; i++) {
+                    friendly.writeUtf(STRINGS[i % STRINGS.length]);
+                }
+            }));
+        } finally {
+            buf.release();
+        }
+        return lines;
+    }
+
+    /**
+     * @param fill 读取测试在开始前用它填充一次缓冲区，每轮从头读取；写入测试为null，每轮清空缓冲区
+     */
+    private static String measure(String name, ByteBuf buf, Runnable round, Runnable fill) {
+        if (fill != null) {
+            buf.clear();
+            fill.run();
+        }
+        run(buf, round, fill != null, WARMUP_NANOS);
+
+        long allocatedBefore = allocatedBytes();
+        long start = System.nanoTime();
+        long rounds = run(buf, round, fill != null, MEASURE_NANOS);
+        long elapsed = System.nanoTime() - start;
+        long allocatedAfter = allocatedBytes();
+
+        long fields = rounds * FIELDS_PER_ROUND;
+        if (allocatedBefore < 0) {
+            return String.format("%s: %.2f ns/field", name, (double) elapsed / fields);
+        }
+        return String.format("%s: %.2f ns/field, %.2f bytes allocated/field",
+                name, (double) elapsed / fields, (double) (allocatedAfter - allocatedBefore) / fields);
+    }
+
+    private static long run(ByteBuf buf, Runnable round, boolean read, long nanos) {
+        long deadline = System.nanoTime() + nanos;
+        long rounds = 0;
+        do {
+            if (read) {
+                buf.readerIndex(0);
+            } else {
+                buf.clear();
+            }
+            round.run();
+            rounds++;
+        } while (System.nanoTime() < deadline);
+        return rounds;
+    }
+
+    private static long allocatedBytes() {
+        if (ManagementFactory.getThreadMXBean() instanceof com.sun.management.ThreadMXBean threads
+                && threads.isThreadAllocatedMemorySupported()) {
+            return threads.getThreadAllocatedBytes(Thread.currentThread().getId());
+        }
+        return -1;
+    }
+}
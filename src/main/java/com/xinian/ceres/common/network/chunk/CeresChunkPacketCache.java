@@ -0,0 +1,302 @@
+package com.xinian.ceres.common.network.chunk;
+
+import com.xinian.ceres.CeresConfig;
+import com.xinian.ceres.common.network.CeresPacketSizeEstimator;
+import com.xinian.ceres.common.network.CeresPreEncodedPacket;
+import it.unimi.dsi.fastutil.longs.Long2ObjectLinkedOpenHashMap;
+import it.unimi.dsi.fastutil.longs.LongIterator;
+import net.minecraft.network.protocol.Packet;
+import net.minecraft.network.protocol.game.ClientboundLevelChunkWithLightPacket;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 区块数据包缓存
+ *
+ * <p>每个{@code ChunkMap}一个实例，按区块位置缓存{@link CeresPreEncodedPacket}，
+ * 使同一个区块发送给多个玩家时只序列化和压缩一次。</p>
+ *
+ * <ul>
+ *   <li>方块和光照变化时由{@code ChunkHolder}使对应区块失效，失效后的数据包不会再被复用</li>
+ *   <li>总字节数超过预算时按LRU顺序淘汰</li>
+ *   <li>超过存活时间的条目不再复用，防止遗漏的修改路径导致长期发送旧数据</li>
+ *   <li>为快速移动的玩家预取的条目放在淘汰顺序的最前面，数量有上限，
+ *       在{@link #PREFETCH_TTL_SECONDS}秒内没有被使用就会被移除。
+ *       预取的条目在编码之前按预估大小计入预算，编码后换成实际大小</li>
+ * </ul>
+ *
+ * <p><strong>线程安全性</strong>：查询和失效在主线程中进行，
+ * 内存统计在事件循环中进行，所有操作都在实例上同步。</p>
+ */
+public class CeresChunkPacketCache {
+    private static final AtomicLong HITS = new AtomicLong(0);
+    private static final AtomicLong MISSES = new AtomicLong(0);
+    private static final AtomicLong INVALIDATIONS = new AtomicLong(0);
+    private static final AtomicLong EVICTIONS = new AtomicLong(0);
+    private static final AtomicLong PREFETCHES = new AtomicLong(0);
+    private static final AtomicLong PREFETCH_HITS = new AtomicLong(0);
+    private static final AtomicLong PREFETCH_EXPIRED = new AtomicLong(0);
+
+    /**
+     * 预取的条目在被使用之前的存活时间
+     */
+    private static final int PREFETCH_TTL_SECONDS = 10;
+
+    /**
+     * 还没有区块大小记录时，预取条目按这个大小计入预算
+     */
+    private static final int DEFAULT_PREFETCH_BYTES = 16 * 1024;
+
+    private final Long2ObjectLinkedOpenHashMap<CachedChunkPacket> entries = new Long2ObjectLinkedOpenHashMap<>();
+    private long totalBytes;
+    private int prefetchedCount;
+    private long lastPrefetchSweep;
+
+    /**
+     * 获取区块的缓存数据包
+     *
+     * @param chunkPos 打包的区块位置
+     * @return 缓存的数据包，如果没有可用的缓存则返回null
+     */
+    public synchronized CeresPreEncodedPacket get(long chunkPos) {
+        if (!isEnabled()) {
+            return null;
+        }
+
+        CachedChunkPacket packet = entries.getAndMoveToLast(chunkPos);
+        if (packet == null) {
+            MISSES.incrementAndGet();
+            return null;
+        }
+
+        long ttlNanos = TimeUnit.SECONDS.toNanos(packet.prefetched
+                ? PREFETCH_TTL_SECONDS : CeresConfig.SERVER.chunkPacketCacheTtlSeconds.get());
+        if (System.nanoTime() - packet.createdAt > ttlNanos) {
+            remove(chunkPos);
+            MISSES.incrementAndGet();
+            return null;
+        }
+
+        if (packet.prefetched) {
+            packet.prefetched = false;
+            prefetchedCount--;
+            PREFETCH_HITS.incrementAndGet();
+        }
+
+        HITS.incrementAndGet();
+        return packet;
+    }
+
+    /**
+     * 缓存区块数据包
+     *
+     * @param chunkPos 打包的区块位置
+     * @param packet 区块数据包
+     * @return 应该发送的数据包，缓存被禁用时返回原数据包
+     */
+    public synchronized Packet<?> put(long chunkPos, ClientboundLevelChunkWithLightPacket packet) {
+        if (!isEnabled()) {
+            return packet;
+        }
+
+        remove(chunkPos);
+        CachedChunkPacket cached = new CachedChunkPacket(packet);
+        entries.putAndMoveToLast(chunkPos, cached);
+        return cached;
+    }
+
+    /**
+     * 检查预取条目是否还没有达到上限
+     *
+     * @param maxPrefetched 预取条目的数量上限
+     * @return 如果缓存已启用且没有达到上限则返回true
+     */
+    public synchronized boolean hasPrefetchRoom(int maxPrefetched) {
+        return isEnabled() && prefetchedCount < maxPrefetched;
+    }
+
+    /**
+     * 检查是否可以预取区块，在构建数据包之前调用，不影响淘汰顺序和统计
+     *
+     * @param chunkPos 打包的区块位置
+     * @param maxPrefetched 预取条目的数量上限
+     * @return 如果缓存已启用、区块还没有缓存且没有达到上限则返回true
+     */
+    public synchronized boolean canPrefetch(long chunkPos, int maxPrefetched) {
+        return hasPrefetchRoom(maxPrefetched) && !entries.containsKey(chunkPos);
+    }
+
+    /**
+     * 预先缓存玩家即将需要的区块数据包
+     *
+     * @param chunkPos 打包的区块位置
+     * @param packet 区块数据包
+     * @param maxPrefetched 预取条目的数量上限
+     * @return 缓存的数据包，如果缓存被禁用、已经缓存、达到上限或内存预算不足则返回null
+     */
+    public synchronized CeresPreEncodedPacket prefetch(long chunkPos, ClientboundLevelChunkWithLightPacket packet, int maxPrefetched) {
+        if (!canPrefetch(chunkPos, maxPrefetched)) {
+            return null;
+        }
+
+        CachedChunkPacket cached = new CachedChunkPacket(packet);
+        cached.prefetched = true;
+        // 内存不足时先淘汰预取的条目
+        entries.putAndMoveToFirst(chunkPos, cached);
+        prefetchedCount++;
+        PREFETCHES.incrementAndGet();
+
+        // 工作线程可能不接受编码任务，未编码的数据包同样占用内存
+        int estimate = CeresPacketSizeEstimator.encodeCapacity(ClientboundLevelChunkWithLightPacket.class);
+        cached.reserved = estimate > 0 ? estimate : DEFAULT_PREFETCH_BYTES;
+        cached.bytes = cached.reserved;
+        totalBytes += cached.reserved;
+        evictOverBudget();
+        return cached.evicted ? null : cached;
+    }
+
+    /**
+     * 移除超时未使用的预取条目，最多每秒检查一次
+     */
+    public synchronized void expirePrefetched() {
+        long now = System.nanoTime();
+        if (prefetchedCount == 0 || now - lastPrefetchSweep < TimeUnit.SECONDS.toNanos(1)) {
+            return;
+        }
+        lastPrefetchSweep = now;
+
+        long ttlNanos = TimeUnit.SECONDS.toNanos(PREFETCH_TTL_SECONDS);
+        LongIterator iterator = entries.keySet().iterator();
+        while (iterator.hasNext()) {
+            CachedChunkPacket packet = entries.get(iterator.nextLong());
+            if (packet.prefetched && now - packet.createdAt > ttlNanos) {
+                iterator.remove();
+                release(packet);
+                PREFETCH_EXPIRED.incrementAndGet();
+            }
+        }
+    }
+
+    /**
+     * 使区块的缓存失效
+     *
+     * @param chunkPos 打包的区块位置
+     */
+    public synchronized void invalidate(long chunkPos) {
+        if (remove(chunkPos)) {
+            INVALIDATIONS.incrementAndGet();
+        }
+    }
+
+    /**
+     * 清空缓存
+     */
+    public synchronized void clear() {
+        for (CachedChunkPacket packet : entries.values()) {
+            packet.evicted = true;
+        }
+        entries.clear();
+        totalBytes = 0;
+        prefetchedCount = 0;
+    }
+
+    /**
+     * 获取缓存占用的字节数
+     *
+     * @return 字节数
+     */
+    public synchronized long getTotalBytes() {
+        return totalBytes;
+    }
+
+    private boolean remove(long chunkPos) {
+        CachedChunkPacket removed = entries.remove(chunkPos);
+        if (removed == null) {
+            return false;
+        }
+        release(removed);
+        return true;
+    }
+
+    private void release(CachedChunkPacket packet) {
+        packet.evicted = true;
+        totalBytes -= packet.bytes;
+        if (packet.prefetched) {
+            prefetchedCount--;
+        }
+    }
+
+    private synchronized void account(CachedChunkPacket packet, int bytes) {
+        // 已被移除的条目仍可能在途中完成编码，它们不再占用缓存预算
+        if (packet.evicted) {
+            return;
+        }
+        // 第一次编码完成时，用实际大小替换预取时的预估
+        int delta = bytes - packet.reserved;
+        packet.reserved = 0;
+        packet.bytes += delta;
+        totalBytes += delta;
+        evictOverBudget();
+    }
+
+    private void evictOverBudget() {
+        long budget = CeresConfig.SERVER.chunkPacketCacheSizeMb.get() * 1024L * 1024L;
+        while (totalBytes > budget && !entries.isEmpty()) {
+            remove(entries.firstLongKey());
+            EVICTIONS.incrementAndGet();
+        }
+    }
+
+    private static boolean isEnabled() {
+        return CeresConfig.SERVER.enableChunkPacketCache.get();
+    }
+
+    /**
+     * 获取缓存统计信息
+     *
+     * @return 统计信息字符串
+     */
+    public static String getCacheStats() {
+        long hits = HITS.get();
+        long lookups = hits + MISSES.get();
+        double hitRate = lookups > 0 ? (double) hits / lookups * 100 : 0;
+        return String.format("Chunk packet cache: %d hits, %d lookups (%.1f%% hit rate), %d invalidations, %d evictions, "
+                        + "%d prefetched (%d used, %d expired)",
+                hits, lookups, hitRate, INVALIDATIONS.get(), EVICTIONS.get(),
+                PREFETCHES.get(), PREFETCH_HITS.get(), PREFETCH_EXPIRED.get());
+    }
+
+    /**
+     * 重置统计信息
+     */
+    public static void resetStats() {
+        HITS.set(0);
+        MISSES.set(0);
+        INVALIDATIONS.set(0);
+        EVICTIONS.set(0);
+        PREFETCHES.set(0);
+        PREFETCH_HITS.set(0);
+        PREFETCH_EXPIRED.set(0);
+    }
+
+    /**
+     * 缓存中的区块数据包，编码完成后向缓存报告内存占用
+     */
+    private class CachedChunkPacket extends CeresPreEncodedPacket {
+        private final long createdAt = System.nanoTime();
+        private int bytes;
+        private boolean evicted;
+        private boolean prefetched;
+        private int reserved;
+
+        CachedChunkPacket(ClientboundLevelChunkWithLightPacket packet) {
+            super(packet);
+        }
+
+        @Override
+        protected void onEncoded(int bytes) {
+            account(this, bytes);
+        }
+    }
+}
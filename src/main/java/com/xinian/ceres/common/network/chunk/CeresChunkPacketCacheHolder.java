@@ -0,0 +1,14 @@
+package com.xinian.ceres.common.network.chunk;
+
+/**
+ * 持有区块数据包缓存的对象
+ * 由ChunkMap通过Mixin实现，供ChunkHolder在区块变化时使缓存失效
+ */
+public interface CeresChunkPacketCacheHolder {
+    /**
+     * 获取区块数据包缓存
+     *
+     * @return 区块数据包缓存
+     */
+    CeresChunkPacketCache getChunkPacketCache();
+}
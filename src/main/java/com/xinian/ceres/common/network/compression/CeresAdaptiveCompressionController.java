@@ -0,0 +1,251 @@
+package com.xinian.ceres.common.network.compression;
+
+import com.xinian.ceres.Ceres;
+import com.xinian.ceres.CeresConfig;
+import com.xinian.ceres.common.network.util.CeresNatives.CeresCompressor;
+import io.netty.channel.Channel;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelOutboundBuffer;
+import net.minecraft.network.Connection;
+import net.minecraft.network.PacketListener;
+import net.minecraft.server.network.ServerGamePacketListenerImpl;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 自适应压缩控制器
+ *
+ * <p>每个连接一个实例，由{@link CeresMinecraftCompressEncoder}在事件循环中驱动。
+ * 控制器按固定窗口采样连接状态，并据此调整编码器的压缩级别和有效阈值：</p>
+ * <ul>
+ *   <li>通道积压（不可写时间、出站缓冲区字节数、玩家延迟超过adaptiveThreshold）时提高级别，
+ *       并把阈值恢复到协商值，用CPU换带宽</li>
+ *   <li>事件循环的压缩CPU占用过高时降低级别并提高阈值，用带宽换CPU</li>
+ *   <li>两者都不成立时逐步回到配置的基准值</li>
+ * </ul>
+ *
+ * <p>有效阈值永远不会低于与客户端协商的阈值，否则开启校验的客户端会拒绝数据包。</p>
+ *
+ * <p><strong>线程安全性</strong>：不是线程安全的，只应在所属通道的事件循环中使用。</p>
+ */
+public class CeresAdaptiveCompressionController {
+    private static final long WINDOW_NANOS = 1_000_000_000L;
+    private static final double STALLED_SHARE_HIGH = 0.05;
+    private static final long PENDING_BYTES_HIGH = 256 * 1024;
+    private static final double CHANNEL_CPU_SHARE_HIGH = 0.10;
+    private static final double LOOP_CPU_SHARE_HIGH = 0.50;
+    private static final int MIN_LEVEL = 1;
+    private static final int MAX_THRESHOLD_FACTOR = 4;
+
+    private static final AtomicLong LEVEL_INCREASES = new AtomicLong(0);
+    private static final AtomicLong LEVEL_DECREASES = new AtomicLong(0);
+    private static final AtomicLong BACKLOGGED_WINDOWS = new AtomicLong(0);
+    private static final AtomicLong CPU_BOUND_WINDOWS = new AtomicLong(0);
+
+    /**
+     * 每个事件循环线程上所有通道的压缩耗时
+     * 同一个事件循环服务多个通道，单个通道的占用不能反映整个线程的负载
+     */
+    private static final ThreadLocal<LoopLoad> LOOP_LOAD = ThreadLocal.withInitial(LoopLoad::new);
+
+    private final CeresMinecraftCompressEncoder encoder;
+    private final int baseLevel;
+    private final int maxLevel;
+    private int baseThreshold;
+
+    private long windowStart;
+    private long encodeNanos;
+    private long stalledNanos;
+    private long stalledSince;
+    private Connection connection;
+
+    /**
+     * 创建一个新的自适应压缩控制器
+     *
+     * @param encoder 被控制的编码器
+     * @param compressor 编码器使用的压缩器
+     * @param baseThreshold 协商的压缩阈值
+     */
+    public CeresAdaptiveCompressionController(CeresMinecraftCompressEncoder encoder, CeresCompressor compressor,
+                                              int baseThreshold) {
+        this.encoder = encoder;
+        this.baseLevel = Math.max(MIN_LEVEL, compressor.getLevel());
+        this.maxLevel = compressor.getMaxLevel();
+        this.baseThreshold = baseThreshold;
+        this.windowStart = System.nanoTime();
+    }
+
+    /**
+     * 创建控制器，如果配置中禁用了自适应压缩或压缩器不支持调整级别则返回null
+     *
+     * @param encoder 被控制的编码器
+     * @param compressor 编码器使用的压缩器
+     * @param threshold 协商的压缩阈值
+     * @return 控制器，或null
+     */
+    public static CeresAdaptiveCompressionController create(CeresMinecraftCompressEncoder encoder,
+                                                            CeresCompressor compressor, int threshold) {
+        if (!CeresConfig.COMMON.enableAdaptiveCompression.get() || compressor.getLevel() < 0) {
+            return null;
+        }
+        return new CeresAdaptiveCompressionController(encoder, compressor, threshold);
+    }
+
+    /**
+     * 记录一次编码并在窗口结束时重新评估
+     *
+     * @param ctx 编码器的通道上下文
+     * @param nanos 本次编码耗费的时间（纳秒）
+     */
+    public void recordEncode(ChannelHandlerContext ctx, long nanos) {
+        long now = System.nanoTime();
+        encodeNanos += nanos;
+        LOOP_LOAD.get().record(now, nanos);
+
+        Channel channel = ctx.channel();
+        if (!channel.isWritable()) {
+            if (stalledSince == 0) {
+                stalledSince = now;
+            }
+        } else if (stalledSince != 0) {
+            stalledNanos += now - stalledSince;
+            stalledSince = 0;
+        }
+
+        long elapsed = now - windowStart;
+        if (elapsed >= WINDOW_NANOS) {
+            evaluate(ctx, now, elapsed);
+        }
+    }
+
+    /**
+     * 协商阈值发生变化时更新基准
+     *
+     * @param threshold 新的协商阈值
+     */
+    public void rebase(int threshold) {
+        this.baseThreshold = threshold;
+    }
+
+    private void evaluate(ChannelHandlerContext ctx, long now, long elapsed) {
+        if (stalledSince != 0) {
+            stalledNanos += now - stalledSince;
+            stalledSince = now;
+        }
+
+        double stalledShare = (double) stalledNanos / elapsed;
+        double channelCpuShare = (double) encodeNanos / elapsed;
+        double loopCpuShare = LOOP_LOAD.get().share;
+        long pendingBytes = pendingOutboundBytes(ctx.channel());
+        int latency = playerLatency(ctx);
+
+        boolean backlogged = stalledShare > STALLED_SHARE_HIGH
+                || pendingBytes > PENDING_BYTES_HIGH
+                || latency > CeresConfig.COMMON.adaptiveThreshold.get();
+        boolean cpuBound = channelCpuShare > CHANNEL_CPU_SHARE_HIGH || loopCpuShare > LOOP_CPU_SHARE_HIGH;
+
+        int level = encoder.getCompressor().getLevel();
+        int threshold = encoder.getEffectiveThreshold();
+        int maxThreshold = baseThreshold * MAX_THRESHOLD_FACTOR;
+
+        if (cpuBound) {
+            // CPU是瓶颈时即使通道积压也不能再加重压缩负担
+            CPU_BOUND_WINDOWS.incrementAndGet();
+            level = Math.max(MIN_LEVEL, level - 1);
+            threshold = Math.min(maxThreshold, threshold * 2);
+        } else if (backlogged) {
+            BACKLOGGED_WINDOWS.incrementAndGet();
+            level = Math.min(maxLevel, level + 1);
+            threshold = baseThreshold;
+        } else {
+            level += Integer.signum(baseLevel - level);
+            threshold = Math.max(baseThreshold, threshold / 2);
+        }
+
+        apply(level, threshold, stalledShare, pendingBytes, latency, channelCpuShare);
+
+        windowStart = now;
+        encodeNanos = 0;
+        stalledNanos = 0;
+    }
+
+    private void apply(int level, int threshold, double stalledShare, long pendingBytes, int latency,
+                       double cpuShare) {
+        // 协商字典模式后编码器会更换压缩器，总是调整当前使用的那个
+        CeresCompressor compressor = encoder.getCompressor();
+        int oldLevel = compressor.getLevel();
+        if (level != oldLevel && compressor.setLevel(level)) {
+            (level > oldLevel ? LEVEL_INCREASES : LEVEL_DECREASES).incrementAndGet();
+        }
+        encoder.setEffectiveThreshold(threshold);
+
+        if (CeresConfig.COMMON.enableLogging.get() && level != oldLevel) {
+            Ceres.LOGGER.debug("Adaptive compression: level {} -> {}, threshold {} (stalled {}%, pending {} bytes, " +
+                            "latency {} ms, cpu {}%)",
+                    oldLevel, level, threshold, Math.round(stalledShare * 100), pendingBytes, latency,
+                    Math.round(cpuShare * 100));
+        }
+    }
+
+    private static long pendingOutboundBytes(Channel channel) {
+        ChannelOutboundBuffer buffer = channel.unsafe().outboundBuffer();
+        return buffer != null ? buffer.totalPendingWriteBytes() : 0;
+    }
+
+    /**
+     * 获取玩家的延迟，只有服务端的游戏阶段连接才有
+     */
+    private int playerLatency(ChannelHandlerContext ctx) {
+        if (connection == null) {
+            if (!(ctx.pipeline().get("packet_handler") instanceof Connection found)) {
+                return 0;
+            }
+            connection = found;
+        }
+        PacketListener listener = connection.getPacketListener();
+        if (listener instanceof ServerGamePacketListenerImpl gameListener) {
+            return gameListener.player.latency;
+        }
+        return 0;
+    }
+
+    /**
+     * 获取自适应压缩统计信息
+     *
+     * @return 统计信息字符串
+     */
+    public static String getAdaptiveStats() {
+        return String.format("Adaptive compression: %d level increases, %d decreases " +
+                        "(%d backlogged windows, %d CPU-bound windows)",
+                LEVEL_INCREASES.get(), LEVEL_DECREASES.get(), BACKLOGGED_WINDOWS.get(), CPU_BOUND_WINDOWS.get());
+    }
+
+    /**
+     * 重置统计信息
+     */
+    public static void resetStats() {
+        LEVEL_INCREASES.set(0);
+        LEVEL_DECREASES.set(0);
+        BACKLOGGED_WINDOWS.set(0);
+        CPU_BOUND_WINDOWS.set(0);
+    }
+
+    /**
+     * 单个事件循环线程的压缩负载
+     */
+    private static final class LoopLoad {
+        private long windowStart = System.nanoTime();
+        private long nanos;
+        private double share;
+
+        void record(long now, long encodeNanos) {
+            nanos += encodeNanos;
+            long elapsed = now - windowStart;
+            if (elapsed >= WINDOW_NANOS) {
+                share = (double) nanos / elapsed;
+                nanos = 0;
+                windowStart = now;
+            }
+        }
+    }
+}
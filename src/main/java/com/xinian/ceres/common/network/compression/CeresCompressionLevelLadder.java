@@ -0,0 +1,245 @@
+package com.xinian.ceres.common.network.compression;
+
+import com.xinian.ceres.Ceres;
+import com.xinian.ceres.CeresConfig;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * 按帧大小分级的压缩级别
+ *
+ * <p>数量上占多数的是刚超过阈值的小帧，字节数上占多数的是区块和注册表这样的大帧，
+ * 一个固定级别对两者都不合适。这里按帧大小区间选择级别：小帧使用快速级别，
+ * 大帧使用更高的级别；也可以按数据包类名单独指定级别。</p>
+ *
+ * <p>配置的级别是自适应控制器未调整时的级别。控制器把压缩器的级别调高或调低时，
+ * 整个阶梯随之平移相同的量。</p>
+ *
+ * <p><strong>线程安全性</strong>：配置解析结果是不可变快照，可以从任意线程读取。</p>
+ */
+public final class CeresCompressionLevelLadder {
+    private static final int MAX_LEVEL = 12;
+
+    private static final AtomicLongArray FRAMES_PER_LEVEL = new AtomicLongArray(MAX_LEVEL + 1);
+
+    private static final ClassValue<String> SIMPLE_NAMES = new ClassValue<>() {
+        @Override
+        protected String computeValue(Class<?> type) {
+            return type.getSimpleName();
+        }
+    };
+
+    private static volatile Snapshot snapshot = new Snapshot(null, null, new int[0], new int[0], Map.of());
+
+    private CeresCompressionLevelLadder() {
+    }
+
+    /**
+     * 检查是否启用了分级压缩
+     *
+     * @return 如果启用则返回true
+     */
+    public static boolean isEnabled() {
+        return CeresConfig.COMMON.enableCompressionLadder.get();
+    }
+
+    /**
+     * 获取数据包类单独指定的级别
+     *
+     * @param packetClass 数据包类
+     * @return 指定的级别，没有指定时返回-1
+     */
+    public static int classLevel(Class<?> packetClass) {
+        if (!isEnabled()) {
+            return -1;
+        }
+        Map<String, Integer> overrides = snapshot().classLevels;
+        if (overrides.isEmpty()) {
+            return -1;
+        }
+        Integer level = overrides.get(SIMPLE_NAMES.get(packetClass));
+        return level != null ? level : -1;
+    }
+
+    /**
+     * 为一帧选择压缩级别
+     *
+     * @param size 未压缩的帧大小
+     * @param classLevel 数据包类单独指定的级别，没有时为-1
+     * @param currentLevel 压缩器当前的级别，包含自适应控制器的调整
+     * @param baseLevel 压缩器创建时的级别
+     * @param maxLevel 压缩器支持的最高级别
+     * @return 压缩级别，压缩器不支持级别或没有启用分级时返回currentLevel
+     */
+    public static int select(int size, int classLevel, int currentLevel, int baseLevel, int maxLevel) {
+        if (currentLevel < 0 || !isEnabled()) {
+            return currentLevel;
+        }
+
+        int level = classLevel >= 0 ? classLevel : tierLevel(size);
+        if (level < 0) {
+            return currentLevel;
+        }
+
+        // 自适应控制器的调整作用于整个阶梯，0级（只存储）保持不变
+        if (level > 0) {
+            level = Math.max(1, Math.min(maxLevel, level + currentLevel - baseLevel));
+        }
+        FRAMES_PER_LEVEL.incrementAndGet(Math.min(MAX_LEVEL, level));
+        return level;
+    }
+
+    /**
+     * 获取大小区间对应的级别
+     */
+    private static int tierLevel(int size) {
+        Snapshot current = snapshot();
+        int[] minSizes = current.minSizes;
+        int level = -1;
+        for (int i = 0; i < minSizes.length && size >= minSizes[i]; i++) {
+            level = current.levels[i];
+        }
+        return level;
+    }
+
+    /**
+     * 获取配置的解析结果，配置重新加载后重新解析
+     */
+    private static Snapshot snapshot() {
+        Snapshot current = snapshot;
+        List<? extends String> tiers = CeresConfig.COMMON.compressionLadder.get();
+        List<? extends String> overrides = CeresConfig.COMMON.compressionLadderOverrides.get();
+        if (current.tiers != tiers || current.overrides != overrides) {
+            current = parse(tiers, overrides);
+            snapshot = current;
+        }
+        return current;
+    }
+
+    private static Snapshot parse(List<? extends String> tiers, List<? extends String> overrides) {
+        List<int[]> parsed = new ArrayList<>();
+        for (String entry : tiers) {
+            int[] tier = parseEntry(entry);
+            if (tier != null) {
+                parsed.add(tier);
+            }
+        }
+        parsed.sort((a, b) -> Integer.compare(a[0], b[0]));
+
+        int[] minSizes = new int[parsed.size()];
+        int[] levels = new int[parsed.size()];
+        for (int i = 0; i < parsed.size(); i++) {
+            minSizes[i] = parsed.get(i)[0];
+            levels[i] = parsed.get(i)[1];
+        }
+
+        Map<String, Integer> classLevels = new HashMap<>();
+        for (String entry : overrides) {
+            int separator = entry.lastIndexOf(':');
+            Integer level = separator > 0 ? parseLevel(entry.substring(separator + 1)) : null;
+            if (level == null) {
+                Ceres.LOGGER.warn("Ignoring invalid compression ladder override '{}'", entry);
+                continue;
+            }
+            classLevels.put(entry.substring(0, separator).trim(), level);
+        }
+
+        return new Snapshot(tiers, overrides, minSizes, levels, Map.copyOf(classLevels));
+    }
+
+    /**
+     * 解析"最小大小:级别"格式的区间
+     */
+    private static int[] parseEntry(String entry) {
+        int separator = entry.indexOf(':');
+        if (separator > 0) {
+            try {
+                int minSize = Integer.parseInt(entry.substring(0, separator).trim());
+                Integer level = parseLevel(entry.substring(separator + 1));
+                if (minSize >= 0 && level != null) {
+                    return new int[]{minSize, level};
+                }
+            } catch (NumberFormatException ignored) {
+            }
+        }
+        Ceres.LOGGER.warn("Ignoring invalid compression ladder tier '{}'", entry);
+        return null;
+    }
+
+    private static Integer parseLevel(String value) {
+        try {
+            int level = Integer.parseInt(value.trim());
+            return level >= 0 && level <= MAX_LEVEL ? level : null;
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
+
+    /**
+     * 检查配置项的格式，用于配置校验
+     *
+     * @param value 配置值
+     * @return 如果是"数字:级别"或"类名:级别"格式则返回true
+     */
+    public static boolean isValidEntry(Object value) {
+        if (!(value instanceof String entry)) {
+            return false;
+        }
+        int separator = entry.lastIndexOf(':');
+        return separator > 0 && parseLevel(entry.substring(separator + 1)) != null;
+    }
+
+    /**
+     * 获取分级统计信息
+     *
+     * @return 统计信息字符串
+     */
+    public static String getLadderStats() {
+        StringBuilder builder = new StringBuilder("Compression ladder: ");
+        if (!isEnabled()) {
+            return builder.append("disabled").toString();
+        }
+        boolean any = false;
+        for (int level = 0; level <= MAX_LEVEL; level++) {
+            long frames = FRAMES_PER_LEVEL.get(level);
+            if (frames > 0) {
+                builder.append(any ? ", " : "").append("level ").append(level).append(": ").append(frames);
+                any = true;
+            }
+        }
+        return any ? builder.append(" frames").toString() : builder.append("no frames yet").toString();
+    }
+
+    /**
+     * 重置统计信息
+     */
+    public static void resetStats() {
+        for (int level = 0; level <= MAX_LEVEL; level++) {
+            FRAMES_PER_LEVEL.set(level, 0);
+        }
+    }
+
+    /**
+     * 配置的解析结果
+     */
+    private static final class Snapshot {
+        private final List<? extends String> tiers;
+        private final List<? extends String> overrides;
+        private final int[] minSizes;
+        private final int[] levels;
+        private final Map<String, Integer> classLevels;
+
+        Snapshot(List<? extends String> tiers, List<? extends String> overrides,
+                 int[] minSizes, int[] levels, Map<String, Integer> classLevels) {
+            this.tiers = tiers;
+            this.overrides = overrides;
+            this.minSizes = minSizes;
+            this.levels = levels;
+            this.classLevels = classLevels;
+        }
+    }
+}
@@ -0,0 +1,202 @@
+package com.xinian.ceres.common.network.compression;
+
+import com.xinian.ceres.Ceres;
+import com.xinian.ceres.CeresConfig;
+import com.xinian.ceres.common.network.CeresPreEncodedPacket;
+import com.xinian.ceres.common.network.util.CeresNatives.CeresCompressor;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 压缩工作线程池
+ *
+ * <p>大帧的压缩从Netty事件循环转移到这里执行，避免一个大区块帧阻塞同一事件循环上的其他玩家。
+ * 线程池和任务队列都是有界的，队列满时调用者应该回退到在事件循环中压缩。</p>
+ *
+ * <p>每个工作线程持有自己的压缩器，压缩器不在线程之间共享。</p>
+ */
+public final class CeresCompressionWorkerPool {
+    private static final int QUEUE_CAPACITY = 1024;
+
+    private static final AtomicLong FRAMES_OFFLOADED = new AtomicLong(0);
+    private static final AtomicLong FRAMES_REJECTED = new AtomicLong(0);
+    private static final AtomicLong FRAMES_STALLED = new AtomicLong(0);
+    private static final AtomicLong TOTAL_STALL_NANOS = new AtomicLong(0);
+    private static final AtomicLong MAX_STALL_NANOS = new AtomicLong(0);
+    private static final AtomicLong MAX_QUEUE_DEPTH = new AtomicLong(0);
+
+    private static final ThreadLocal<CeresCompressor> WORKER_COMPRESSOR = new ThreadLocal<>();
+
+    private static volatile ThreadPoolExecutor executor;
+
+    private CeresCompressionWorkerPool() {
+    }
+
+    /**
+     * 检查帧是否应该在工作线程中压缩
+     *
+     * @param frameSize 未压缩的帧大小
+     * @param threshold 编码器的有效压缩阈值
+     * @return 如果应该转移到工作线程则返回true
+     */
+    public static boolean shouldOffload(int frameSize, int threshold) {
+        return frameSize >= threshold
+                && CeresConfig.COMMON.enableParallelCompression.get()
+                && frameSize >= CeresConfig.COMMON.parallelCompressionMinSize.get();
+    }
+
+    /**
+     * 提交压缩任务
+     *
+     * @param task 压缩任务
+     * @return 如果任务被接受则返回true，队列已满时返回false
+     */
+    public static boolean submit(Runnable task) {
+        ThreadPoolExecutor pool = executor();
+        try {
+            pool.execute(task);
+        } catch (RejectedExecutionException e) {
+            FRAMES_REJECTED.incrementAndGet();
+            return false;
+        }
+
+        FRAMES_OFFLOADED.incrementAndGet();
+        long depth = pool.getQueue().size();
+        MAX_QUEUE_DEPTH.accumulateAndGet(depth, Math::max);
+        return true;
+    }
+
+    /**
+     * 在工作线程中预先编码和压缩数据包，用于预取的区块
+     * 优先级低于连接上的压缩任务，队列中已有较多任务或未启用并行压缩时放弃
+     *
+     * @param packet 预编码数据包
+     * @param threshold 服务器的压缩阈值，小于0表示不压缩
+     * @return 如果任务被接受则返回true
+     */
+    public static boolean submitPrecompress(CeresPreEncodedPacket packet, int threshold) {
+        if (!CeresConfig.COMMON.enableParallelCompression.get()) {
+            return false;
+        }
+        ThreadPoolExecutor pool = executor();
+        if (pool.getQueue().size() >= QUEUE_CAPACITY / 8) {
+            FRAMES_REJECTED.incrementAndGet();
+            return false;
+        }
+
+        int level = CeresConfig.COMMON.compressionLevel.get();
+        try {
+            pool.execute(() -> {
+                try {
+                    byte[] encoded = packet.encoded();
+                    if (threshold >= 0 && encoded.length >= threshold) {
+                        packet.compressedFrame(workerCompressor(level));
+                    }
+                } catch (Throwable t) {
+                    // 预取失败不影响发送，连接会在需要时重新编码
+                    Ceres.LOGGER.debug("Failed to pre-compress chunk packet", t);
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            FRAMES_REJECTED.incrementAndGet();
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * 获取当前工作线程的压缩器
+     *
+     * @param level 压缩级别
+     * @return 工作线程专用的压缩器
+     */
+    static CeresCompressor workerCompressor(int level) {
+        CeresCompressor compressor = WORKER_COMPRESSOR.get();
+        if (compressor == null) {
+            compressor = CeresMinecraftCompressorFactory.createCompressor(level);
+            WORKER_COMPRESSOR.set(compressor);
+        } else if (level >= 0 && compressor.getLevel() != level) {
+            compressor.setLevel(level);
+        }
+        return compressor;
+    }
+
+    /**
+     * 记录一个帧在重排序队列中等待的时间
+     *
+     * @param nanos 等待时间（纳秒）
+     */
+    static void recordStall(long nanos) {
+        FRAMES_STALLED.incrementAndGet();
+        TOTAL_STALL_NANOS.addAndGet(nanos);
+        MAX_STALL_NANOS.accumulateAndGet(nanos, Math::max);
+    }
+
+    private static ThreadPoolExecutor executor() {
+        ThreadPoolExecutor pool = executor;
+        if (pool == null) {
+            synchronized (CeresCompressionWorkerPool.class) {
+                pool = executor;
+                if (pool == null) {
+                    int threads = CeresConfig.COMMON.compressionWorkerThreads.get();
+                    if (threads <= 0) {
+                        threads = Math.max(1, Runtime.getRuntime().availableProcessors());
+                    }
+                    pool = new ThreadPoolExecutor(threads, threads, 0, TimeUnit.SECONDS,
+                            new ArrayBlockingQueue<>(QUEUE_CAPACITY), new WorkerThreadFactory());
+                    executor = pool;
+                    Ceres.LOGGER.info("Started {} compression worker threads", threads);
+                }
+            }
+        }
+        return pool;
+    }
+
+    /**
+     * 获取并行压缩统计信息
+     *
+     * @return 统计信息字符串
+     */
+    public static String getParallelStats() {
+        ThreadPoolExecutor pool = executor;
+        long stalled = FRAMES_STALLED.get();
+        double avgStallMs = stalled > 0 ? TOTAL_STALL_NANOS.get() / (double) stalled / 1_000_000.0 : 0;
+        return String.format("Parallel compression: %d offloaded, %d rejected, queue depth %d (max %d), " +
+                        "%d frames reordered, avg stall %.2f ms (max %.2f ms)",
+                FRAMES_OFFLOADED.get(), FRAMES_REJECTED.get(),
+                pool != null ? pool.getQueue().size() : 0, MAX_QUEUE_DEPTH.get(),
+                stalled, avgStallMs, MAX_STALL_NANOS.get() / 1_000_000.0);
+    }
+
+    /**
+     * 重置统计信息
+     */
+    public static void resetStats() {
+        FRAMES_OFFLOADED.set(0);
+        FRAMES_REJECTED.set(0);
+        FRAMES_STALLED.set(0);
+        TOTAL_STALL_NANOS.set(0);
+        MAX_STALL_NANOS.set(0);
+        MAX_QUEUE_DEPTH.set(0);
+    }
+
+    /**
+     * 工作线程工厂，创建守护线程
+     */
+    private static class WorkerThreadFactory implements ThreadFactory {
+        private final AtomicInteger counter = new AtomicInteger(0);
+
+        @Override
+        public Thread newThread(Runnable runnable) {
+            Thread thread = new Thread(runnable, "Ceres Compression Worker #" + counter.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        }
+    }
+}
@@ -0,0 +1,134 @@
+package com.xinian.ceres.common.network.compression;
+
+import com.xinian.ceres.common.network.util.CeresNatives.CeresCompressor;
+import io.netty.buffer.ByteBuf;
+import io.netty.handler.codec.DecoderException;
+import io.netty.handler.codec.EncoderException;
+
+import java.nio.ByteBuffer;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * 使用预设字典的ZLIB压缩器
+ *
+ * <p>每个数据包仍然是独立的ZLIB流，但压缩窗口从字典开始而不是从空窗口开始，
+ * 刚超过压缩阈值的小数据包因此可以引用字典中常见的NBT键名和注册表ID。
+ * libdeflate没有预设字典接口，所以这里使用JDK的Deflater/Inflater。</p>
+ *
+ * <p>解压时只在ZLIB流要求时才设置字典，因此也能解压不带字典的普通ZLIB数据，
+ * 例如多个连接共享的预编码帧。</p>
+ */
+public class CeresDictionaryCompressor implements CeresCompressor {
+    private final byte[] dictionary;
+    private final Deflater deflater;
+    private final Inflater inflater;
+    private int level;
+    private boolean closed;
+
+    /**
+     * 创建一个新的字典压缩器
+     *
+     * @param level 压缩级别，超出0-9的部分会被截断
+     * @param dictionary 预设字典，双方必须完全一致
+     */
+    public CeresDictionaryCompressor(int level, byte[] dictionary) {
+        this.level = clamp(level);
+        this.dictionary = dictionary;
+        this.deflater = new Deflater(this.level);
+        this.inflater = new Inflater();
+    }
+
+    @Override
+    public void deflate(ByteBuf source, ByteBuf destination, int level) {
+        // reset之后调整级别在下一次deflate调用时生效，不影响其他帧
+        deflater.setLevel(clamp(level));
+        try {
+            deflate(source, destination);
+        } finally {
+            deflater.setLevel(this.level);
+        }
+    }
+
+    @Override
+    public void deflate(ByteBuf source, ByteBuf destination) {
+        // reset会清除字典，每个数据包都要重新设置
+        deflater.setDictionary(dictionary);
+        deflater.setInput(source.nioBuffer());
+        deflater.finish();
+
+        try {
+            while (!deflater.finished()) {
+                destination.ensureWritable(Math.max(64, source.readableBytes() / 2 + 16));
+                ByteBuffer out = destination.nioBuffer(destination.writerIndex(), destination.writableBytes());
+                int written = deflater.deflate(out);
+                destination.writerIndex(destination.writerIndex() + written);
+            }
+            source.skipBytes(source.readableBytes());
+        } catch (RuntimeException e) {
+            throw new EncoderException("Failed to compress packet with dictionary", e);
+        } finally {
+            deflater.reset();
+        }
+    }
+
+    @Override
+    public void inflate(ByteBuf source, ByteBuf destination, int uncompressedSize) {
+        inflater.setInput(source.nioBuffer());
+        destination.ensureWritable(uncompressedSize);
+
+        try {
+            int remaining = uncompressedSize;
+            while (remaining > 0 && !inflater.finished()) {
+                ByteBuffer out = destination.nioBuffer(destination.writerIndex(), remaining);
+                int read = inflater.inflate(out);
+                if (read == 0) {
+                    if (inflater.needsDictionary()) {
+                        inflater.setDictionary(dictionary);
+                        continue;
+                    }
+                    break;
+                }
+                destination.writerIndex(destination.writerIndex() + read);
+                remaining -= read;
+            }
+
+            if (remaining != 0 || !inflater.finished()) {
+                throw new DecoderException("Badly compressed packet - expected " + uncompressedSize
+                        + " bytes, got " + (uncompressedSize - remaining));
+            }
+            source.skipBytes(source.readableBytes());
+        } catch (DataFormatException e) {
+            throw new DecoderException("Failed to decompress packet with dictionary", e);
+        } finally {
+            inflater.reset();
+        }
+    }
+
+    @Override
+    public boolean setLevel(int level) {
+        this.level = clamp(level);
+        // 每次压缩后都会reset，新级别从下一次压缩开始生效
+        deflater.setLevel(this.level);
+        return true;
+    }
+
+    @Override
+    public int getLevel() {
+        return level;
+    }
+
+    @Override
+    public void close() {
+        if (!closed) {
+            closed = true;
+            deflater.end();
+            inflater.end();
+        }
+    }
+
+    private static int clamp(int level) {
+        return Math.max(0, Math.min(9, level < 0 ? 6 : level));
+    }
+}
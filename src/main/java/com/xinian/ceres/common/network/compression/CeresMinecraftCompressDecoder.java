@@ -2,6 +2,7 @@ package com.xinian.ceres.common.network.compression;
 
 import com.xinian.ceres.Ceres;
 import com.xinian.ceres.CeresConfig;
+import com.xinian.ceres.common.network.CeresProtocolFeatures;
 import com.xinian.ceres.common.network.util.CeresNatives.CeresCompressor;
 import io.netty.buffer.ByteBuf;
 import io.netty.channel.ChannelHandlerContext;
@@ -15,6 +16,9 @@ import java.util.concurrent.atomic.AtomicLong;
 /**
  * Minecraft网络数据解压解码器
  * 使用CeresCompressor对入站数据进行解压处理
+ *
+ * <p>收到Ceres控制帧时在该帧边界切换到对端启用的扩展，
+ * 控制帧只会由协商过扩展的Ceres对端发送。</p>
  */
 public class CeresMinecraftCompressDecoder extends ByteToMessageDecoder {
 
@@ -26,6 +30,8 @@ public class CeresMinecraftCompressDecoder extends ByteToMessageDecoder {
     private int threshold;
     private final boolean validate;
     private final CeresCompressor compressor;
+    private CeresCompressor activeCompressor;
+    private int features;
 
     /**
      * 创建一个新的Minecraft解压解码器
@@ -38,6 +44,7 @@ public class CeresMinecraftCompressDecoder extends ByteToMessageDecoder {
         this.threshold = threshold;
         this.validate = validate;
         this.compressor = compressor;
+        this.activeCompressor = compressor;
     }
 
     @Override
@@ -55,9 +62,13 @@ public class CeresMinecraftCompressDecoder extends ByteToMessageDecoder {
                 if (CeresConfig.COMMON.enableLogging.get()) {
                     TOTAL_UNCOMPRESSED_BYTES.addAndGet(uncompressedData.readableBytes());
                 }
+            } else if (claimedUncompressedSize == CeresProtocolFeatures.CONTROL_FRAME) {
+                switchFeatures(packetBuf.readVarInt());
+                in.skipBytes(in.readableBytes());
             } else {
                 if (validate) {
-                    if (claimedUncompressedSize < this.threshold) {
+                    // 流式压缩下对端也会压缩低于阈值的数据包
+                    if (claimedUncompressedSize < (activeCompressor.isStateful() ? 1 : this.threshold)) {
                         throw new DecoderException("Badly compressed packet - size of " + claimedUncompressedSize + " is below server threshold of " + this.threshold);
                     }
 
@@ -72,7 +83,7 @@ public class CeresMinecraftCompressDecoder extends ByteToMessageDecoder {
                 ByteBuf uncompressed = ctx.alloc().buffer(claimedUncompressedSize);
                 try {
 
-                    compressor.inflate(in, uncompressed, claimedUncompressedSize);
+                    activeCompressor.inflate(in, uncompressed, claimedUncompressedSize);
                     out.add(uncompressed);
                     in.clear();
 
@@ -103,8 +114,33 @@ public class CeresMinecraftCompressDecoder extends ByteToMessageDecoder {
         this.threshold = threshold;
     }
 
+    /**
+     * 切换到对端启用的扩展
+     *
+     * @param features 扩展位
+     */
+    private void switchFeatures(int features) {
+        if (!CeresProtocolFeatures.isSupported(features)) {
+            throw new DecoderException("Unsupported Ceres protocol features " + features);
+        }
+        if (features == this.features) {
+            return;
+        }
+
+        CeresCompressor next = features == 0 ? compressor
+                : CeresProtocolFeatures.createCompressor(features, compressor.getLevel());
+        if (activeCompressor != compressor) {
+            activeCompressor.close();
+        }
+        activeCompressor = next;
+        this.features = features;
+    }
+
     @Override
     public void handlerRemoved0(ChannelHandlerContext ctx) throws Exception {
+        if (activeCompressor != compressor) {
+            activeCompressor.close();
+        }
         compressor.close();
     }
 
@@ -118,12 +154,12 @@ public class CeresMinecraftCompressDecoder extends ByteToMessageDecoder {
     }
 
     /**
-     * 获取压缩器实例
+     * 获取当前使用的压缩器实例
      *
      * @return 压缩器
      */
     public CeresCompressor getCompressor() {
-        return compressor;
+        return activeCompressor;
     }
 
     /**
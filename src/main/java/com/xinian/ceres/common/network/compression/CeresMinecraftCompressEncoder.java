@@ -2,18 +2,46 @@ package com.xinian.ceres.common.network.compression;
 
 import com.xinian.ceres.Ceres;
 import com.xinian.ceres.CeresConfig;
+import com.xinian.ceres.common.compression.CeresCompressibilityEstimator;
+import com.xinian.ceres.common.compression.CeresDictionaryTrainer;
+import com.xinian.ceres.common.network.CeresPacketSizeEstimator;
+import com.xinian.ceres.common.network.CeresPreEncodedPacket;
+import com.xinian.ceres.common.network.CeresProtocolFeatures;
+import com.xinian.ceres.common.network.pipeline.CeresEncryptedFrame;
+import com.xinian.ceres.common.network.pipeline.CeresLengthPrepender;
+import com.xinian.ceres.common.network.util.CeresVarIntUtil;
 import com.xinian.ceres.common.network.util.CeresNatives;
+import com.xinian.ceres.common.network.util.CeresNatives.CeresCipher;
 import com.xinian.ceres.common.network.util.CeresNatives.CeresCompressor;
 import io.netty.buffer.ByteBuf;
 import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelPromise;
 import io.netty.handler.codec.MessageToByteEncoder;
+import io.netty.util.ReferenceCountUtil;
 import net.minecraft.network.FriendlyByteBuf;
 
+import java.util.ArrayDeque;
 import java.util.concurrent.atomic.AtomicLong;
 
 /**
  * Minecraft网络数据压缩编码器
  * 使用CeresCompressor对出站数据进行压缩处理
+ *
+ * <p>超过parallelCompressionMinSize的帧交给{@link CeresCompressionWorkerPool}压缩，
+ * 在它完成之前，同一通道的后续消息进入重排序队列，保证进入加密阶段的顺序不变。</p>
+ *
+ * <p>与Ceres客户端协商扩展后，编码器通过{@link #switchFeatures}换用对应的压缩器，
+ * 原始压缩器仍然用于生成共享的预编码帧，因为这些帧也会发给没有协商扩展的连接。
+ * 流式压缩和LZ4的帧不是独立的ZLIB数据，使用它们时不转移到工作线程，也不复用共享的压缩帧。</p>
+ *
+ * <p>每一帧的压缩级别由{@link CeresCompressionLevelLadder}按帧大小和数据包类选择。</p>
+ *
+ * <p>输出缓冲区在开头为长度前缀预留空间，长度前缀编码器可以用{@link CeresLengthPrepender}原地写入长度，不再复制整帧。</p>
+ *
+ * <p>连接同时启用加密时，可以通过{@link #enableFusedEncryption}让编码器一次完成压缩、长度前缀和加密：
+ * 帧按写出顺序在预留的位置写入长度前缀并原地加密，
+ * 然后包装为{@link CeresEncryptedFrame}，由原版的长度前缀编码器和Ceres的加密编码器直接放行。
+ * 加密编码器和这里共用同一个密码器，因此两条路径交替写出的帧仍然是连续的密文流。</p>
  */
 public class CeresMinecraftCompressEncoder extends MessageToByteEncoder<ByteBuf> {
 
@@ -21,9 +49,30 @@ public class CeresMinecraftCompressEncoder extends MessageToByteEncoder<ByteBuf>
     private static final AtomicLong TOTAL_COMPRESSED_BYTES = new AtomicLong(0);
     private static final AtomicLong PACKETS_COMPRESSED = new AtomicLong(0);
     private static final AtomicLong PACKETS_SKIPPED = new AtomicLong(0);
+    private static final AtomicLong FUSED_FRAMES = new AtomicLong(0);
+    private static final AtomicLong FUSED_COPIES = new AtomicLong(0);
+
+    /**
+     * 不压缩的帧的最大大小，长度前缀最多3字节VarInt，帧头还要占1字节
+     */
+    private static final int MAX_RAW_FRAME_SIZE = (1 << 21) - 2;
 
     private int threshold;
+    private int effectiveThreshold;
     private final CeresCompressor compressor;
+    private final int baseLevel;
+    private CeresCompressor activeCompressor;
+    private int classLevel = -1;
+    private int features;
+    private boolean zlibFrames = true;
+    private final CeresAdaptiveCompressionController controller;
+    private final ArrayDeque<PendingFrame> pendingFrames = new ArrayDeque<>();
+    private boolean flushPending;
+    private boolean skipNext;
+    private volatile boolean removed;
+    private CeresCipher fusedCipher;
+    private int allocatedCapacity;
+    private ChannelHandlerContext context;
 
     /**
      * 创建一个新的Minecraft压缩编码器
@@ -33,7 +82,11 @@ public class CeresMinecraftCompressEncoder extends MessageToByteEncoder<ByteBuf>
      */
     public CeresMinecraftCompressEncoder(int threshold, CeresCompressor compressor) {
         this.threshold = threshold;
+        this.effectiveThreshold = threshold;
         this.compressor = compressor;
+        this.baseLevel = compressor.getLevel();
+        this.activeCompressor = compressor;
+        this.controller = CeresAdaptiveCompressionController.create(this, compressor, threshold);
     }
 
     @Override
@@ -41,11 +94,18 @@ public class CeresMinecraftCompressEncoder extends MessageToByteEncoder<ByteBuf>
         FriendlyByteBuf wrappedBuf = new FriendlyByteBuf(out);
         int uncompressedSize = msg.readableBytes();
 
-        if (uncompressedSize < threshold) {
-            // 小于阈值的数据包不压缩
+        boolean raw = uncompressedSize < compressionThreshold() || skipNext || isIncompressible(msg);
+        skipNext = false;
+
+        if (raw) {
+            // 小于阈值或预计无法压缩的数据包不压缩，原版解码器接受任意大小的未压缩帧
             wrappedBuf.writeVarInt(0);
             out.writeBytes(msg);
 
+            if (controller != null) {
+                controller.recordEncode(ctx, 0);
+            }
+
             // 更新统计信息
             if (CeresConfig.COMMON.enableLogging.get()) {
                 TOTAL_UNCOMPRESSED_BYTES.addAndGet(uncompressedSize);
@@ -55,28 +115,285 @@ public class CeresMinecraftCompressEncoder extends MessageToByteEncoder<ByteBuf>
             // 写入未压缩大小
             wrappedBuf.writeVarInt(uncompressedSize);
 
-            // 压缩数据
+            // 压缩数据，压缩器直接消费msg的可读字节
             int startIndex = out.writerIndex();
+            int packetId = CeresCompressibilityEstimator.peekPacketId(msg);
+            if (CeresDictionaryTrainer.isCapturing()) {
+                CeresDictionaryTrainer.offer(msg);
+            }
+            long startTime = System.nanoTime();
+            int level = frameLevel(uncompressedSize);
+            if (level == activeCompressor.getLevel()) {
+                activeCompressor.deflate(msg, out);
+            } else {
+                activeCompressor.deflate(msg, out, level);
+            }
 
-            // 读取源数据
-            byte[] sourceData = new byte[msg.readableBytes()];
-            msg.readBytes(sourceData);
-
-            // 压缩数据
-            compressor.deflate(msg, out);
+            if (controller != null) {
+                controller.recordEncode(ctx, System.nanoTime() - startTime);
+            }
+            CeresCompressibilityEstimator.recordCompressed(packetId, uncompressedSize, out.writerIndex() - startIndex);
+            if (allocatedCapacity > 0) {
+                CeresPacketSizeEstimator.recordCompressed(out.capacity() > allocatedCapacity);
+                allocatedCapacity = 0;
+            }
 
             // 更新统计信息
             if (CeresConfig.COMMON.enableLogging.get()) {
-                int compressedSize = out.writerIndex() - startIndex;
-                TOTAL_UNCOMPRESSED_BYTES.addAndGet(uncompressedSize);
-                TOTAL_COMPRESSED_BYTES.addAndGet(compressedSize);
-                PACKETS_COMPRESSED.incrementAndGet();
+                recordCompressed(uncompressedSize, out.writerIndex() - startIndex);
+            }
+        }
+    }
+
+    /**
+     * 为一帧选择压缩级别
+     */
+    private int frameLevel(int uncompressedSize) {
+        return CeresCompressionLevelLadder.select(uncompressedSize, classLevel,
+                activeCompressor.getLevel(), baseLevel, activeCompressor.getMaxLevel());
+    }
+
+    /**
+     * 设置下一帧的数据包类单独指定的级别，由数据包编码器在写出帧之前设置，写出之后清除
+     *
+     * @param classLevel 压缩级别，-1表示按帧大小选择
+     */
+    public void setClassLevel(int classLevel) {
+        this.classLevel = classLevel;
+    }
+
+    /**
+     * 检查达到阈值的数据包是否预计无法压缩
+     */
+    private static boolean isIncompressible(ByteBuf msg) {
+        return msg.readableBytes() <= MAX_RAW_FRAME_SIZE && CeresCompressibilityEstimator.shouldSkip(msg);
+    }
+
+    /**
+     * 记录一个压缩后的数据包
+     */
+    private void recordCompressed(int uncompressedSize, int compressedSize) {
+        TOTAL_UNCOMPRESSED_BYTES.addAndGet(uncompressedSize);
+        TOTAL_COMPRESSED_BYTES.addAndGet(compressedSize);
+
+        if (PACKETS_COMPRESSED.incrementAndGet() % 1000 == 0) {
+            logCompressionStats();
+        }
+    }
+
+    @Override
+    public void write(ChannelHandlerContext ctx, Object msg, ChannelPromise promise) throws Exception {
+        if (msg instanceof CeresPreEncodedPacket packet) {
+            writeOrdered(ctx, encodePreEncoded(ctx, packet), promise);
+            return;
+        }
+
+        if (msg instanceof ByteBuf buf
+                && zlibFrames
+                && CeresCompressionWorkerPool.shouldOffload(buf.readableBytes(), effectiveThreshold)) {
+            if (isIncompressible(buf)) {
+                // 不压缩的帧不需要工作线程，已经做过的判断留给encode使用
+                skipNext = true;
+            } else if (offload(ctx, buf, promise)) {
+                return;
+            }
+        }
+
+        if (pendingFrames.isEmpty() && fusedCipher == null) {
+            super.write(ctx, msg, promise);
+        } else {
+            // 有大帧正在后台压缩，后续消息必须排在它后面
+            writeOrdered(ctx, encodeInline(ctx, msg), promise);
+        }
+    }
+
+    @Override
+    public void flush(ChannelHandlerContext ctx) throws Exception {
+        if (!pendingFrames.isEmpty()) {
+            // 排在后台帧后面的消息在写出时再刷新
+            flushPending = true;
+        }
+        ctx.flush();
+    }
 
-                if (PACKETS_COMPRESSED.get() % 1000 == 0) {
-                    logCompressionStats();
+    /**
+     * 将大帧交给工作线程压缩
+     *
+     * @param ctx 通道上下文
+     * @param msg 未压缩的帧
+     * @param promise 写入承诺
+     * @return 如果任务被接受则返回true，此时msg的所有权转移给工作线程
+     */
+    private boolean offload(ChannelHandlerContext ctx, ByteBuf msg, ChannelPromise promise) {
+        PendingFrame frame = new PendingFrame(promise);
+        // 工作线程生成普通ZLIB数据，任何模式下的对端解码器都能解压
+        int level = activeCompressor.getLevel();
+        int uncompressedSize = msg.readableBytes();
+        int frameLevel = frameLevel(uncompressedSize);
+        int packetId = CeresCompressibilityEstimator.peekPacketId(msg);
+        int headroom = headroom();
+
+        boolean accepted = CeresCompressionWorkerPool.submit(() -> {
+            ByteBuf out = null;
+            try {
+                CeresCompressor workerCompressor = CeresCompressionWorkerPool.workerCompressor(level);
+                int capacity = headroom + compressedFrameCapacity(workerCompressor, packetId, uncompressedSize);
+                out = ctx.alloc().directBuffer(capacity).setIndex(headroom, headroom);
+                new FriendlyByteBuf(out).writeVarInt(uncompressedSize);
+                int startIndex = out.writerIndex();
+                workerCompressor.deflate(msg, out, frameLevel);
+                CeresCompressibilityEstimator.recordCompressed(packetId, uncompressedSize,
+                        out.writerIndex() - startIndex);
+                if (CeresPacketSizeEstimator.isEnabled()) {
+                    CeresPacketSizeEstimator.recordCompressed(out.capacity() > capacity);
+                }
+
+                if (CeresConfig.COMMON.enableLogging.get()) {
+                    recordCompressed(uncompressedSize, out.writerIndex() - startIndex);
+                }
+                complete(ctx, frame, out, null);
+            } catch (Throwable t) {
+                if (out != null) {
+                    out.release();
+                }
+                complete(ctx, frame, null, t);
+            } finally {
+                msg.release();
+            }
+        });
+
+        if (accepted) {
+            pendingFrames.add(frame);
+        }
+        return accepted;
+    }
+
+    /**
+     * 在事件循环中完成后台帧，并写出所有已按顺序就绪的帧
+     */
+    private void complete(ChannelHandlerContext ctx, PendingFrame frame, ByteBuf result, Throwable error) {
+        try {
+            ctx.executor().execute(() -> {
+                if (removed) {
+                    if (result != null) {
+                        result.release();
+                    }
+                    frame.promise.tryFailure(new IllegalStateException("Compression handler removed"));
+                    return;
                 }
+                frame.complete(result, error);
+                drain(ctx);
+            });
+        } catch (Throwable t) {
+            // 事件循环已经关闭
+            if (result != null) {
+                result.release();
+            }
+            frame.promise.tryFailure(t);
+        }
+    }
+
+    /**
+     * 写出队列头部所有已就绪的帧
+     */
+    private void drain(ChannelHandlerContext ctx) {
+        boolean wrote = false;
+        PendingFrame head;
+        while ((head = pendingFrames.peek()) != null && head.done) {
+            pendingFrames.poll();
+            CeresCompressionWorkerPool.recordStall(System.nanoTime() - head.enqueuedAt);
+
+            if (head.error != null) {
+                head.promise.tryFailure(head.error);
+                ctx.fireExceptionCaught(head.error);
+                continue;
+            }
+
+            Object frame;
+            try {
+                frame = finish(ctx, head.result);
+            } catch (Throwable t) {
+                head.promise.tryFailure(t);
+                ctx.fireExceptionCaught(t);
+                continue;
+            }
+            ctx.write(frame, head.promise);
+            wrote = true;
+        }
+
+        if (wrote && flushPending) {
+            ctx.flush();
+        }
+        if (pendingFrames.isEmpty()) {
+            flushPending = false;
+        }
+    }
+
+    /**
+     * 如果有后台帧未完成则排队，否则直接写出
+     */
+    private void writeOrdered(ChannelHandlerContext ctx, Object frame, ChannelPromise promise) {
+        if (pendingFrames.isEmpty()) {
+            ctx.write(finish(ctx, frame), promise);
+        } else {
+            PendingFrame pending = new PendingFrame(promise);
+            pending.complete(frame, null);
+            pendingFrames.add(pending);
+        }
+    }
+
+    /**
+     * 在事件循环中立即编码消息，用于必须排队的消息
+     */
+    private Object encodeInline(ChannelHandlerContext ctx, Object msg) throws Exception {
+        if (!(msg instanceof ByteBuf buf)) {
+            return msg;
+        }
+
+        ByteBuf out = allocateBuffer(ctx, buf, true);
+        try {
+            encode(ctx, buf, out);
+            return out;
+        } catch (Throwable t) {
+            out.release();
+            throw t;
+        } finally {
+            buf.release();
+        }
+    }
+
+    /**
+     * 为预编码数据包生成帧
+     * 达到协商阈值的数据包复用共享的压缩帧（任何级别的ZLIB数据都可以被对端解压），
+     * 否则按未压缩格式写出
+     *
+     * @param ctx 通道上下文
+     * @param packet 预编码数据包
+     * @return 帧数据
+     */
+    private ByteBuf encodePreEncoded(ChannelHandlerContext ctx, CeresPreEncodedPacket packet) throws Exception {
+        if (!zlibFrames) {
+            // 对端解码器只接受协商的格式，流式上下文还必须看到本连接的每一个压缩帧
+            ByteBuf source = packet.encodedBuffer();
+            ByteBuf out = allocateBuffer(ctx, source, true);
+            try {
+                encode(ctx, source, out);
+                return out;
+            } catch (Throwable t) {
+                out.release();
+                throw t;
             }
         }
+
+        byte[] encoded = packet.encoded();
+        if (encoded.length < threshold) {
+            int headroom = headroom();
+            ByteBuf out = ctx.alloc().directBuffer(headroom + encoded.length + 1).setIndex(headroom, headroom);
+            out.writeByte(0);
+            out.writeBytes(encoded);
+            return out;
+        }
+        return packet.compressedFrameBuffer(compressor);
     }
 
     @Override
@@ -89,17 +406,198 @@ public class CeresMinecraftCompressEncoder extends MessageToByteEncoder<ByteBuf>
         //    但在最坏情况下，压缩后的数据可能比原始数据大。
         // - 未压缩
         //    这是相当明显的 - 我们将比未压缩大小多一个。
-        int initialBufferSize = msg.readableBytes() + 1;
-        return preferDirect ?
+        //
+        // 启用按数据包预估时，压缩帧改为按压缩器要求的最坏情况或记录的压缩率分配。
+        int headroom = headroom();
+        int uncompressedSize = msg.readableBytes();
+        int initialBufferSize = headroom + uncompressedSize + 1;
+        allocatedCapacity = 0;
+        if (CeresPacketSizeEstimator.isEnabled() && uncompressedSize >= compressionThreshold() && !skipNext) {
+            if (isIncompressible(msg)) {
+                // 预计无法压缩的帧按未压缩格式写出，判断结果留给encode使用
+                skipNext = true;
+            } else {
+                initialBufferSize = headroom + compressedFrameCapacity(activeCompressor,
+                        CeresCompressibilityEstimator.peekPacketId(msg), uncompressedSize);
+                allocatedCapacity = initialBufferSize;
+            }
+        }
+
+        ByteBuf buf = preferDirect ?
                 ctx.alloc().directBuffer(initialBufferSize) :
                 ctx.alloc().heapBuffer(initialBufferSize);
+        return buf.setIndex(headroom, headroom);
+    }
+
+    /**
+     * 计算压缩帧需要的容量，包括未压缩大小的VarInt
+     * 压缩前会扩容到最坏情况的压缩器按它的要求分配，其余按记录的压缩率预估
+     *
+     * @param compressor 将要使用的压缩器
+     * @param packetId 数据包ID
+     * @param uncompressedSize 压缩前的大小
+     * @return 容量
+     */
+    private static int compressedFrameCapacity(CeresCompressor compressor, int packetId, int uncompressedSize) {
+        int header = CeresVarIntUtil.getVarIntLength(uncompressedSize);
+        if (!CeresPacketSizeEstimator.isEnabled()) {
+            return uncompressedSize + 1;
+        }
+        int bound = compressor.outputBound(uncompressedSize);
+        if (bound >= 0) {
+            return header + bound;
+        }
+        int predicted = CeresPacketSizeEstimator.compressedCapacity(packetId, uncompressedSize);
+        return predicted >= 0 ? header + predicted : uncompressedSize + 1;
+    }
+
+    private int headroom() {
+        return fusedCipher != null ? CeresLengthPrepender.MAX_HEADER_SIZE : CeresLengthPrepender.headroom();
+    }
+
+    /**
+     * 帧按顺序写出之前调用，合并模式下写入长度前缀并加密
+     * 帧前面有预留空间时原地完成，否则（共享的预编码帧、控制帧）复制一次
+     *
+     * @param ctx 通道上下文
+     * @param frame 压缩后的帧
+     * @return 要写出的消息
+     */
+    private Object finish(ChannelHandlerContext ctx, Object frame) {
+        CeresCipher cipher = fusedCipher;
+        if (cipher == null || !(frame instanceof ByteBuf buf)) {
+            return frame;
+        }
+
+        int length = buf.readableBytes();
+        int headerSize;
+        try {
+            headerSize = CeresLengthPrepender.headerSize(length);
+        } catch (IllegalArgumentException e) {
+            buf.release();
+            throw e;
+        }
+
+        ByteBuf framed;
+        if (cipher.canProcessInPlace(buf) && CeresLengthPrepender.tryPrependInPlace(buf)) {
+            framed = buf;
+        } else {
+            framed = ctx.alloc().directBuffer(headerSize + length);
+            try {
+                CeresLengthPrepender.prependCopy(buf, framed);
+            } finally {
+                buf.release();
+            }
+            FUSED_COPIES.incrementAndGet();
+        }
+
+        try {
+            cipher.process(framed);
+        } catch (RuntimeException e) {
+            framed.release();
+            throw e;
+        }
+        FUSED_FRAMES.incrementAndGet();
+        return new CeresEncryptedFrame(framed);
+    }
+
+    /**
+     * 启用合并的压缩、长度前缀和加密，必须在事件循环中调用
+     * 之后写出的帧不再经过长度前缀编码器和加密编码器的处理
+     *
+     * @param cipher 加密编码器使用的同一个密码器
+     */
+    public void enableFusedEncryption(CeresCipher cipher) {
+        this.fusedCipher = cipher;
+    }
+
+    /**
+     * 检查是否启用了合并加密
+     *
+     * @return 如果启用则返回true
+     */
+    public boolean isFusedEncryption() {
+        return fusedCipher != null;
     }
 
     @Override
     public void handlerRemoved(ChannelHandlerContext ctx) throws Exception {
+        removed = true;
+        PendingFrame frame;
+        while ((frame = pendingFrames.poll()) != null) {
+            if (frame.result != null) {
+                ReferenceCountUtil.release(frame.result);
+            }
+            frame.promise.tryFailure(new IllegalStateException("Compression handler removed"));
+        }
+        if (activeCompressor != compressor) {
+            activeCompressor.close();
+        }
         compressor.close();
     }
 
+    /**
+     * 切换到协商好的扩展，必须在事件循环中调用
+     * 先按顺序写出控制帧，对端解码器读到它时切换到相同的模式
+     *
+     * @param ctx 通道上下文
+     * @param features 双方都支持的扩展位
+     * @return 实际启用的扩展位，流式压缩的内存预算不足时不包含{@link CeresProtocolFeatures#STREAMING}
+     */
+    public int switchFeatures(ChannelHandlerContext ctx, int features) {
+        if (removed || features == this.features) {
+            return this.features;
+        }
+        if ((features & CeresProtocolFeatures.STREAMING) != 0 && !CeresStreamingCompressor.tryReserve()) {
+            // 压缩上下文的内存预算已用完，这个连接继续逐包压缩
+            features &= ~CeresProtocolFeatures.STREAMING;
+            if (features == this.features) {
+                return features;
+            }
+        }
+
+        ByteBuf frame = ctx.alloc().buffer(10);
+        FriendlyByteBuf wrappedBuf = new FriendlyByteBuf(frame);
+        wrappedBuf.writeVarInt(CeresProtocolFeatures.CONTROL_FRAME);
+        wrappedBuf.writeVarInt(features);
+        writeOrdered(ctx, frame, ctx.newPromise());
+
+        CeresCompressor next = features == 0 ? compressor
+                : CeresProtocolFeatures.createCompressor(features, activeCompressor.getLevel(), true);
+        if (activeCompressor != compressor) {
+            activeCompressor.close();
+        }
+        activeCompressor = next;
+        this.features = features;
+        this.zlibFrames = CeresProtocolFeatures.producesZlibFrames(features);
+        return features;
+    }
+
+    /**
+     * 切换到协商好的扩展，必须在事件循环中调用
+     *
+     * @param features 双方都支持的扩展位
+     * @return 实际启用的扩展位
+     */
+    public int switchFeatures(int features) {
+        ChannelHandlerContext ctx = this.context;
+        return ctx != null ? switchFeatures(ctx, features) : this.features;
+    }
+
+    @Override
+    public void handlerAdded(ChannelHandlerContext ctx) throws Exception {
+        this.context = ctx;
+    }
+
+    /**
+     * 获取当前启用的扩展
+     *
+     * @return 扩展位
+     */
+    public int getFeatures() {
+        return features;
+    }
+
     /**
      * 设置压缩阈值
      *
@@ -107,6 +605,39 @@ public class CeresMinecraftCompressEncoder extends MessageToByteEncoder<ByteBuf>
      */
     public void setThreshold(int threshold) {
         this.threshold = threshold;
+        this.effectiveThreshold = threshold;
+        if (controller != null) {
+            controller.rebase(threshold);
+        }
+    }
+
+    /**
+     * 设置有效压缩阈值，由自适应控制器调用
+     * 有效阈值不能低于协商的阈值，否则客户端会拒绝压缩后过小的数据包
+     *
+     * @param effectiveThreshold 新的有效阈值（字节数）
+     */
+    public void setEffectiveThreshold(int effectiveThreshold) {
+        this.effectiveThreshold = Math.max(threshold, effectiveThreshold);
+    }
+
+    /**
+     * 获取实际使用的压缩阈值
+     * 流式压缩下小数据包也能引用之前的帧，使用单独的更低阈值，对端的Ceres解码器不会拒绝它们
+     */
+    private int compressionThreshold() {
+        return activeCompressor.isStateful()
+                ? CeresConfig.COMMON.streamingMinPacketSize.get()
+                : effectiveThreshold;
+    }
+
+    /**
+     * 获取当前有效压缩阈值
+     *
+     * @return 有效压缩阈值（字节数）
+     */
+    public int getEffectiveThreshold() {
+        return effectiveThreshold;
     }
 
     /**
@@ -119,12 +650,12 @@ public class CeresMinecraftCompressEncoder extends MessageToByteEncoder<ByteBuf>
     }
 
     /**
-     * 获取压缩器实例
+     * 获取当前使用的压缩器实例
      *
      * @return 压缩器
      */
     public CeresCompressor getCompressor() {
-        return compressor;
+        return activeCompressor;
     }
 
     /**
@@ -172,6 +703,16 @@ public class CeresMinecraftCompressEncoder extends MessageToByteEncoder<ByteBuf>
         );
     }
 
+    /**
+     * 获取合并加密统计信息
+     *
+     * @return 统计信息字符串
+     */
+    public static String getFusedStats() {
+        return String.format("Fused compress+encrypt: %d frames, %d needed a copy",
+                FUSED_FRAMES.get(), FUSED_COPIES.get());
+    }
+
     /**
      * 重置统计信息
      */
@@ -180,5 +721,29 @@ public class CeresMinecraftCompressEncoder extends MessageToByteEncoder<ByteBuf>
         TOTAL_COMPRESSED_BYTES.set(0);
         PACKETS_COMPRESSED.set(0);
         PACKETS_SKIPPED.set(0);
+        FUSED_FRAMES.set(0);
+        FUSED_COPIES.set(0);
+    }
+
+    /**
+     * 重排序队列中的帧
+     * 后台压缩的帧在完成前占住自己的位置，保证同一通道的写出顺序不变
+     */
+    private static final class PendingFrame {
+        private final ChannelPromise promise;
+        private final long enqueuedAt = System.nanoTime();
+        private Object result;
+        private Throwable error;
+        private boolean done;
+
+        PendingFrame(ChannelPromise promise) {
+            this.promise = promise;
+        }
+
+        void complete(Object result, Throwable error) {
+            this.result = result;
+            this.error = error;
+            this.done = true;
+        }
     }
 }
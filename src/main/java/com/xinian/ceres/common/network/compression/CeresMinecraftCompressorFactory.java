@@ -2,6 +2,9 @@ package com.xinian.ceres.common.network.compression;
 
 import com.xinian.ceres.Ceres;
 import com.xinian.ceres.CeresConfig;
+import com.xinian.ceres.common.compression.CeresCompressionManager;
+import com.xinian.ceres.common.compression.CeresLibdeflate;
+import com.xinian.ceres.common.compression.CeresLibdeflateByteBufCompressor;
 import com.xinian.ceres.common.network.util.CeresNatives;
 import com.xinian.ceres.common.network.util.CeresNatives.CeresCompressor;
 
@@ -19,8 +22,7 @@ public class CeresMinecraftCompressorFactory {
      */
     public static CeresMinecraftCompressEncoder createEncoder() {
         int threshold = CeresConfig.COMMON.compressionThreshold.get();
-        int level = CeresConfig.COMMON.compressionLevel.get();
-        CeresCompressor compressor = COMPRESSOR_FACTORY.create(level);
+        CeresCompressor compressor = createCompressor(CeresConfig.COMMON.compressionLevel.get());
         return new CeresMinecraftCompressEncoder(threshold, compressor);
     }
 
@@ -32,10 +34,40 @@ public class CeresMinecraftCompressorFactory {
      */
     public static CeresMinecraftCompressDecoder createDecoder(boolean validate) {
         int threshold = CeresConfig.COMMON.compressionThreshold.get();
-        CeresCompressor compressor = COMPRESSOR_FACTORY.create(0); // 解压不需要级别
+        CeresCompressor compressor = createCompressor(0); // 解压不需要级别
         return new CeresMinecraftCompressDecoder(threshold, validate, compressor);
     }
 
+    /**
+     * 创建管道使用的压缩器
+     * 当压缩引擎为LIBDEFLATE时使用零拷贝的libdeflate实现（级别取自advancedCompressionLevel），
+     * 否则使用CeresNatives提供的实现
+     *
+     * @param level 压缩级别
+     * @return 压缩器
+     */
+    public static CeresCompressor createCompressor(int level) {
+        if (isLibdeflateSelected()) {
+            try {
+                return new CeresLibdeflateByteBufCompressor(CeresConfig.COMMON.advancedCompressionLevel.get());
+            } catch (Throwable t) {
+                Ceres.LOGGER.warn("Failed to create libdeflate compressor, falling back to {}: {}",
+                        COMPRESSOR_FACTORY.getLoadedVariant(), t.getMessage());
+            }
+        }
+        return COMPRESSOR_FACTORY.create(level);
+    }
+
+    /**
+     * 检查管道是否使用libdeflate压缩引擎
+     *
+     * @return 如果使用libdeflate则返回true
+     */
+    public static boolean isLibdeflateSelected() {
+        return CeresCompressionManager.getCurrentEngine() == CeresConfig.CompressionEngine.LIBDEFLATE
+                && CeresLibdeflate.isAvailable();
+    }
+
     /**
      * 获取当前使用的压缩器工厂
      *
@@ -58,7 +90,8 @@ public class CeresMinecraftCompressorFactory {
      * 记录当前使用的压缩器实现信息
      */
     public static void logImplementationDetails() {
-        Ceres.LOGGER.info("Using compressor implementation: {}", COMPRESSOR_FACTORY.getLoadedVariant());
+        Ceres.LOGGER.info("Using compressor implementation: {}",
+                isLibdeflateSelected() ? "libdeflate (zero-copy)" : COMPRESSOR_FACTORY.getLoadedVariant());
         Ceres.LOGGER.info("Compression threshold: {} bytes, level: {}",
                 CeresConfig.COMMON.compressionThreshold.get(),
                 CeresConfig.COMMON.compressionLevel.get());
@@ -70,5 +103,7 @@ public class CeresMinecraftCompressorFactory {
     public static void resetAllStats() {
         CeresMinecraftCompressEncoder.resetStats();
         CeresMinecraftCompressDecoder.resetStats();
+        CeresAdaptiveCompressionController.resetStats();
+        CeresCompressionWorkerPool.resetStats();
     }
 }
@@ -0,0 +1,251 @@
+package com.xinian.ceres.common.network.compression;
+
+import com.xinian.ceres.CeresConfig;
+import com.xinian.ceres.common.network.util.CeresNatives.CeresCompressor;
+import io.netty.buffer.ByteBuf;
+import io.netty.handler.codec.DecoderException;
+import io.netty.handler.codec.EncoderException;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * 流式（上下文接管）压缩器
+ *
+ * <p>每个连接方向只保持一个原始DEFLATE流，每一帧以SYNC_FLUSH结束，
+ * 类似WebSocket permessage-deflate的上下文接管模式。后续帧可以引用之前帧的内容，
+ * 大量相似的移动和实体元数据数据包因此能压缩得非常小。
+ * 与permessage-deflate一样，每帧末尾固定的{@code 00 00 FF FF}不会发送，解压时再补上。</p>
+ *
+ * <p>流是有状态的，所有压缩帧必须按顺序经过同一个压缩器，
+ * 因此这个模式下不能使用工作线程池压缩，也不能插入共享的预编码压缩帧。</p>
+ *
+ * <p>JDK的Deflater不能调整窗口大小，每个压缩上下文大约占用256KB本地内存，
+ * 所以压缩上下文受全局内存预算限制，预算用完后新连接继续使用逐包压缩。
+ * 解压上下文只占用约40KB，不计入预算。</p>
+ */
+public class CeresStreamingCompressor implements CeresCompressor {
+    /**
+     * 一个zlib压缩上下文的大致内存占用（窗口、哈希表和输出缓冲区）
+     */
+    public static final long DEFLATE_CONTEXT_BYTES = 256 * 1024;
+
+    private static final byte[] SYNC_TRAILER = {0, 0, (byte) 0xFF, (byte) 0xFF};
+
+    private static final AtomicLong RESERVED_BYTES = new AtomicLong(0);
+    private static final AtomicLong ACTIVE_DEFLATERS = new AtomicLong(0);
+    private static final AtomicLong ACTIVE_INFLATERS = new AtomicLong(0);
+    private static final AtomicLong BUDGET_REJECTIONS = new AtomicLong(0);
+
+    private final byte[] dictionary;
+    private final boolean reserved;
+    private Deflater deflater;
+    private Inflater inflater;
+    private byte[] input;
+    private int level;
+    private boolean closed;
+
+    /**
+     * 创建一个新的流式压缩器
+     *
+     * @param level 压缩级别，超出0-9的部分会被截断
+     * @param dictionary 流开始时预置的字典，可以为null
+     * @param reserved 是否已经通过{@link #tryReserve()}预留了压缩上下文的内存
+     */
+    public CeresStreamingCompressor(int level, byte[] dictionary, boolean reserved) {
+        this.level = Math.max(0, Math.min(9, level < 0 ? 6 : level));
+        this.dictionary = dictionary;
+        this.reserved = reserved;
+    }
+
+    /**
+     * 为一个压缩上下文预留内存
+     *
+     * @return 如果预算足够则返回true，调用者必须把结果传给构造函数以便关闭时释放
+     */
+    public static boolean tryReserve() {
+        long budget = CeresConfig.COMMON.streamingCompressionMemoryMb.get() * 1024L * 1024L;
+        while (true) {
+            long current = RESERVED_BYTES.get();
+            if (current + DEFLATE_CONTEXT_BYTES > budget) {
+                BUDGET_REJECTIONS.incrementAndGet();
+                return false;
+            }
+            if (RESERVED_BYTES.compareAndSet(current, current + DEFLATE_CONTEXT_BYTES)) {
+                return true;
+            }
+        }
+    }
+
+    @Override
+    public void deflate(ByteBuf source, ByteBuf destination) {
+        Deflater deflater = deflater();
+        deflater.setInput(source.nioBuffer());
+
+        try {
+            int startIndex = destination.writerIndex();
+            while (true) {
+                destination.ensureWritable(Math.max(64, source.readableBytes() / 2 + 16));
+                int writable = destination.writableBytes();
+                ByteBuffer out = destination.nioBuffer(destination.writerIndex(), writable);
+                int written = deflater.deflate(out, Deflater.SYNC_FLUSH);
+                destination.writerIndex(destination.writerIndex() + written);
+                // 输出缓冲区没有写满说明这一帧的数据已经全部刷出
+                if (written < writable) {
+                    break;
+                }
+            }
+            source.skipBytes(source.readableBytes());
+
+            int end = destination.writerIndex();
+            if (end - startIndex < SYNC_TRAILER.length || !endsWithTrailer(destination, end)) {
+                throw new EncoderException("Streaming deflate did not end with a sync flush");
+            }
+            destination.writerIndex(end - SYNC_TRAILER.length);
+        } catch (RuntimeException e) {
+            // 流已经损坏，无法继续使用
+            close();
+            throw e instanceof EncoderException ? e : new EncoderException("Failed to compress packet in stream", e);
+        }
+    }
+
+    @Override
+    public void inflate(ByteBuf source, ByteBuf destination, int uncompressedSize) {
+        Inflater inflater = inflater();
+        destination.ensureWritable(uncompressedSize);
+
+        // 帧和补回的尾部必须作为一段连续输入，否则帧末尾未消费的比特会丢失
+        int length = source.readableBytes();
+        byte[] input = inputBuffer(length + SYNC_TRAILER.length);
+        source.readBytes(input, 0, length);
+        System.arraycopy(SYNC_TRAILER, 0, input, length, SYNC_TRAILER.length);
+        inflater.setInput(input, 0, length + SYNC_TRAILER.length);
+
+        try {
+            int remaining = uncompressedSize;
+            while (remaining > 0) {
+                ByteBuffer out = destination.nioBuffer(destination.writerIndex(), remaining);
+                int read = inflater.inflate(out);
+                if (read == 0 && (inflater.needsInput() || inflater.finished() || inflater.needsDictionary())) {
+                    throw new DecoderException("Badly compressed packet - expected " + uncompressedSize
+                            + " bytes, got " + (uncompressedSize - remaining));
+                }
+                destination.writerIndex(destination.writerIndex() + read);
+                remaining -= read;
+            }
+
+            // 消费帧末尾的空存储块，它不产生任何输出
+            if (inflater.getRemaining() > 0 && inflater.inflate(new byte[1]) != 0) {
+                throw new DecoderException("Badly compressed packet - frame is larger than " + uncompressedSize);
+            }
+        } catch (DataFormatException e) {
+            throw new DecoderException("Failed to decompress packet in stream", e);
+        }
+    }
+
+    private byte[] inputBuffer(int length) {
+        if (input == null || input.length < length) {
+            input = new byte[Math.max(length, 8192)];
+        }
+        return input;
+    }
+
+    private static boolean endsWithTrailer(ByteBuf buf, int end) {
+        for (int i = 0; i < SYNC_TRAILER.length; i++) {
+            if (buf.getByte(end - SYNC_TRAILER.length + i) != SYNC_TRAILER[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private Deflater deflater() {
+        if (closed) {
+            throw new EncoderException("Streaming compressor is closed");
+        }
+        if (deflater == null) {
+            deflater = new Deflater(level, true);
+            if (dictionary != null) {
+                deflater.setDictionary(dictionary);
+            }
+            ACTIVE_DEFLATERS.incrementAndGet();
+        }
+        return deflater;
+    }
+
+    private Inflater inflater() {
+        if (closed) {
+            throw new DecoderException("Streaming compressor is closed");
+        }
+        if (inflater == null) {
+            inflater = new Inflater(true);
+            if (dictionary != null) {
+                inflater.setDictionary(dictionary);
+            }
+            ACTIVE_INFLATERS.incrementAndGet();
+        }
+        return inflater;
+    }
+
+    @Override
+    public boolean setLevel(int level) {
+        this.level = Math.max(0, Math.min(9, level));
+        if (deflater != null) {
+            // 新参数在下一次deflate调用时应用，不会打断流
+            deflater.setLevel(this.level);
+        }
+        return true;
+    }
+
+    @Override
+    public int getLevel() {
+        return level;
+    }
+
+    @Override
+    public boolean isStateful() {
+        return true;
+    }
+
+    @Override
+    public void close() {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        if (deflater != null) {
+            deflater.end();
+            deflater = null;
+            ACTIVE_DEFLATERS.decrementAndGet();
+        }
+        if (inflater != null) {
+            inflater.end();
+            inflater = null;
+            ACTIVE_INFLATERS.decrementAndGet();
+        }
+        if (reserved) {
+            RESERVED_BYTES.addAndGet(-DEFLATE_CONTEXT_BYTES);
+        }
+    }
+
+    /**
+     * 获取流式压缩统计信息
+     *
+     * @return 统计信息字符串
+     */
+    public static String getStreamingStats() {
+        return String.format("Streaming compression: %d deflate / %d inflate contexts, %d/%d KB budget used, %d rejected",
+                ACTIVE_DEFLATERS.get(), ACTIVE_INFLATERS.get(), RESERVED_BYTES.get() / 1024,
+                CeresConfig.COMMON.streamingCompressionMemoryMb.get() * 1024L, BUDGET_REJECTIONS.get());
+    }
+
+    /**
+     * 重置统计信息
+     */
+    public static void resetStats() {
+        BUDGET_REJECTIONS.set(0);
+    }
+}
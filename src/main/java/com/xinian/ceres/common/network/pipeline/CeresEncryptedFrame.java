@@ -0,0 +1,17 @@
+package com.xinian.ceres.common.network.pipeline;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.DefaultByteBufHolder;
+
+/**
+ * 已经带有长度前缀并加密的帧
+ *
+ * <p>由合并模式下的压缩编码器生成。它不是{@link ByteBuf}，原版的长度前缀编码器会原样放行，
+ * {@link CeresMinecraftCipherEncoder}取出其中的缓冲区直接写出。</p>
+ */
+public final class CeresEncryptedFrame extends DefaultByteBufHolder {
+
+    public CeresEncryptedFrame(ByteBuf data) {
+        super(data);
+    }
+}
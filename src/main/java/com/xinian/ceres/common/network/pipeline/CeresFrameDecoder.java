@@ -0,0 +1,177 @@
+package com.xinian.ceres.common.network.pipeline;
+
+import com.xinian.ceres.CeresConfig;
+import com.xinian.ceres.common.network.CeresVarintByteDecoder;
+import io.netty.buffer.ByteBuf;
+import io.netty.util.ByteProcessor;
+
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static com.xinian.ceres.common.network.util.exception.CeresWellKnownExceptions.BAD_LENGTH_CACHED;
+import static com.xinian.ceres.common.network.util.exception.CeresWellKnownExceptions.VARINT_BIG_CACHED;
+
+/**
+ * 按长度前缀拆分入站帧
+ *
+ * <p>{@link #decodeAll}一次读取4字节，用位运算找出VarInt的结束位置并取出长度，
+ * 然后在同一次调用中取出累积缓冲区里所有完整的帧。客户端成批发送的小数据包（例如移动）
+ * 不再需要为每一帧调用一次解码。</p>
+ *
+ * <p>两种实现对异常输入的处理相同：帧之间的零字节被跳过，超过3字节的长度前缀会清空缓冲区并抛出异常。</p>
+ */
+public final class CeresFrameDecoder {
+    /**
+     * 每个字节的最高位，只看前3个字节
+     */
+    private static final int CONTINUATION_BITS = 0x808080;
+
+    private static final AtomicLong DECODE_CALLS = new AtomicLong(0);
+    private static final AtomicLong FRAMES_DECODED = new AtomicLong(0);
+
+    private CeresFrameDecoder() {
+    }
+
+    /**
+     * 检查是否启用了批量拆分
+     *
+     * @return 如果启用则返回true
+     */
+    public static boolean isEnabled() {
+        return CeresConfig.COMMON.enableBatchedFrameDecoding.get();
+    }
+
+    /**
+     * 取出缓冲区中所有完整的帧
+     * 帧是输入缓冲区的保留切片，读索引移动到第一个不完整的帧
+     *
+     * @param in 累积的输入
+     * @param out 输出列表
+     */
+    public static void decodeAll(ByteBuf in, List<Object> out) {
+        int index = in.readerIndex();
+        int end = in.writerIndex();
+        int frames = 0;
+
+        while (index < end) {
+            int available = end - index;
+            int word;
+            if (available >= 4) {
+                word = in.getIntLE(index);
+            } else {
+                // 缺少的字节视为带有后续位，长度前缀不完整时会等待更多数据
+                word = 0x80808080 << (8 * available);
+                for (int i = 0; i < available; i++) {
+                    word |= (in.getByte(index + i) & 0xFF) << (8 * i);
+                }
+            }
+
+            if ((word & 0xFF) == 0) {
+                // 帧之间的零字节
+                int next = in.forEachByte(index, available, ByteProcessor.FIND_NON_NUL);
+                if (next == -1) {
+                    index = end;
+                    break;
+                }
+                index = next;
+                continue;
+            }
+
+            int stops = ~word & CONTINUATION_BITS;
+            if (stops == 0) {
+                if (available >= 3) {
+                    in.clear();
+                    throw VARINT_BIG_CACHED;
+                }
+                break;
+            }
+
+            // 第一个没有后续位的字节决定长度前缀的字节数
+            int headerSize = (Integer.numberOfTrailingZeros(stops) + 1) >>> 3;
+            int header = word & (0xFFFFFF >>> (8 * (3 - headerSize)));
+            int length = (header & 0x7F) | (header & 0x7F00) >>> 1 | (header & 0x7F0000) >>> 2;
+
+            if (length == 0) {
+                index += headerSize;
+                continue;
+            }
+            if (available - headerSize < length) {
+                break;
+            }
+            out.add(in.retainedSlice(index + headerSize, length));
+            index += headerSize + length;
+            frames++;
+        }
+
+        in.readerIndex(index);
+        DECODE_CALLS.incrementAndGet();
+        if (frames > 0) {
+            FRAMES_DECODED.addAndGet(frames);
+        }
+    }
+
+    /**
+     * 逐字节解析长度前缀，每次最多取出一帧
+     *
+     * @param reader 长度前缀解析器
+     * @param in 累积的输入
+     * @param out 输出列表
+     */
+    public static void decodeOne(CeresVarintByteDecoder reader, ByteBuf in, List<Object> out) {
+        reader.reset();
+
+        int varintEnd = in.forEachByte(reader);
+        if (varintEnd == -1) {
+
+            if (reader.getResult() == CeresVarintByteDecoder.DecodeResult.RUN_OF_ZEROES) {
+
+                in.clear();
+            }
+            return;
+        }
+
+        if (reader.getResult() == CeresVarintByteDecoder.DecodeResult.RUN_OF_ZEROES) {
+
+            in.readerIndex(varintEnd);
+        } else if (reader.getResult() == CeresVarintByteDecoder.DecodeResult.SUCCESS) {
+            int readVarint = reader.getReadVarint();
+            int bytesRead = reader.getBytesRead();
+            if (readVarint < 0) {
+                in.clear();
+                throw BAD_LENGTH_CACHED;
+            } else if (readVarint == 0) {
+
+                in.readerIndex(varintEnd + 1);
+            } else {
+                int minimumRead = bytesRead + readVarint;
+                if (in.isReadable(minimumRead)) {
+                    out.add(in.retainedSlice(varintEnd + 1, readVarint));
+                    in.skipBytes(minimumRead);
+                }
+            }
+        } else if (reader.getResult() == CeresVarintByteDecoder.DecodeResult.TOO_BIG) {
+            in.clear();
+            throw VARINT_BIG_CACHED;
+        }
+    }
+
+    /**
+     * 获取拆分统计信息
+     *
+     * @return 统计信息字符串
+     */
+    public static String getDecoderStats() {
+        long calls = DECODE_CALLS.get();
+        long frames = FRAMES_DECODED.get();
+        return String.format("Frame decoder: %d frames in %d batched calls (%.2f frames/call)",
+                frames, calls, calls > 0 ? (double) frames / calls : 0.0);
+    }
+
+    /**
+     * 重置统计信息
+     */
+    public static void resetStats() {
+        DECODE_CALLS.set(0);
+        FRAMES_DECODED.set(0);
+    }
+}
@@ -0,0 +1,128 @@
+package com.xinian.ceres.common.network.pipeline;
+
+import com.xinian.ceres.CeresConfig;
+import com.xinian.ceres.common.network.util.CeresVarIntUtil;
+import io.netty.buffer.ByteBuf;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 帧长度前缀的原地写入
+ *
+ * <p>原版的长度前缀编码器为每一帧分配第二个缓冲区，写入长度后复制整帧。
+ * Ceres的编码器在输出缓冲区开头预留{@link #MAX_HEADER_SIZE}字节，
+ * 长度确定后把VarInt写在数据前面紧挨着的位置，并把读索引前移，未用到的预留字节留在读索引之前。</p>
+ *
+ * <p>只有独占的缓冲区才会被原地修改：引用计数为1、不是其他缓冲区的派生视图、也不是只读的。
+ * 这样读索引之前的字节不会被其他持有者看到，共享的预编码帧仍然走复制路径。</p>
+ *
+ * <p><strong>线程安全性</strong>：所有方法都可以从任意线程调用，缓冲区本身只能由当前持有者访问。</p>
+ */
+public final class CeresLengthPrepender {
+    /**
+     * 长度前缀最多3字节VarInt，即最大帧为2097151字节
+     */
+    public static final int MAX_HEADER_SIZE = 3;
+
+    private static final AtomicLong IN_PLACE = new AtomicLong(0);
+    private static final AtomicLong COPIED = new AtomicLong(0);
+
+    private CeresLengthPrepender() {
+    }
+
+    /**
+     * 检查是否启用了原地写入长度前缀
+     *
+     * @return 如果启用则返回true
+     */
+    public static boolean isEnabled() {
+        return CeresConfig.COMMON.enableInPlaceLengthPrefix.get();
+    }
+
+    /**
+     * 获取编码器应该在输出缓冲区开头预留的字节数
+     *
+     * @return 预留字节数，没有启用时为0
+     */
+    public static int headroom() {
+        return isEnabled() ? MAX_HEADER_SIZE : 0;
+    }
+
+    /**
+     * 尝试在帧数据前面原地写入长度前缀
+     * 成功时读索引前移到长度前缀的开头，失败时缓冲区保持不变
+     *
+     * @param frame 帧数据
+     * @return 如果已经原地写入则返回true，帧超过3字节VarInt可以表示的长度时返回false，
+     *         由调用者按原来的方式报告错误并释放缓冲区
+     */
+    public static boolean tryPrependInPlace(ByteBuf frame) {
+        int length = frame.readableBytes();
+        int headerSize = CeresVarIntUtil.getVarIntLength(length);
+        if (headerSize > MAX_HEADER_SIZE) {
+            return false;
+        }
+        int start = frame.readerIndex() - headerSize;
+        if (start < 0 || frame.refCnt() != 1 || frame.unwrap() != null || frame.isReadOnly()) {
+            return false;
+        }
+
+        CeresVarIntUtil.setVarInt(frame, start, length);
+        frame.readerIndex(start);
+        IN_PLACE.incrementAndGet();
+        return true;
+    }
+
+    /**
+     * 把长度前缀和帧数据写入另一个缓冲区，用于无法原地写入的帧
+     *
+     * @param frame 帧数据，读索引不变
+     * @param out 输出缓冲区
+     * @throws IllegalArgumentException 如果帧超过3字节VarInt可以表示的长度
+     */
+    public static void prependCopy(ByteBuf frame, ByteBuf out) {
+        int length = frame.readableBytes();
+        int headerSize = headerSize(length);
+        out.ensureWritable(headerSize + length);
+        int start = out.writerIndex();
+        CeresVarIntUtil.setVarInt(out, start, length);
+        out.writerIndex(start + headerSize);
+        out.writeBytes(frame, frame.readerIndex(), length);
+        COPIED.incrementAndGet();
+    }
+
+    /**
+     * 计算帧的长度前缀大小
+     *
+     * @param length 帧长度
+     * @return 长度前缀的字节数
+     * @throws IllegalArgumentException 如果超过3字节
+     */
+    public static int headerSize(int length) {
+        int headerSize = CeresVarIntUtil.getVarIntLength(length);
+        if (headerSize > MAX_HEADER_SIZE) {
+            throw new IllegalArgumentException("unable to fit " + length + " into " + MAX_HEADER_SIZE);
+        }
+        return headerSize;
+    }
+
+    /**
+     * 获取长度前缀统计信息
+     *
+     * @return 统计信息字符串
+     */
+    public static String getPrependerStats() {
+        long inPlace = IN_PLACE.get();
+        long total = inPlace + COPIED.get();
+        return String.format("Length prefix: %d frames written in place, %d copied (%.1f%% in place)",
+                inPlace, COPIED.get(), total > 0 ? inPlace * 100.0 / total : 0.0);
+    }
+
+    /**
+     * 重置统计信息
+     */
+    public static void resetStats() {
+        IN_PLACE.set(0);
+        COPIED.set(0);
+    }
+}
@@ -11,6 +11,8 @@ import java.util.List;
 /**
  * Minecraft网络数据解密解码器
  * 使用CeresCipher对入站数据进行解密处理
+ *
+ * <p>读到的缓冲区直接原地解密后传递下去，不分配新的缓冲区。</p>
  */
 public class CeresMinecraftCipherDecoder extends MessageToMessageDecoder<ByteBuf> {
 
@@ -28,16 +30,17 @@ public class CeresMinecraftCipherDecoder extends MessageToMessageDecoder<ByteBuf
 
     @Override
     protected void decode(ChannelHandlerContext ctx, ByteBuf in, List<Object> out) throws Exception {
-        ByteBuf copy = ctx.alloc().buffer(in.readableBytes()).writeBytes(in);
+        // 从套接字读到的缓冲区只属于这个通道，原地解密后交给帧解码器累积
+        ByteBuf target = cipher.ensureCompatible(ctx.alloc(), in);
         try {
 
-            cipher.process(copy);
+            cipher.process(target);
 
-            bytesProcessed += copy.readableBytes();
+            bytesProcessed += target.readableBytes();
 
-            out.add(copy);
+            out.add(target);
         } catch (Exception e) {
-            copy.release();
+            target.release();
             throw e;
         }
     }
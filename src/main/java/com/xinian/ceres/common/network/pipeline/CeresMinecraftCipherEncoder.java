@@ -4,6 +4,7 @@ import com.google.common.base.Preconditions;
 import com.xinian.ceres.common.network.util.CeresNatives.CeresCipher;
 import io.netty.buffer.ByteBuf;
 import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelPromise;
 import io.netty.handler.codec.MessageToMessageEncoder;
 
 import java.util.List;
@@ -11,6 +12,10 @@ import java.util.List;
 /**
  * Minecraft网络数据加密编码器
  * 使用CeresCipher对出站数据进行加密处理
+ *
+ * <p>可写且内存类型与密码器兼容的帧直接原地加密后传递下去，不分配新的缓冲区。</p>
+ *
+ * <p>压缩编码器在合并模式下已经完成加密的{@link CeresEncryptedFrame}直接写出。</p>
  */
 public class CeresMinecraftCipherEncoder extends MessageToMessageEncoder<ByteBuf> {
 
@@ -26,19 +31,30 @@ public class CeresMinecraftCipherEncoder extends MessageToMessageEncoder<ByteBuf
         this.cipher = Preconditions.checkNotNull(cipher, "cipher");
     }
 
+    @Override
+    public void write(ChannelHandlerContext ctx, Object msg, ChannelPromise promise) throws Exception {
+        if (msg instanceof CeresEncryptedFrame frame) {
+            ByteBuf content = frame.content();
+            bytesProcessed += content.readableBytes();
+            ctx.write(content, promise);
+            return;
+        }
+        super.write(ctx, msg, promise);
+    }
+
     @Override
     protected void encode(ChannelHandlerContext ctx, ByteBuf msg, List<Object> out) throws Exception {
-        ByteBuf copy = ctx.alloc().buffer(msg.readableBytes());
+        // 前面的编码器每一帧都生成新的缓冲区，通常可以原地加密；只读的共享帧才需要复制
+        ByteBuf target = cipher.ensureCompatible(ctx.alloc(), msg);
         try {
-            copy.writeBytes(msg);
             // 加密数据
-            cipher.process(copy);
+            cipher.process(target);
             // 更新统计信息
-            bytesProcessed += copy.readableBytes();
+            bytesProcessed += target.readableBytes();
             // 添加到输出列表
-            out.add(copy);
+            out.add(target);
         } catch (Exception e) {
-            copy.release(); // 如果抛出异常，copy将永远不会被使用
+            target.release(); // 如果抛出异常，target将永远不会被使用
             throw e;
         }
     }
@@ -2,10 +2,14 @@ package com.xinian.ceres.common.network.pipeline;
 
 import com.google.common.base.Preconditions;
 import com.xinian.ceres.Ceres;
+import com.xinian.ceres.CeresConfig;
+import com.xinian.ceres.common.network.compression.CeresMinecraftCompressEncoder;
 import com.xinian.ceres.common.network.util.CeresNatives;
 import com.xinian.ceres.common.network.util.CeresNatives.CeresCipher;
 import io.netty.buffer.ByteBuf;
 import io.netty.buffer.Unpooled;
+import io.netty.channel.Channel;
+import io.netty.channel.ChannelPipeline;
 
 import javax.crypto.SecretKey;
 import javax.crypto.spec.SecretKeySpec;
@@ -43,6 +47,30 @@ public class CeresMinecraftCipherFactory {
         return new CeresMinecraftCipherDecoder(cipher);
     }
 
+    /**
+     * 在压缩和加密都由Ceres处理时，让压缩编码器一次完成压缩、长度前缀和加密
+     * 在启用压缩或加密之后调用，两者缺一时不做任何事
+     *
+     * @param channel 连接的通道
+     */
+    public static void fuseIfPossible(Channel channel) {
+        if (channel == null || !CeresConfig.COMMON.enableFusedEncryption.get()) {
+            return;
+        }
+        if (!channel.eventLoop().inEventLoop()) {
+            channel.eventLoop().execute(() -> fuseIfPossible(channel));
+            return;
+        }
+
+        ChannelPipeline pipeline = channel.pipeline();
+        if (pipeline.get("compress") instanceof CeresMinecraftCompressEncoder encoder
+                && pipeline.get("encrypt") instanceof CeresMinecraftCipherEncoder cipherEncoder
+                && !encoder.isFusedEncryption()) {
+            encoder.enableFusedEncryption(cipherEncoder.getCipher());
+            Ceres.LOGGER.debug("Fused compression and encryption on {}", channel.remoteAddress());
+        }
+    }
+
     /**
      * 从字节数组创建密钥
      *
@@ -84,7 +112,7 @@ public class CeresMinecraftCipherFactory {
      * @return 如果支持本地加密实现则为true
      */
     public static boolean isNativeSupported() {
-        return !CIPHER_FACTORY.getLoadedVariant().equals("Java");
+        return CIPHER_FACTORY.isNative();
     }
 
     /**
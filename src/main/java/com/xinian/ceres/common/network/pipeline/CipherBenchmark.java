@@ -0,0 +1,113 @@
+package com.xinian.ceres.common.network.pipeline;
+
+import com.xinian.ceres.Ceres;
+import com.xinian.ceres.common.network.util.CeresCfb8Cipher;
+import com.xinian.ceres.common.network.util.CeresNatives;
+import com.xinian.ceres.common.network.util.CeresNatives.CeresCipher;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.PooledByteBufAllocator;
+import net.minecraft.network.chat.Component;
+import net.minecraft.server.level.ServerPlayer;
+
+import javax.crypto.SecretKey;
+import java.security.GeneralSecurityException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * AES/CFB8实现的吞吐量测试
+ * 在调用线程上单线程运行，结果即每个核心的MB/s
+ */
+public class CipherBenchmark {
+    private static final int[] TEST_SIZES = {64, 1024, 64 * 1024};
+    private static final long WARMUP_NANOS = 100_000_000L;
+    private static final long MEASURE_NANOS = 250_000_000L;
+
+    /**
+     * 运行测试并把结果发送给玩家
+     *
+     * @param player 玩家
+     */
+    public static void runBenchmarkForPlayer(ServerPlayer player) {
+        player.sendSystemMessage(Component.literal("§6Running Ceres cipher benchmark..."));
+        for (String line : benchmark()) {
+            player.sendSystemMessage(Component.literal("§a" + line));
+        }
+    }
+
+    /**
+     * 运行测试并把结果记录到日志
+     */
+    public static void runBenchmark() {
+        Ceres.LOGGER.info("Running cipher benchmark...");
+        for (String line : benchmark()) {
+            Ceres.LOGGER.info(line);
+        }
+    }
+
+    private static List<String> benchmark() {
+        List<String> lines = new ArrayList<>();
+        SecretKey key = CeresMinecraftCipherFactory.createTestKey();
+        CeresNatives.CipherFactory factory = CeresNatives.cipher;
+        lines.add("Selected engine: " + factory.getLoadedVariant());
+
+        for (int size : TEST_SIZES) {
+            lines.add(String.format("--- %d B frames (MB/s per core, encrypt / decrypt) ---", size));
+            try {
+                lines.add(measure("JCE", factory.createJava(key, true), factory.createJava(key, false), size));
+                if (CeresCfb8Cipher.isUsable()) {
+                    lines.add(measure(CeresCfb8Cipher.variantName(), CeresCfb8Cipher.forEncryption(key),
+                            CeresCfb8Cipher.forDecryption(key), size));
+                } else {
+                    lines.add("Ceres CFB8: self-test failed, not used");
+                }
+                CeresCipher nativeEncryption = factory.createNative(key, true);
+                if (nativeEncryption != null) {
+                    lines.add(measure("Native", nativeEncryption, factory.createNative(key, false), size));
+                }
+            } catch (GeneralSecurityException e) {
+                lines.add("Failed to create cipher: " + e.getMessage());
+            }
+        }
+        return lines;
+    }
+
+    private static String measure(String name, CeresCipher encryption, CeresCipher decryption, int size) {
+        // 使用直接缓冲区，与网络管道中的帧一致
+        ByteBuf buf = PooledByteBufAllocator.DEFAULT.directBuffer(size);
+        try {
+            byte[] data = new byte[size];
+            new Random(size).nextBytes(data);
+            buf.writeBytes(data);
+
+            double encrypt = throughput(encryption, buf);
+            double decrypt = throughput(decryption, buf);
+            return String.format("%s: %.1f / %.1f MB/s", name, encrypt, decrypt);
+        } finally {
+            buf.release();
+            encryption.close();
+            decryption.close();
+        }
+    }
+
+    private static double throughput(CeresCipher cipher, ByteBuf buf) {
+        run(cipher, buf, WARMUP_NANOS);
+        long start = System.nanoTime();
+        long bytes = run(cipher, buf, MEASURE_NANOS);
+        return bytes / ((System.nanoTime() - start) / 1e9) / (1024.0 * 1024.0);
+    }
+
+    private static long run(CeresCipher cipher, ByteBuf buf, long nanos) {
+        long deadline = System.nanoTime() + nanos;
+        long bytes = 0;
+        do {
+            // 每次检查时间之间处理约64KB，避免计时开销影响小帧的结果
+            for (int processed = 0; processed < 64 * 1024; processed += buf.readableBytes()) {
+                cipher.process(buf);
+                bytes += buf.readableBytes();
+            }
+        } while (System.nanoTime() < deadline);
+        return bytes;
+    }
+}
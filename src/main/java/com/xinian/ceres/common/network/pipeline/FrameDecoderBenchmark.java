@@ -0,0 +1,124 @@
+package com.xinian.ceres.common.network.pipeline;
+
+import com.xinian.ceres.Ceres;
+import com.xinian.ceres.common.network.CeresVarintByteDecoder;
+import com.xinian.ceres.common.network.util.CeresVarIntUtil;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.PooledByteBufAllocator;
+import io.netty.util.ReferenceCountUtil;
+import net.minecraft.network.chat.Component;
+import net.minecraft.server.level.ServerPlayer;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * 入站帧拆分的吞吐量测试
+ * 比较逐字节解析、每次一帧的原实现和批量拆分的实现，在调用线程上单线程运行
+ */
+public class FrameDecoderBenchmark {
+    private static final int BUFFER_SIZE = 64 * 1024;
+    private static final long WARMUP_NANOS = 100_000_000L;
+    private static final long MEASURE_NANOS = 250_000_000L;
+
+    /**
+     * 测试场景：名称和帧大小范围
+     */
+    private static final String[] SCENARIOS = {"movement", "mixed", "chunk"};
+    private static final int[][] FRAME_SIZES = {{8, 40}, {8, 2048}, {8192, 32768}};
+
+    /**
+     * 运行测试并把结果发送给玩家
+     *
+     * @param player 玩家
+     */
+    public static void runBenchmarkForPlayer(ServerPlayer player) {
+        player.sendSystemMessage(Component.literal("§6Running Ceres frame decoder benchmark..."));
+        for (String line : benchmark()) {
+            player.sendSystemMessage(Component.literal("§a" + line));
+        }
+    }
+
+    /**
+     * 运行测试并把结果记录到日志
+     */
+    public static void runBenchmark() {
+        Ceres.LOGGER.info("Running frame decoder benchmark...");
+        for (String line : benchmark()) {
+            Ceres.LOGGER.info(line);
+        }
+    }
+
+    private static List<String> benchmark() {
+        List<String> lines = new ArrayList<>();
+        for (int i = 0; i < SCENARIOS.length; i++) {
+            ByteBuf input = frames(FRAME_SIZES[i][0], FRAME_SIZES[i][1], new Random(i));
+            try {
+                double perFrame = measure(input, false);
+                double batched = measure(input, true);
+                lines.add(String.format("%s frames (%d-%d B): per-frame %.1f MB/s, batched %.1f MB/s (%.2fx)",
+                        SCENARIOS[i], FRAME_SIZES[i][0], FRAME_SIZES[i][1], perFrame, batched, batched / perFrame));
+            } finally {
+                input.release();
+            }
+        }
+        // 测试不计入运行时统计
+        CeresFrameDecoder.resetStats();
+        return lines;
+    }
+
+    /**
+     * 生成一个装满带长度前缀的帧的缓冲区，模拟一次读取得到的数据
+     */
+    private static ByteBuf frames(int minSize, int maxSize, Random random) {
+        ByteBuf buf = PooledByteBufAllocator.DEFAULT.directBuffer(BUFFER_SIZE + maxSize + 3);
+        byte[] payload = new byte[maxSize];
+        while (buf.writerIndex() < BUFFER_SIZE) {
+            int size = minSize + random.nextInt(maxSize - minSize + 1);
+            random.nextBytes(payload);
+            int headerSize = CeresLengthPrepender.headerSize(size);
+            buf.ensureWritable(headerSize + size);
+            int start = buf.writerIndex();
+            CeresVarIntUtil.setVarInt(buf, start, size);
+            buf.writerIndex(start + headerSize);
+            buf.writeBytes(payload, 0, size);
+        }
+        return buf;
+    }
+
+    private static double measure(ByteBuf input, boolean batched) {
+        CeresVarintByteDecoder reader = new CeresVarintByteDecoder();
+        List<Object> out = new ArrayList<>();
+        run(input, batched, reader, out, WARMUP_NANOS);
+        long start = System.nanoTime();
+        long bytes = run(input, batched, reader, out, MEASURE_NANOS);
+        return bytes / ((System.nanoTime() - start) / 1e9) / (1024.0 * 1024.0);
+    }
+
+    private static long run(ByteBuf input, boolean batched, CeresVarintByteDecoder reader, List<Object> out, long nanos) {
+        long deadline = System.nanoTime() + nanos;
+        long bytes = 0;
+        do {
+            input.readerIndex(0);
+            // 与ByteToMessageDecoder相同：只要有进展就再次调用解码
+            while (input.isReadable()) {
+                int before = input.readerIndex();
+                if (batched) {
+                    CeresFrameDecoder.decodeAll(input, out);
+                } else {
+                    CeresFrameDecoder.decodeOne(reader, input, out);
+                }
+                for (Object frame : out) {
+                    ReferenceCountUtil.release(frame);
+                }
+                out.clear();
+                if (input.readerIndex() == before) {
+                    break;
+                }
+            }
+            bytes += input.readerIndex();
+        } while (System.nanoTime() < deadline);
+        return bytes;
+    }
+}
@@ -0,0 +1,58 @@
+package com.xinian.ceres.common.network.util;
+
+import io.netty.buffer.ByteBuf;
+
+import java.nio.charset.StandardCharsets;
+
+/**
+ * 字节缓冲区工具类
+ * 提供不分配临时对象的字段解码
+ */
+public final class CeresByteBufUtil {
+    /**
+     * 线程本地数组的初始大小，覆盖绝大多数字符串
+     */
+    private static final int INITIAL_SCRATCH_SIZE = 1024;
+
+    /**
+     * 超过这个大小的字符串使用一次性的数组，避免每个线程长期持有很大的数组
+     */
+    private static final int MAX_SCRATCH_SIZE = 64 * 1024;
+
+    private static final ThreadLocal<byte[][]> SCRATCH = ThreadLocal.withInitial(() -> new byte[][]{new byte[INITIAL_SCRATCH_SIZE]});
+
+    private CeresByteBufUtil() {
+    }
+
+    /**
+     * 解码UTF-8字符串，不修改缓冲区的读写索引
+     * 堆缓冲区直接从底层数组解码；直接缓冲区先复制到线程本地数组
+     *
+     * @param buf 缓冲区
+     * @param index 起始位置
+     * @param length 字节数
+     * @return 解码的字符串
+     */
+    public static String readUtf8(ByteBuf buf, int index, int length) {
+        if (length == 0) {
+            return "";
+        }
+        if (buf.hasArray()) {
+            return new String(buf.array(), buf.arrayOffset() + index, length, StandardCharsets.UTF_8);
+        }
+
+        byte[] scratch;
+        if (length > MAX_SCRATCH_SIZE) {
+            scratch = new byte[length];
+        } else {
+            byte[][] holder = SCRATCH.get();
+            scratch = holder[0];
+            if (scratch.length < length) {
+                scratch = new byte[Math.min(MAX_SCRATCH_SIZE, Math.max(length, scratch.length * 2))];
+                holder[0] = scratch;
+            }
+        }
+        buf.getBytes(index, scratch, 0, length);
+        return new String(scratch, 0, length, StandardCharsets.UTF_8);
+    }
+}
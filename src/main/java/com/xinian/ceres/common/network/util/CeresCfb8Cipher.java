@@ -0,0 +1,366 @@
+package com.xinian.ceres.common.network.util;
+
+import com.xinian.ceres.Ceres;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+
+import javax.crypto.Cipher;
+import javax.crypto.SecretKey;
+import javax.crypto.spec.IvParameterSpec;
+import javax.crypto.spec.SecretKeySpec;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Constructor;
+import java.security.GeneralSecurityException;
+import java.security.SecureRandom;
+import java.util.Arrays;
+
+/**
+ * 直接基于AES分组原语的CFB8密码器
+ *
+ * <p>JCE的{@code AES/CFB8/NoPadding}每处理一个字节都要经过通用的反馈模式实现，
+ * 并移动16字节的移位寄存器。这里按方向分别处理：</p>
+ * <ul>
+ *   <li>加密必须逐字节串行。密文写入一个环形历史数组，移位寄存器就是数组中的一个16字节窗口，
+ *       不需要移动数据；每个字节直接调用JDK内部的{@code AESCrypt.encryptBlock}，
+ *       它由HotSpot的AES指令内联实现。JDK没有向模组开放这个类时，加密退回JCE的CFB8实现</li>
+ *   <li>解密的每个寄存器状态都是已知的密文，可以并行。这里把一批字节对应的寄存器状态排成连续的块，
+ *       一次调用{@code AES/ECB/NoPadding}生成整批的密钥流，ECB使用流水线化的AES指令，
+ *       吞吐量是逐字节处理的数倍</li>
+ * </ul>
+ *
+ * <p>与Minecraft协议一致，初始向量等于密钥。首次使用前会与JCE逐位比对，
+ * 比对失败时{@link #isUsable()}返回false，调用者应使用JCE实现。</p>
+ *
+ * <p><strong>线程安全性</strong>：此类不是线程安全的，每个通道方向使用自己的实例。</p>
+ */
+public final class CeresCfb8Cipher implements CeresNatives.CeresCipher {
+    private static final int BLOCK_SIZE = 16;
+
+    /**
+     * 加密历史数组的长度，写满后把最后16字节移到开头
+     */
+    private static final int HISTORY_SIZE = 4096;
+
+    /**
+     * 解密每批处理的字节数
+     */
+    private static final int BATCH_SIZE = 256;
+
+    private static final Object[] AES_CRYPT = resolveBlockPrimitive();
+    private static final Constructor<?> AES_CRYPT_CONSTRUCTOR = (Constructor<?>) AES_CRYPT[0];
+    private static final MethodHandle AES_CRYPT_INIT = (MethodHandle) AES_CRYPT[1];
+
+    /**
+     * {@code (Object aes, byte[] in, int inOffset, byte[] out, int outOffset)void}
+     */
+    private static final MethodHandle ENCRYPT_BLOCK = (MethodHandle) AES_CRYPT[2];
+
+    private static volatile Boolean selfTestResult;
+
+    private final boolean encrypt;
+    private final Object aes;
+    private final Cipher fallback;
+    private final Cipher ecb;
+    private final byte[] history;
+    private final byte[] block = new byte[BLOCK_SIZE];
+    private final byte[] windows;
+    private final byte[] keystream;
+    private final byte[] scratch = new byte[HISTORY_SIZE];
+    private int position;
+
+    private CeresCfb8Cipher(SecretKey key, boolean encrypt) throws GeneralSecurityException {
+        byte[] iv = key.getEncoded();
+        if (iv == null || iv.length != BLOCK_SIZE) {
+            throw new GeneralSecurityException("CFB8 requires a 128-bit AES key");
+        }
+
+        this.encrypt = encrypt;
+        if (encrypt) {
+            Object primitive = newBlockPrimitive(iv);
+            this.aes = primitive;
+            this.fallback = primitive == null ? newJceCipher(key, Cipher.ENCRYPT_MODE) : null;
+            this.ecb = null;
+            this.history = primitive != null ? new byte[HISTORY_SIZE + BLOCK_SIZE] : null;
+            this.windows = null;
+            this.keystream = null;
+        } else {
+            this.aes = null;
+            this.fallback = null;
+            this.ecb = Cipher.getInstance("AES/ECB/NoPadding");
+            this.ecb.init(Cipher.ENCRYPT_MODE, new SecretKeySpec(iv, "AES"));
+            this.history = new byte[BATCH_SIZE + BLOCK_SIZE];
+            this.windows = new byte[BATCH_SIZE * BLOCK_SIZE];
+            this.keystream = new byte[BATCH_SIZE * BLOCK_SIZE];
+        }
+
+        if (history != null) {
+            System.arraycopy(iv, 0, history, 0, BLOCK_SIZE);
+        }
+    }
+
+    /**
+     * 创建加密器
+     *
+     * @param key 共享密钥，同时作为初始向量
+     * @return 密码器
+     * @throws GeneralSecurityException 如果创建失败
+     */
+    public static CeresCfb8Cipher forEncryption(SecretKey key) throws GeneralSecurityException {
+        return new CeresCfb8Cipher(key, true);
+    }
+
+    /**
+     * 创建解密器
+     *
+     * @param key 共享密钥，同时作为初始向量
+     * @return 密码器
+     * @throws GeneralSecurityException 如果创建失败
+     */
+    public static CeresCfb8Cipher forDecryption(SecretKey key) throws GeneralSecurityException {
+        return new CeresCfb8Cipher(key, false);
+    }
+
+    /**
+     * 创建与Minecraft协议一致的JCE CFB8密码器
+     *
+     * @param key 共享密钥，同时作为初始向量
+     * @param mode {@link Cipher#ENCRYPT_MODE}或{@link Cipher#DECRYPT_MODE}
+     * @return JCE密码器
+     * @throws GeneralSecurityException 如果创建失败
+     */
+    public static Cipher newJceCipher(SecretKey key, int mode) throws GeneralSecurityException {
+        Cipher cipher = Cipher.getInstance("AES/CFB8/NoPadding");
+        cipher.init(mode, key, new IvParameterSpec(key.getEncoded()));
+        return cipher;
+    }
+
+    @Override
+    public void process(ByteBuf buf) {
+        int length = buf.readableBytes();
+        if (length == 0) {
+            return;
+        }
+
+        try {
+            if (buf.hasArray()) {
+                process(buf.array(), buf.arrayOffset() + buf.readerIndex(), length);
+                return;
+            }
+
+            // 直接内存分段复制到复用的数组中处理，不分配临时对象
+            int index = buf.readerIndex();
+            int end = index + length;
+            while (index < end) {
+                int chunk = Math.min(scratch.length, end - index);
+                buf.getBytes(index, scratch, 0, chunk);
+                process(scratch, 0, chunk);
+                buf.setBytes(index, scratch, 0, chunk);
+                index += chunk;
+            }
+        } catch (GeneralSecurityException e) {
+            Ceres.LOGGER.error("Failed to process buffer", e);
+            throw new RuntimeException("Failed to process buffer", e);
+        }
+    }
+
+    /**
+     * 原地处理数组中的数据
+     */
+    private void process(byte[] data, int offset, int length) throws GeneralSecurityException {
+        if (!encrypt) {
+            decrypt(data, offset, length);
+        } else if (aes != null) {
+            encrypt(data, offset, length);
+        } else {
+            fallback.update(data, offset, length, data, offset);
+        }
+    }
+
+    private void encrypt(byte[] data, int offset, int length) {
+        byte[] history = this.history;
+        byte[] block = this.block;
+        Object aes = this.aes;
+        int position = this.position;
+
+        try {
+            for (int i = offset, end = offset + length; i < end; i++) {
+                // 寄存器是history[position, position + 16)
+                ENCRYPT_BLOCK.invokeExact(aes, history, position, block, 0);
+                byte c = (byte) (data[i] ^ block[0]);
+                data[i] = c;
+                history[position + BLOCK_SIZE] = c;
+                if (++position == HISTORY_SIZE) {
+                    System.arraycopy(history, HISTORY_SIZE, history, 0, BLOCK_SIZE);
+                    position = 0;
+                }
+            }
+        } catch (Throwable t) {
+            throw new IllegalStateException("AES block primitive failed", t);
+        } finally {
+            this.position = position;
+        }
+    }
+
+    private void decrypt(byte[] data, int offset, int length) throws GeneralSecurityException {
+        byte[] history = this.history;
+        byte[] windows = this.windows;
+        byte[] keystream = this.keystream;
+
+        while (length > 0) {
+            int count = Math.min(length, BATCH_SIZE);
+            // history = 上一批最后16字节密文 + 这一批的密文，第j个字节的寄存器是history[j, j + 16)
+            System.arraycopy(data, offset, history, BLOCK_SIZE, count);
+            for (int j = 0; j < count; j++) {
+                System.arraycopy(history, j, windows, j * BLOCK_SIZE, BLOCK_SIZE);
+            }
+            ecb.update(windows, 0, count * BLOCK_SIZE, keystream, 0);
+            for (int j = 0; j < count; j++) {
+                data[offset + j] ^= keystream[j * BLOCK_SIZE];
+            }
+            System.arraycopy(history, count, history, 0, BLOCK_SIZE);
+
+            offset += count;
+            length -= count;
+        }
+    }
+
+    @Override
+    public void close() {
+        // JCE和AESCrypt都不持有本地资源
+    }
+
+    /**
+     * 检查AES分组原语是否可以直接调用
+     *
+     * @return 如果加密可以使用AES分组原语则返回true
+     */
+    public static boolean isBlockPrimitiveAvailable() {
+        return ENCRYPT_BLOCK != null;
+    }
+
+    /**
+     * 获取实现名称
+     *
+     * @return 实现名称
+     */
+    public static String variantName() {
+        return isBlockPrimitiveAvailable() ? "Ceres CFB8 (AES intrinsic)" : "Ceres CFB8 (batched decrypt)";
+    }
+
+    /**
+     * 检查这个实现能否使用，首次调用时与JCE逐位比对
+     *
+     * @return 如果自检通过则返回true
+     */
+    public static boolean isUsable() {
+        Boolean result = selfTestResult;
+        if (result == null) {
+            synchronized (CeresCfb8Cipher.class) {
+                result = selfTestResult;
+                if (result == null) {
+                    result = selfTest();
+                    selfTestResult = result;
+                }
+            }
+        }
+        return result;
+    }
+
+    /**
+     * 用随机密钥和数据与JCE逐位比对，覆盖堆缓冲区、直接缓冲区和跨调用的寄存器状态
+     */
+    private static boolean selfTest() {
+        try {
+            SecureRandom random = new SecureRandom();
+            byte[] keyBytes = new byte[BLOCK_SIZE];
+            random.nextBytes(keyBytes);
+            SecretKey key = new SecretKeySpec(keyBytes, "AES");
+
+            Cipher reference = newJceCipher(key, Cipher.ENCRYPT_MODE);
+            CeresCfb8Cipher encryption = forEncryption(key);
+            CeresCfb8Cipher decryption = forDecryption(key);
+
+            int[] lengths = {1, 15, 16, 17, 255, 256, 257, 1000, HISTORY_SIZE + 5, 70000, 3};
+            for (int i = 0; i < lengths.length; i++) {
+                byte[] plain = new byte[lengths[i]];
+                random.nextBytes(plain);
+                byte[] expected = reference.update(plain);
+
+                boolean direct = (i & 1) == 1;
+                ByteBuf buf = direct ? Unpooled.directBuffer(plain.length) : Unpooled.buffer(plain.length);
+                try {
+                    buf.writeBytes(plain);
+                    encryption.process(buf);
+                    byte[] encrypted = new byte[plain.length];
+                    buf.getBytes(buf.readerIndex(), encrypted);
+                    if (!Arrays.equals(expected, encrypted)) {
+                        Ceres.LOGGER.warn("{} self-test failed: encryption differs from JCE at {} bytes",
+                                variantName(), plain.length);
+                        return false;
+                    }
+
+                    decryption.process(buf);
+                    byte[] decrypted = new byte[plain.length];
+                    buf.getBytes(buf.readerIndex(), decrypted);
+                    if (!Arrays.equals(plain, decrypted)) {
+                        Ceres.LOGGER.warn("{} self-test failed: decryption differs from JCE at {} bytes",
+                                variantName(), plain.length);
+                        return false;
+                    }
+                } finally {
+                    buf.release();
+                }
+            }
+            return true;
+        } catch (Throwable t) {
+            Ceres.LOGGER.warn("{} self-test failed: {}", variantName(), t.toString());
+            return false;
+        }
+    }
+
+    /**
+     * 为一个密钥创建AES分组原语的实例
+     *
+     * @return AESCrypt实例，不可用时返回null
+     */
+    private static Object newBlockPrimitive(byte[] key) {
+        if (ENCRYPT_BLOCK == null) {
+            return null;
+        }
+        try {
+            Object aes = AES_CRYPT_CONSTRUCTOR.newInstance();
+            AES_CRYPT_INIT.invoke(aes, false, "AES", key);
+            return aes;
+        } catch (Throwable t) {
+            Ceres.LOGGER.debug("Failed to initialize AES block primitive: {}", t.toString());
+            return null;
+        }
+    }
+
+    /**
+     * 查找JDK内部的AES分组原语
+     * 需要JVM参数{@code --add-opens java.base/com.sun.crypto.provider=ALL-UNNAMED}，
+     * 否则返回空的句柄，加密使用JCE实现
+     *
+     * @return 构造函数、init句柄和encryptBlock句柄，不可用时都为null
+     */
+    private static Object[] resolveBlockPrimitive() {
+        try {
+            Class<?> type = Class.forName("com.sun.crypto.provider.AESCrypt");
+            MethodHandles.Lookup lookup = MethodHandles.privateLookupIn(type, MethodHandles.lookup());
+            Constructor<?> constructor = type.getDeclaredConstructor();
+            constructor.setAccessible(true);
+            MethodHandle init = lookup.findVirtual(type, "init",
+                    MethodType.methodType(void.class, boolean.class, String.class, byte[].class));
+            MethodHandle encryptBlock = lookup.findVirtual(type, "encryptBlock",
+                            MethodType.methodType(void.class, byte[].class, int.class, byte[].class, int.class))
+                    .asType(MethodType.methodType(void.class, Object.class, byte[].class, int.class, byte[].class, int.class));
+            return new Object[]{constructor, init, encryptBlock};
+        } catch (Throwable t) {
+            Ceres.LOGGER.debug("AES block primitive not accessible, CFB8 encryption will use JCE: {}", t.toString());
+            return new Object[3];
+        }
+    }
+}
@@ -1,35 +1,124 @@
 package com.xinian.ceres.common.network.util;
 
 import com.xinian.ceres.Ceres;
+import com.xinian.ceres.CeresConfig;
+import com.xinian.ceres.CeresConfig.CipherEngine;
 import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufAllocator;
 
 import javax.crypto.Cipher;
 import javax.crypto.SecretKey;
 import java.nio.ByteBuffer;
 import java.security.GeneralSecurityException;
+import java.util.Locale;
 import java.util.zip.Deflater;
 import java.util.zip.Inflater;
 
 /**
  * Ceres本地工具类
- * 提供加密和压缩功能的纯Java实现
+ * 提供加密和压缩功能，在Linux x86_64/aarch64上优先使用velocity-native的本地实现
+ * （libdeflate压缩、OpenSSL加密），不可用时按组件分别回退到纯Java实现
  */
 public class CeresNatives {
 
+    /**
+     * 纯Java实现的变体名称
+     */
+    public static final String JAVA_VARIANT = "Java";
+
+    /**
+     * 可以通过-Dceres.disableNatives=true强制使用纯Java实现
+     */
+    private static final boolean NATIVES_DISABLED = Boolean.getBoolean("ceres.disableNatives");
+
     public static final CipherFactory cipher = new CipherFactory();
     public static final CompressorFactory compress = new CompressorFactory();
 
+    /**
+     * 检查当前平台是否支持velocity-native本地库
+     *
+     * @return 如果是Linux x86_64或aarch64则为true
+     */
+    public static boolean isNativePlatform() {
+        String os = System.getProperty("os.name", "").toLowerCase(Locale.ROOT);
+        String arch = System.getProperty("os.arch", "").toLowerCase(Locale.ROOT);
+        boolean supportedArch = arch.equals("amd64") || arch.equals("x86_64") ||
+                arch.equals("aarch64") || arch.equals("arm64");
+        return os.startsWith("linux") && supportedArch;
+    }
+
+    /**
+     * 检查是否应该尝试加载本地实现
+     *
+     * @param component 组件名称，用于日志
+     * @return 如果应该尝试加载则为true
+     */
+    private static boolean shouldProbeNatives(String component) {
+        if (NATIVES_DISABLED) {
+            Ceres.LOGGER.info("Native {} disabled by system property, using Java implementation", component);
+            return false;
+        }
+        if (!isNativePlatform()) {
+            Ceres.LOGGER.debug("Native {} not supported on {} {}, using Java implementation", component,
+                    System.getProperty("os.name"), System.getProperty("os.arch"));
+            return false;
+        }
+        return true;
+    }
+
     /**
      * 密码器工厂
      * 用于创建加密和解密组件
      */
     public static class CipherFactory {
+        private final Object nativeFactory;
+        private final String variant;
+
+        CipherFactory() {
+            Object probed = null;
+            String probedVariant = JAVA_VARIANT;
+            if (shouldProbeNatives("cipher")) {
+                try {
+                    probed = CeresVelocityNatives.probeCipher();
+                    if (probed != null) {
+                        probedVariant = CeresVelocityNatives.cipherVariant();
+                    }
+                } catch (Throwable e) {
+                    probed = null;
+                    Ceres.LOGGER.warn("Failed to load native cipher, falling back to Java: {}", e.toString());
+                }
+            }
+            this.nativeFactory = probed;
+            this.variant = probedVariant;
+        }
+
         /**
-         * 获取加载的变体名称
+         * 获取当前配置下使用的变体名称
          * @return 实现名称
          */
         public String getLoadedVariant() {
-            return "Java";
+            if (useNative()) {
+                return variant;
+            }
+            return useCeres() ? CeresCfb8Cipher.variantName() : JAVA_VARIANT;
+        }
+
+        /**
+         * 检查是否使用本地实现
+         * @return 如果使用本地实现则为true
+         */
+        public boolean isNative() {
+            return useNative();
+        }
+
+        private boolean useNative() {
+            CipherEngine engine = CeresConfig.COMMON.cipherEngine.get();
+            return nativeFactory != null && (engine == CipherEngine.AUTO || engine == CipherEngine.NATIVE);
+        }
+
+        private boolean useCeres() {
+            CipherEngine engine = CeresConfig.COMMON.cipherEngine.get();
+            return (engine == CipherEngine.AUTO || engine == CipherEngine.CERES) && CeresCfb8Cipher.isUsable();
         }
 
         /**
@@ -39,9 +128,13 @@ public class CeresNatives {
          * @throws GeneralSecurityException 如果创建失败
          */
         public CeresCipher forEncryption(SecretKey key) throws GeneralSecurityException {
-            Cipher cipher = Cipher.getInstance("AES/CFB8/NoPadding");
-            cipher.init(Cipher.ENCRYPT_MODE, key, cipher.getParameters());
-            return new JavaCeresCipher(cipher);
+            if (useNative()) {
+                return CeresVelocityNatives.createEncryption(nativeFactory, key);
+            }
+            if (useCeres()) {
+                return CeresCfb8Cipher.forEncryption(key);
+            }
+            return new JavaCeresCipher(CeresCfb8Cipher.newJceCipher(key, Cipher.ENCRYPT_MODE));
         }
 
         /**
@@ -51,9 +144,39 @@ public class CeresNatives {
          * @throws GeneralSecurityException 如果创建失败
          */
         public CeresCipher forDecryption(SecretKey key) throws GeneralSecurityException {
-            Cipher cipher = Cipher.getInstance("AES/CFB8/NoPadding");
-            cipher.init(Cipher.DECRYPT_MODE, key, cipher.getParameters());
-            return new JavaCeresCipher(cipher);
+            if (useNative()) {
+                return CeresVelocityNatives.createDecryption(nativeFactory, key);
+            }
+            if (useCeres()) {
+                return CeresCfb8Cipher.forDecryption(key);
+            }
+            return new JavaCeresCipher(CeresCfb8Cipher.newJceCipher(key, Cipher.DECRYPT_MODE));
+        }
+
+        /**
+         * 使用JCE创建密码器，用于比较不同实现
+         * @param key 密钥
+         * @param encrypt 是否用于加密
+         * @return 密码器
+         * @throws GeneralSecurityException 如果创建失败
+         */
+        public CeresCipher createJava(SecretKey key, boolean encrypt) throws GeneralSecurityException {
+            return new JavaCeresCipher(CeresCfb8Cipher.newJceCipher(key, encrypt ? Cipher.ENCRYPT_MODE : Cipher.DECRYPT_MODE));
+        }
+
+        /**
+         * 使用本地实现创建密码器，用于比较不同实现
+         * @param key 密钥
+         * @param encrypt 是否用于加密
+         * @return 密码器，本地实现不可用时返回null
+         * @throws GeneralSecurityException 如果创建失败
+         */
+        public CeresCipher createNative(SecretKey key, boolean encrypt) throws GeneralSecurityException {
+            if (nativeFactory == null) {
+                return null;
+            }
+            return encrypt ? CeresVelocityNatives.createEncryption(nativeFactory, key)
+                    : CeresVelocityNatives.createDecryption(nativeFactory, key);
         }
     }
 
@@ -62,12 +185,41 @@ public class CeresNatives {
      * 用于创建压缩和解压组件
      */
     public static class CompressorFactory {
+        private final Object nativeFactory;
+        private final String variant;
+
+        CompressorFactory() {
+            Object probed = null;
+            String probedVariant = JAVA_VARIANT;
+            if (shouldProbeNatives("compression")) {
+                try {
+                    probed = CeresVelocityNatives.probeCompressor();
+                    if (probed != null) {
+                        probedVariant = CeresVelocityNatives.compressorVariant();
+                    }
+                } catch (Throwable e) {
+                    probed = null;
+                    Ceres.LOGGER.warn("Failed to load native compressor, falling back to Java: {}", e.toString());
+                }
+            }
+            this.nativeFactory = probed;
+            this.variant = probedVariant;
+        }
+
         /**
          * 获取加载的变体名称
          * @return 实现名称
          */
         public String getLoadedVariant() {
-            return "Java";
+            return variant;
+        }
+
+        /**
+         * 检查是否使用本地实现
+         * @return 如果使用本地实现则为true
+         */
+        public boolean isNative() {
+            return nativeFactory != null;
         }
 
         /**
@@ -76,6 +228,13 @@ public class CeresNatives {
          * @return 压缩器
          */
         public CeresCompressor create(int level) {
+            if (nativeFactory != null) {
+                try {
+                    return CeresVelocityNatives.createCompressor(nativeFactory, level);
+                } catch (Throwable e) {
+                    Ceres.LOGGER.warn("Failed to create native compressor, falling back to Java: {}", e.toString());
+                }
+            }
             return new JavaCeresCompressor(level);
         }
     }
@@ -91,6 +250,32 @@ public class CeresNatives {
          */
         void process(ByteBuf buf);
 
+        /**
+         * 检查密码器能否直接在缓冲区上原地处理
+         * @param buf 要处理的ByteBuf
+         * @return 如果可以原地处理则为true
+         */
+        default boolean canProcessInPlace(ByteBuf buf) {
+            return !buf.isReadOnly();
+        }
+
+        /**
+         * 获取可以原地处理的缓冲区
+         * 能原地处理时返回增加了引用计数的原缓冲区，否则返回可读字节的副本，调用者负责释放返回值
+         * @param alloc 分配器
+         * @param buf 源缓冲区，读索引不变
+         * @return 可以传给{@link #process}的缓冲区
+         */
+        default ByteBuf ensureCompatible(ByteBufAllocator alloc, ByteBuf buf) {
+            if (canProcessInPlace(buf)) {
+                return buf.retain();
+            }
+            int length = buf.readableBytes();
+            ByteBuf copy = alloc.directBuffer(length);
+            copy.writeBytes(buf, buf.readerIndex(), length);
+            return copy;
+        }
+
         /**
          * 关闭密码器并释放资源
          */
@@ -115,37 +300,37 @@ public class CeresNatives {
                 return;
             }
 
-            byte[] bytes;
             int readerIndex = buf.readerIndex();
 
-            if (buf.hasArray()) {
-                // 如果ByteBuf有底层数组，直接使用
-                bytes = buf.array();
-                int arrayOffset = buf.arrayOffset() + readerIndex;
-
-                try {
+            try {
+                if (buf.hasArray()) {
+                    // 如果ByteBuf有底层数组，直接在数组上原地处理
+                    byte[] bytes = buf.array();
+                    int arrayOffset = buf.arrayOffset() + readerIndex;
                     cipher.update(bytes, arrayOffset, readableBytes, bytes, arrayOffset);
-                } catch (Exception e) {
-                    Ceres.LOGGER.error("Failed to process buffer", e);
-                    throw new RuntimeException("Failed to process buffer", e);
-                }
-            } else {
-                // 否则，复制数据到临时数组
-                bytes = new byte[readableBytes];
-                buf.getBytes(readerIndex, bytes);
-
-                try {
-                    byte[] processed = cipher.update(bytes);
-                    if (processed != null && processed.length > 0) {
-                        buf.setBytes(readerIndex, processed);
-                    }
-                } catch (Exception e) {
-                    Ceres.LOGGER.error("Failed to process buffer", e);
-                    throw new RuntimeException("Failed to process buffer", e);
+                } else if (buf.nioBufferCount() == 1) {
+                    // 直接内存通过两个NIO视图原地处理，CFB8逐字节输出，写入位置不会超过读取位置
+                    ByteBuffer input = buf.internalNioBuffer(readerIndex, readableBytes);
+                    ByteBuffer output = buf.nioBuffer(readerIndex, readableBytes);
+                    cipher.update(input, output);
+                } else {
+                    // 复合缓冲区只能复制到临时数组
+                    byte[] bytes = new byte[readableBytes];
+                    buf.getBytes(readerIndex, bytes);
+                    cipher.update(bytes, 0, readableBytes, bytes, 0);
+                    buf.setBytes(readerIndex, bytes);
                 }
+            } catch (Exception e) {
+                Ceres.LOGGER.error("Failed to process buffer", e);
+                throw new RuntimeException("Failed to process buffer", e);
             }
         }
 
+        @Override
+        public boolean canProcessInPlace(ByteBuf buf) {
+            return !buf.isReadOnly() && (buf.hasArray() || buf.nioBufferCount() == 1);
+        }
+
         @Override
         public void close() {
             // Java Cipher不需要显式关闭
@@ -164,6 +349,27 @@ public class CeresNatives {
          */
         void deflate(ByteBuf source, ByteBuf destination);
 
+        /**
+         * 按指定级别压缩数据，不改变{@link #getLevel()}
+         * 默认实现忽略级别，使用当前级别压缩
+         * @param source 源ByteBuf
+         * @param destination 目标ByteBuf
+         * @param level 这一帧使用的压缩级别
+         */
+        default void deflate(ByteBuf source, ByteBuf destination, int level) {
+            deflate(source, destination);
+        }
+
+        /**
+         * 获取压缩前需要在目标缓冲区中预留的字节数
+         * 压缩前会把目标扩容到最坏情况大小的压缩器返回这个大小，按需增长的压缩器返回-1
+         * @param sourceLength 未压缩的大小
+         * @return 需要预留的字节数，或-1
+         */
+        default int outputBound(int sourceLength) {
+            return -1;
+        }
+
         /**
          * 解压数据
          * @param source 源ByteBuf
@@ -172,6 +378,40 @@ public class CeresNatives {
          */
         void inflate(ByteBuf source, ByteBuf destination, int uncompressedSize);
 
+        /**
+         * 调整压缩级别，从下一次压缩开始生效
+         * @param level 新的压缩级别
+         * @return 如果压缩器支持调整级别则返回true
+         */
+        default boolean setLevel(int level) {
+            return false;
+        }
+
+        /**
+         * 获取当前压缩级别
+         * @return 压缩级别，如果压缩器不支持级别则返回-1
+         */
+        default int getLevel() {
+            return -1;
+        }
+
+        /**
+         * 获取压缩器支持的最高压缩级别
+         * @return 最高压缩级别
+         */
+        default int getMaxLevel() {
+            return 9;
+        }
+
+        /**
+         * 检查压缩器是否在帧之间保持状态
+         * 有状态的压缩器必须按顺序处理同一连接的所有压缩帧
+         * @return 如果压缩器有状态则返回true
+         */
+        default boolean isStateful() {
+            return false;
+        }
+
         /**
          * 关闭压缩器并释放资源
          */
@@ -183,23 +423,37 @@ public class CeresNatives {
      * 使用JDK的Deflater和Inflater类
      */
     private static class JavaCeresCompressor implements CeresCompressor {
-        private final int level;
+        private int level;
+        private int deflaterLevel;
         private final Deflater deflater;
         private final Inflater inflater;
 
         public JavaCeresCompressor(int level) {
             this.level = level;
+            this.deflaterLevel = level;
             this.deflater = new Deflater(level);
             this.inflater = new Inflater();
         }
 
         @Override
         public void deflate(ByteBuf source, ByteBuf destination) {
+            deflate(source, destination, level);
+        }
+
+        @Override
+        public void deflate(ByteBuf source, ByteBuf destination, int level) {
             int readableBytes = source.readableBytes();
             if (readableBytes == 0) {
                 return;
             }
 
+            // zlib的状态与级别无关，reset之后调整级别不需要额外的上下文
+            int frameLevel = Math.max(0, Math.min(9, level));
+            if (frameLevel != deflaterLevel) {
+                deflater.setLevel(frameLevel);
+                deflaterLevel = frameLevel;
+            }
+
             byte[] sourceBytes = new byte[readableBytes];
             source.readBytes(sourceBytes);
 
@@ -241,6 +495,18 @@ public class CeresNatives {
             }
         }
 
+        @Override
+        public boolean setLevel(int level) {
+            // 每次压缩后都会reset，新级别从下一次压缩开始生效
+            this.level = Math.max(0, Math.min(9, level));
+            return true;
+        }
+
+        @Override
+        public int getLevel() {
+            return level;
+        }
+
         @Override
         public void close() {
             deflater.end();
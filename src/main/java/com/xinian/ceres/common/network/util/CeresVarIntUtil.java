@@ -1,6 +1,8 @@
 // CeresVarIntUtil.java
 package com.xinian.ceres.common.network.util;
 
+import io.netty.buffer.ByteBuf;
+
 /**
  * 变长整数工具类
  * 提供变长整数长度计算功能
@@ -27,6 +29,36 @@ public class CeresVarIntUtil {
         return VARINT_EXACT_BYTE_LENGTHS[Integer.numberOfLeadingZeros(value)];
     }
 
+    /**
+     * 在指定位置写入变长整数，不修改读写索引
+     * 与{@code FriendlyByteBuf}的写入方式一致，一到三字节的情况合并为一次写入
+     *
+     * @param buf 缓冲区
+     * @param index 写入位置
+     * @param value 要写入的值
+     * @return 写入的字节数
+     */
+    public static int setVarInt(ByteBuf buf, int index, int value) {
+        if ((value & (0xFFFFFFFF << 7)) == 0) {
+            buf.setByte(index, value);
+            return 1;
+        } else if ((value & (0xFFFFFFFF << 14)) == 0) {
+            buf.setShort(index, (value & 0x7F | 0x80) << 8 | (value >>> 7));
+            return 2;
+        } else if ((value & (0xFFFFFFFF << 21)) == 0) {
+            buf.setMedium(index, (value & 0x7F | 0x80) << 16 | ((value >>> 7) & 0x7F | 0x80) << 8 | (value >>> 14));
+            return 3;
+        }
+
+        int written = 0;
+        while ((value & ~0x7F) != 0) {
+            buf.setByte(index + written++, (value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        buf.setByte(index + written++, value);
+        return written;
+    }
+
     /**
      * 计算最大可以用指定字节数表示的变长整数值
      *
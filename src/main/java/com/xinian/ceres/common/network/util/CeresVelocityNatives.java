@@ -0,0 +1,317 @@
+package com.xinian.ceres.common.network.util;
+
+import com.velocitypowered.natives.compression.JavaVelocityCompressor;
+import com.velocitypowered.natives.compression.VelocityCompressor;
+import com.velocitypowered.natives.compression.VelocityCompressorFactory;
+import com.velocitypowered.natives.encryption.JavaVelocityCipher;
+import com.velocitypowered.natives.encryption.VelocityCipher;
+import com.velocitypowered.natives.encryption.VelocityCipherFactory;
+import com.velocitypowered.natives.util.Natives;
+import com.xinian.ceres.Ceres;
+import io.netty.buffer.ByteBuf;
+
+import javax.crypto.SecretKey;
+import java.security.GeneralSecurityException;
+
+/**
+ * velocity-native本地实现的桥接类
+ *
+ * <p>所有对{@code com.velocitypowered.natives}的引用都集中在这里，
+ * 这样当运行时缺少velocity-native时，只有这个类会加载失败，
+ * {@link CeresNatives}可以安全地回退到纯Java实现。</p>
+ */
+final class CeresVelocityNatives {
+
+    private CeresVelocityNatives() {
+    }
+
+    /**
+     * 探测本地压缩实现
+     *
+     * @return 本地压缩器工厂，如果只有Java实现可用则返回null
+     */
+    static VelocityCompressorFactory probeCompressor() {
+        VelocityCompressorFactory factory = Natives.compress.get();
+        if (factory == JavaVelocityCompressor.FACTORY) {
+            return null;
+        }
+
+        // 做一次往返测试，确保本地库在当前系统上确实可用
+        VelocityCompressor compressor = factory.create(1);
+        compressor.close();
+        return factory;
+    }
+
+    /**
+     * 探测本地加密实现
+     *
+     * @return 本地密码器工厂，如果只有Java实现可用则返回null
+     */
+    static VelocityCipherFactory probeCipher() {
+        VelocityCipherFactory factory = Natives.cipher.get();
+        if (factory == JavaVelocityCipher.FACTORY) {
+            return null;
+        }
+        return factory;
+    }
+
+    /**
+     * 获取本地压缩实现的变体名称
+     *
+     * @return 变体名称
+     */
+    static String compressorVariant() {
+        return Natives.compress.getLoadedVariant();
+    }
+
+    /**
+     * 获取本地加密实现的变体名称
+     *
+     * @return 变体名称
+     */
+    static String cipherVariant() {
+        return Natives.cipher.getLoadedVariant();
+    }
+
+    /**
+     * 创建本地压缩器
+     *
+     * @param factory 本地压缩器工厂
+     * @param level 压缩级别
+     * @return 压缩器
+     */
+    static CeresNatives.CeresCompressor createCompressor(Object factory, int level) {
+        // libdeflate只接受1-12级（-1表示默认级别），解压时传入的0级也需要修正
+        return new NativeCeresCompressor((VelocityCompressorFactory) factory, nativeLevel(level));
+    }
+
+    /**
+     * 将压缩级别修正到libdeflate接受的范围
+     */
+    private static int nativeLevel(int level) {
+        return level == -1 ? level : Math.max(1, Math.min(12, level));
+    }
+
+    /**
+     * 创建本地加密器
+     *
+     * @param factory 本地密码器工厂
+     * @param key 加密密钥
+     * @return 加密密码器
+     * @throws GeneralSecurityException 如果创建失败
+     */
+    static CeresNatives.CeresCipher createEncryption(Object factory, SecretKey key) throws GeneralSecurityException {
+        return new NativeCeresCipher(((VelocityCipherFactory) factory).forEncryption(key));
+    }
+
+    /**
+     * 创建本地解密器
+     *
+     * @param factory 本地密码器工厂
+     * @param key 解密密钥
+     * @return 解密密码器
+     * @throws GeneralSecurityException 如果创建失败
+     */
+    static CeresNatives.CeresCipher createDecryption(Object factory, SecretKey key) throws GeneralSecurityException {
+        return new NativeCeresCipher(((VelocityCipherFactory) factory).forDecryption(key));
+    }
+
+    /**
+     * 确保缓冲区位于直接内存中
+     * 本地实现需要内存地址，堆缓冲区会被复制到临时的直接缓冲区
+     *
+     * @param buf 源缓冲区
+     * @return 原缓冲区（如果已经是直接缓冲区）或新的直接缓冲区
+     */
+    private static ByteBuf ensureDirect(ByteBuf buf) {
+        if (buf.hasMemoryAddress()) {
+            return buf;
+        }
+        ByteBuf direct = buf.alloc().directBuffer(buf.readableBytes());
+        direct.writeBytes(buf, buf.readerIndex(), buf.readableBytes());
+        return direct;
+    }
+
+    /**
+     * 基于velocity-native的压缩器（libdeflate）
+     */
+    private static class NativeCeresCompressor implements CeresNatives.CeresCompressor {
+        private final VelocityCompressorFactory factory;
+        private VelocityCompressor compressor;
+        private int level;
+
+        /**
+         * 按帧选择级别时额外使用的上下文，级别在创建时固定，每个级别各一个
+         */
+        private final VelocityCompressor[] levelCompressors = new VelocityCompressor[13];
+
+        NativeCeresCompressor(VelocityCompressorFactory factory, int level) {
+            this.factory = factory;
+            this.level = level;
+            this.compressor = factory.create(level);
+        }
+
+        @Override
+        public void deflate(ByteBuf source, ByteBuf destination) {
+            deflateWith(compressor, source, destination);
+        }
+
+        @Override
+        public void deflate(ByteBuf source, ByteBuf destination, int level) {
+            int frameLevel = nativeLevel(level);
+            if (frameLevel == this.level || frameLevel < 0) {
+                deflateWith(compressor, source, destination);
+                return;
+            }
+            VelocityCompressor levelCompressor = levelCompressors[frameLevel];
+            if (levelCompressor == null) {
+                levelCompressor = factory.create(frameLevel);
+                levelCompressors[frameLevel] = levelCompressor;
+            }
+            deflateWith(levelCompressor, source, destination);
+        }
+
+        private void deflateWith(VelocityCompressor compressor, ByteBuf source, ByteBuf destination) {
+            if (!source.isReadable()) {
+                return;
+            }
+
+            ByteBuf in = ensureDirect(source);
+            ByteBuf out = destination.hasMemoryAddress() ? destination : in.alloc().directBuffer(source.readableBytes() + 64);
+            try {
+                compressor.deflate(in, out);
+                if (out != destination) {
+                    destination.writeBytes(out);
+                }
+                source.readerIndex(source.writerIndex());
+            } catch (Exception e) {
+                Ceres.LOGGER.error("Failed to compress data with native compressor", e);
+                throw new RuntimeException("Failed to compress data", e);
+            } finally {
+                if (in != source) {
+                    in.release();
+                }
+                if (out != destination) {
+                    out.release();
+                }
+            }
+        }
+
+        @Override
+        public void inflate(ByteBuf source, ByteBuf destination, int uncompressedSize) {
+            if (!source.isReadable()) {
+                return;
+            }
+
+            ByteBuf in = ensureDirect(source);
+            ByteBuf out = destination.hasMemoryAddress() ? destination : in.alloc().directBuffer(uncompressedSize);
+            try {
+                compressor.inflate(in, out, uncompressedSize);
+                if (out != destination) {
+                    destination.writeBytes(out);
+                }
+                source.readerIndex(source.writerIndex());
+            } catch (Exception e) {
+                Ceres.LOGGER.error("Failed to decompress data with native compressor", e);
+                throw new RuntimeException("Failed to decompress data", e);
+            } finally {
+                if (in != source) {
+                    in.release();
+                }
+                if (out != destination) {
+                    out.release();
+                }
+            }
+        }
+
+        @Override
+        public boolean setLevel(int level) {
+            int newLevel = nativeLevel(level);
+            if (newLevel == this.level) {
+                return true;
+            }
+            // 本地上下文的级别在创建时固定，只能替换为新的上下文
+            VelocityCompressor replacement = factory.create(newLevel);
+            compressor.close();
+            compressor = replacement;
+            this.level = newLevel;
+            releaseLevelCompressors();
+            return true;
+        }
+
+        @Override
+        public int getLevel() {
+            return level;
+        }
+
+        @Override
+        public int getMaxLevel() {
+            return 12;
+        }
+
+        @Override
+        public int outputBound(int sourceLength) {
+            // 空间不足时velocity-native会把缓冲区加倍后重新压缩，这里按zlib的最坏情况预留
+            return sourceLength + (sourceLength >>> 12) + (sourceLength >>> 14) + (sourceLength >>> 25) + 64;
+        }
+
+        @Override
+        public void close() {
+            compressor.close();
+            releaseLevelCompressors();
+        }
+
+        private void releaseLevelCompressors() {
+            for (int i = 0; i < levelCompressors.length; i++) {
+                if (levelCompressors[i] != null) {
+                    levelCompressors[i].close();
+                    levelCompressors[i] = null;
+                }
+            }
+        }
+    }
+
+    /**
+     * 基于velocity-native的密码器（OpenSSL）
+     */
+    private static class NativeCeresCipher implements CeresNatives.CeresCipher {
+        private final VelocityCipher cipher;
+
+        NativeCeresCipher(VelocityCipher cipher) {
+            this.cipher = cipher;
+        }
+
+        @Override
+        public boolean canProcessInPlace(ByteBuf buf) {
+            // 本地实现需要内存地址
+            return !buf.isReadOnly() && buf.hasMemoryAddress();
+        }
+
+        @Override
+        public void process(ByteBuf buf) {
+            if (!buf.isReadable()) {
+                return;
+            }
+
+            ByteBuf direct = ensureDirect(buf);
+            try {
+                cipher.process(direct);
+                if (direct != buf) {
+                    buf.setBytes(buf.readerIndex(), direct, direct.readerIndex(), direct.readableBytes());
+                }
+            } catch (Exception e) {
+                Ceres.LOGGER.error("Failed to process buffer with native cipher", e);
+                throw new RuntimeException("Failed to process buffer", e);
+            } finally {
+                if (direct != buf) {
+                    direct.release();
+                }
+            }
+        }
+
+        @Override
+        public void close() {
+            cipher.close();
+        }
+    }
+}
@@ -0,0 +1,318 @@
+package com.xinian.ceres.common.player;
+
+import com.xinian.ceres.CeresConfig;
+import com.xinian.ceres.common.compression.CeresCompressibilityEstimator;
+import com.xinian.ceres.common.network.CeresPacketSizeEstimator;
+import com.xinian.ceres.common.network.CeresPreEncodedPacket;
+import io.netty.buffer.Unpooled;
+import io.netty.channel.Channel;
+import io.netty.channel.ChannelOutboundBuffer;
+import it.unimi.dsi.fastutil.longs.LongOpenHashSet;
+import net.minecraft.core.SectionPos;
+import net.minecraft.network.ConnectionProtocol;
+import net.minecraft.network.protocol.Packet;
+import net.minecraft.network.protocol.PacketFlow;
+import net.minecraft.network.protocol.game.ClientboundLevelChunkWithLightPacket;
+import net.minecraft.server.level.ServerPlayer;
+import net.minecraft.world.level.ChunkPos;
+import net.minecraft.world.phys.Vec3;
+
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.LongFunction;
+
+/**
+ * 每个玩家的区块发送队列
+ *
+ * <p>玩家加入或传送时，视野中所有的区块不再在一次调用中全部写入通道，而是进入这个队列，
+ * 每个服务器刻按字节预算发送一部分：</p>
+ * <ul>
+ *   <li>按与玩家的距离排序，距离相同时按螺旋顺序，近处的区块先到</li>
+ *   <li>鞘翅飞行时排序中心沿飞行方向前移，前方的区块优先</li>
+ *   <li>通道不可写或出站缓冲区积压超过预算时这一刻不发送，移动等数据包不会排在大量区块后面</li>
+ *   <li>预算按积压情况调整：积压增长时降到连接实测的排空速度，积压清空且队列还有区块时增加</li>
+ * </ul>
+ *
+ * <p>预算和出站缓冲区积压都以写入连接的字节计算：启用压缩的连接上，每个区块按压缩后的大小计费。
+ * 已经压缩过的缓存数据包使用实际的压缩帧大小，其他数据包按区块数据包记录的压缩率估计。</p>
+ *
+ * <p>区块在出队时才构建数据包，所以发送的总是最新的区块。</p>
+ *
+ * <p><strong>线程安全性</strong>：只能在服务器主线程中访问，统计信息可以从任意线程读取。</p>
+ */
+public final class CeresChunkSendQueue {
+    /**
+     * 还没有区块大小记录时使用的估计值
+     */
+    private static final int DEFAULT_CHUNK_BYTES = 16 * 1024;
+
+    /**
+     * 鞘翅飞行时预测前方多少刻的位置
+     */
+    private static final int LOOKAHEAD_TICKS = 40;
+
+    private static final int INDEX_BITS = 20;
+    private static final long INDEX_MASK = (1L << INDEX_BITS) - 1;
+
+    private static final AtomicLong CHUNKS_QUEUED = new AtomicLong(0);
+    private static final AtomicLong CHUNKS_SENT = new AtomicLong(0);
+    private static final AtomicLong BUDGET_LIMITED_TICKS = new AtomicLong(0);
+    private static final AtomicLong STALLED_TICKS = new AtomicLong(0);
+
+    private final LongOpenHashSet queued = new LongOpenHashSet();
+    private long[] order = new long[0];
+    private long[] sortKeys = new long[0];
+    private int orderSize;
+    private int cursor;
+    private boolean dirty;
+    private int sortCenterX;
+    private int sortCenterZ;
+
+    private int budget = -1;
+    private long lastBacklog;
+    private long lastCharged;
+    private long drainRate = -1;
+
+    /**
+     * 检查是否启用了区块发送队列
+     *
+     * @return 如果启用则返回true
+     */
+    public static boolean isEnabled() {
+        return CeresConfig.SERVER.enableChunkSendQueue.get();
+    }
+
+    /**
+     * 把区块加入发送队列
+     *
+     * @param chunkPos 区块位置
+     */
+    public void enqueue(long chunkPos) {
+        if (this.queued.add(chunkPos)) {
+            this.dirty = true;
+            CHUNKS_QUEUED.incrementAndGet();
+        }
+    }
+
+    /**
+     * 把区块从发送队列中移除，用于还没发送就离开视野的区块
+     *
+     * @param chunkPos 区块位置
+     */
+    public void remove(long chunkPos) {
+        this.queued.remove(chunkPos);
+    }
+
+    /**
+     * 检查队列是否为空
+     *
+     * @return 如果为空则返回true
+     */
+    public boolean isEmpty() {
+        return this.queued.isEmpty();
+    }
+
+    /**
+     * 清空队列
+     */
+    public void clear() {
+        this.queued.clear();
+        this.orderSize = 0;
+        this.cursor = 0;
+    }
+
+    /**
+     * 在预算内发送队列中的区块，每个服务器刻调用一次
+     *
+     * @param player 玩家
+     * @param channel 玩家的网络通道
+     * @param sender 发送一个区块，返回发送的数据包，区块还没有准备好时返回null
+     */
+    public void drain(ServerPlayer player, Channel channel, LongFunction<Packet<?>> sender) {
+        if (this.queued.isEmpty()) {
+            this.lastBacklog = 0;
+            this.lastCharged = 0;
+            return;
+        }
+
+        int baseBudget = CeresConfig.SERVER.chunkSendBudgetKb.get() * 1024;
+        int minBudget = baseBudget / 4;
+        int maxBudget = baseBudget * 4;
+        if (this.budget < 0) {
+            this.budget = baseBudget;
+        }
+
+        long backlog = pendingOutboundBytes(channel);
+        if (this.lastCharged > 0) {
+            // 上一刻连接实际写出的字节，同一时间发送的其他数据包会使它偏低
+            long drained = Math.max(0, this.lastBacklog + this.lastCharged - backlog);
+            this.drainRate = this.drainRate < 0 ? drained : this.drainRate + (drained - this.drainRate) / 4;
+        }
+        this.lastCharged = 0;
+
+        if (!channel.isWritable() || backlog > this.budget) {
+            // 上一批还没有写出，不在它后面继续堆积
+            this.budget = Math.max(minBudget, this.budget / 2);
+            this.lastBacklog = backlog;
+            STALLED_TICKS.incrementAndGet();
+            return;
+        }
+        if (backlog > this.lastBacklog && this.lastBacklog > 0) {
+            // 积压在增长，发送速度超过了连接的排空速度，降到实测的排空速度
+            long target = this.drainRate >= 0 ? Math.min(this.drainRate, this.budget * 3L / 4) : this.budget * 3L / 4;
+            this.budget = (int) Math.max(minBudget, target);
+        }
+        this.lastBacklog = backlog;
+
+        sortIfNeeded(player);
+
+        boolean compressed = channel.pipeline().get("compress") != null;
+        long charged = 0;
+        int sent = 0;
+        while (this.cursor < this.orderSize && charged < this.budget) {
+            long chunkPos = this.order[this.cursor++];
+            if (!this.queued.remove(chunkPos)) {
+                continue;
+            }
+            Packet<?> packet = sender.apply(chunkPos);
+            if (packet != null) {
+                charged += wireBytes(packet, compressed);
+                sent++;
+            }
+        }
+        this.lastCharged = charged;
+        CHUNKS_SENT.addAndGet(sent);
+
+        if (!this.queued.isEmpty()) {
+            BUDGET_LIMITED_TICKS.incrementAndGet();
+            if (backlog == 0) {
+                // 连接跟得上，逐步增加预算
+                this.budget = Math.min(maxBudget, this.budget + baseBudget / 4);
+            }
+        }
+    }
+
+    /**
+     * 按玩家当前位置重新排序，只在有新区块入队或排序中心变化时进行
+     */
+    private void sortIfNeeded(ServerPlayer player) {
+        int centerX = SectionPos.blockToSectionCoord(player.getBlockX());
+        int centerZ = SectionPos.blockToSectionCoord(player.getBlockZ());
+        if (player.isFallFlying()) {
+            Vec3 motion = player.getDeltaMovement();
+            centerX += (int) Math.round(motion.x * LOOKAHEAD_TICKS / 16.0);
+            centerZ += (int) Math.round(motion.z * LOOKAHEAD_TICKS / 16.0);
+        }
+        if (!this.dirty && centerX == this.sortCenterX && centerZ == this.sortCenterZ) {
+            return;
+        }
+
+        int size = this.queued.size();
+        if (this.order.length < size) {
+            this.order = new long[Math.max(size, this.order.length * 2)];
+            this.sortKeys = new long[this.order.length];
+        }
+        long[] positions = this.queued.toLongArray();
+        for (int i = 0; i < size; i++) {
+            long chunkPos = positions[i];
+            int dx = ChunkPos.getX(chunkPos) - centerX;
+            int dz = ChunkPos.getZ(chunkPos) - centerZ;
+            long distance = Math.min((long) dx * dx + (long) dz * dz, (1L << 23) - 1);
+            this.sortKeys[i] = distance << (2 * INDEX_BITS) | (long) spiralIndex(dx, dz) << INDEX_BITS | i;
+        }
+        Arrays.sort(this.sortKeys, 0, size);
+        for (int i = 0; i < size; i++) {
+            this.order[i] = positions[(int) (this.sortKeys[i] & INDEX_MASK)];
+        }
+
+        this.orderSize = size;
+        this.cursor = 0;
+        this.dirty = false;
+        this.sortCenterX = centerX;
+        this.sortCenterZ = centerZ;
+    }
+
+    /**
+     * 计算相对位置在螺旋顺序中的序号，与距离一起决定发送顺序
+     */
+    private static int spiralIndex(int dx, int dz) {
+        int ring = Math.max(Math.abs(dx), Math.abs(dz));
+        if (ring == 0) {
+            return 0;
+        }
+        int position;
+        if (dz == -ring) {
+            position = dx + ring;
+        } else if (dx == ring) {
+            position = 2 * ring + dz + ring;
+        } else if (dz == ring) {
+            position = 4 * ring + ring - dx;
+        } else {
+            position = 6 * ring + ring - dz;
+        }
+        int inner = 2 * ring - 1;
+        return (int) Math.min(INDEX_MASK, (long) inner * inner + position);
+    }
+
+    /**
+     * 估计区块数据包写入连接的字节数
+     */
+    private static int wireBytes(Packet<?> packet, boolean compressed) {
+        if (!compressed) {
+            return estimatedChunkBytes();
+        }
+
+        int size;
+        int packetId;
+        if (packet instanceof CeresPreEncodedPacket preEncoded) {
+            int compressedSize = preEncoded.compressedSize();
+            if (compressedSize > 0) {
+                return compressedSize;
+            }
+            // 区块数据在构造数据包时已经序列化，这里只是复制一次，写出时直接复用
+            byte[] encoded = preEncoded.encoded();
+            size = encoded.length;
+            packetId = CeresCompressibilityEstimator.peekPacketId(Unpooled.wrappedBuffer(encoded));
+        } else {
+            size = estimatedChunkBytes();
+            Integer id = ConnectionProtocol.PLAY.getPacketId(PacketFlow.CLIENTBOUND, packet);
+            packetId = id != null ? id : -1;
+        }
+
+        int ratio = CeresCompressibilityEstimator.expectedRatioPermille(packetId);
+        return ratio >= 0 ? (int) ((long) size * ratio / 1000) : size;
+    }
+
+    private static int estimatedChunkBytes() {
+        int chunkBytes = CeresPacketSizeEstimator.encodeCapacity(ClientboundLevelChunkWithLightPacket.class);
+        return chunkBytes > 0 ? chunkBytes : DEFAULT_CHUNK_BYTES;
+    }
+
+    private static long pendingOutboundBytes(Channel channel) {
+        ChannelOutboundBuffer buffer = channel.unsafe().outboundBuffer();
+        return buffer != null ? buffer.totalPendingWriteBytes() : 0;
+    }
+
+    /**
+     * 获取区块发送统计信息
+     *
+     * @return 统计信息字符串
+     */
+    public static String getSendStats() {
+        if (!isEnabled()) {
+            return "Chunk send queue: disabled";
+        }
+        return String.format("Chunk send queue: %d queued, %d sent, %d budget-limited ticks, %d stalled ticks",
+                CHUNKS_QUEUED.get(), CHUNKS_SENT.get(), BUDGET_LIMITED_TICKS.get(), STALLED_TICKS.get());
+    }
+
+    /**
+     * 重置统计信息
+     */
+    public static void resetStats() {
+        CHUNKS_QUEUED.set(0);
+        CHUNKS_SENT.set(0);
+        BUDGET_LIMITED_TICKS.set(0);
+        STALLED_TICKS.set(0);
+    }
+}
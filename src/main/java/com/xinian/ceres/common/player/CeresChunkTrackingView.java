@@ -0,0 +1,567 @@
+package com.xinian.ceres.common.player;
+
+import com.xinian.ceres.CeresConfig;
+import net.minecraft.server.level.ChunkMap;
+
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 玩家追踪的区块集合
+ *
+ * <p>每个玩家一个128×128的位图，按区块坐标取模寻址，覆盖以玩家为中心的视距范围。
+ * 位图记录的是{@code ChunkMap.updateChunkTracking}最终的结果，所以原版对这个方法的调用也会同步到这里。</p>
+ *
+ * <p>玩家移动时按行计算新旧视野的差集：每一行的可见范围是一个区间，只访问两个区间不重叠的部分，
+ * 并且只为位图状态确实需要改变的区块回调。视距改变也按同样的方式处理，只加载增加的环或卸载减少的环。
+ * 远距离传送或位图失效时退回到完整比对：
+ * 先卸载所有不在新视野中的已追踪区块，再以螺旋顺序加载新视野中缺少的区块。</p>
+ *
+ * <p>启用卸载滞后时，离开视野的区块不会马上卸载，而是记入一个环形缓冲区，客户端继续保留它们。
+ * 这些区块在离开视距超过配置的距离或者超过配置的时间后才卸载，在这之前重新进入视野时不需要再次发送。
+ * 等待卸载的区块仍然接收方块更新，见{@link #isPending}。</p>
+ *
+ * <p><strong>线程安全性</strong>：只能在服务器主线程中访问，统计信息可以从任意线程读取。</p>
+ */
+public final class CeresChunkTrackingView {
+    private static final int SIDE_BITS = 7;
+    private static final int SIDE = 1 << SIDE_BITS;
+    private static final int MASK = SIDE - 1;
+
+    /**
+     * 原版视距最大为33，视距为d时可见区块离中心最多d+1个区块
+     */
+    private static final int MIN_DISTANCE = 1;
+    private static final int MAX_DISTANCE = 33;
+
+    /**
+     * 滞后环的最大宽度
+     *
+     * <p>客户端只保存服务器视距设置加3个区块以内的区块，存储按坐标取模复用槽位，
+     * 更远的区块会被新加载的区块覆盖，服务器却仍认为它在客户端上，回到那里时就不会重新发送。
+     * {@code ChunkMap}的视距已经是设置加1，可见区块离中心最多再远1个区块，
+     * 所以在视距最大的玩家身上只剩1个区块的余量。</p>
+     */
+    private static final int MAX_RING = 1;
+    private static final int MAX_TABLE_DISTANCE = MAX_DISTANCE + MAX_RING;
+    private static final int PENDING_CAPACITY = 512;
+
+    /**
+     * HALF_WIDTH[distance][dz]是与中心相距dz行时可见区间的半宽，不可见时为-1
+     */
+    private static final int[][] HALF_WIDTH = new int[MAX_TABLE_DISTANCE + 1][];
+
+    private static final AtomicLong INCREMENTAL_UPDATES = new AtomicLong(0);
+    private static final AtomicLong FULL_UPDATES = new AtomicLong(0);
+    private static final AtomicLong CELLS_VISITED = new AtomicLong(0);
+    private static final AtomicLong CELLS_CHANGED = new AtomicLong(0);
+    private static final AtomicLong DEFERRED_UNLOADS = new AtomicLong(0);
+    private static final AtomicLong RESENDS_AVOIDED = new AtomicLong(0);
+
+    static {
+        for (int distance = MIN_DISTANCE; distance <= MAX_TABLE_DISTANCE; distance++) {
+            int radius = distance + 1;
+            int[] widths = new int[radius + 1];
+            for (int dz = 0; dz <= radius; dz++) {
+                int dx = radius;
+                while (dx >= 0 && !ChunkMap.isChunkInRange(dx, dz, 0, 0, distance)) {
+                    dx--;
+                }
+                widths[dz] = dx;
+            }
+            HALF_WIDTH[distance] = widths;
+        }
+    }
+
+    private final long[] tracked = new long[SIDE * SIDE / Long.SIZE];
+    private int centerX;
+    private int centerZ;
+    private int distance;
+    private boolean valid;
+
+    /**
+     * 等待卸载的区块，按离开视野的先后顺序排列
+     */
+    private long[] pendingChunks;
+    private long[] pendingDeadlines;
+    private int pendingHead;
+    private int pendingSize;
+    private int ring;
+    private long deadline;
+
+    /**
+     * 区块追踪状态改变时的回调
+     */
+    @FunctionalInterface
+    public interface Listener {
+        /**
+         * 开始或停止追踪区块
+         *
+         * @param chunkX 区块X坐标
+         * @param chunkZ 区块Z坐标
+         * @param track true表示开始追踪，false表示停止追踪
+         */
+        void updateTracking(int chunkX, int chunkZ, boolean track);
+    }
+
+    /**
+     * 检查是否启用了位图区块追踪
+     *
+     * @return 如果启用则返回true
+     */
+    public static boolean isEnabled() {
+        return CeresConfig.SERVER.enableChunkTrackingBitset.get();
+    }
+
+    /**
+     * 检查区块是否在玩家的视野中
+     *
+     * @param chunkX 区块X坐标
+     * @param chunkZ 区块Z坐标
+     * @param centerX 视野中心X坐标
+     * @param centerZ 视野中心Z坐标
+     * @param distance 视距
+     * @return 如果在视野中则返回true
+     */
+    public static boolean isInView(int chunkX, int chunkZ, int centerX, int centerZ, int distance) {
+        int dx = Math.abs(chunkX - centerX);
+        int dz = Math.abs(chunkZ - centerZ);
+        int[] widths = HALF_WIDTH[Math.max(MIN_DISTANCE, Math.min(MAX_TABLE_DISTANCE, distance))];
+        return dz < widths.length && dx <= widths[dz];
+    }
+
+    /**
+     * 检查区块是否已经离开视野、但还在客户端上等待卸载
+     * 这样的区块需要继续接收方块更新，否则重新进入视野时客户端看到的是旧数据
+     *
+     * @param chunkX 区块X坐标
+     * @param chunkZ 区块Z坐标
+     * @return 如果等待卸载则返回true
+     */
+    public boolean isPending(int chunkX, int chunkZ) {
+        return this.pendingSize > 0
+                && isInView(chunkX, chunkZ, this.centerX, this.centerZ, this.distance + this.ring)
+                && !isInView(chunkX, chunkZ, this.centerX, this.centerZ, this.distance)
+                && isTracked(chunkX, chunkZ);
+    }
+
+    /**
+     * 检查是否有等待卸载的区块
+     *
+     * @return 如果有则返回true
+     */
+    public boolean hasPending() {
+        return this.pendingSize > 0;
+    }
+
+    /**
+     * 检查区块是否被追踪
+     *
+     * @param chunkX 区块X坐标
+     * @param chunkZ 区块Z坐标
+     * @return 如果被追踪则返回true
+     */
+    public boolean isTracked(int chunkX, int chunkZ) {
+        int index = index(chunkX, chunkZ);
+        return (this.tracked[index >>> 6] & (1L << index)) != 0;
+    }
+
+    /**
+     * 记录区块的追踪状态，由{@code updateChunkTracking}调用
+     *
+     * @param chunkX 区块X坐标
+     * @param chunkZ 区块Z坐标
+     * @param track 是否被追踪
+     */
+    public void setTracked(int chunkX, int chunkZ, boolean track) {
+        int index = index(chunkX, chunkZ);
+        if (track) {
+            this.tracked[index >>> 6] |= 1L << index;
+        } else {
+            this.tracked[index >>> 6] &= ~(1L << index);
+        }
+    }
+
+    /**
+     * 把视野移动到新的中心和视距，只为进入或离开视野的区块回调
+     *
+     * @param newCenterX 新的中心X坐标
+     * @param newCenterZ 新的中心Z坐标
+     * @param newDistance 新的视距
+     * @param listener 回调
+     */
+    public void update(int newCenterX, int newCenterZ, int newDistance, Listener listener) {
+        newDistance = clampDistance(newDistance);
+        prepareHysteresis();
+        int radius = newDistance + 1;
+        boolean overlapping = Math.abs(newCenterX - this.centerX) <= 2 * radius
+                && Math.abs(newCenterZ - this.centerZ) <= 2 * radius;
+
+        if (this.valid && overlapping) {
+            updateIncremental(newCenterX, newCenterZ, newDistance, listener);
+        } else {
+            reconcile(newCenterX, newCenterZ, newDistance, listener);
+        }
+    }
+
+    /**
+     * 完整比对：卸载所有不在新视野中的区块，再以螺旋顺序加载缺少的区块
+     *
+     * @param newCenterX 新的中心X坐标
+     * @param newCenterZ 新的中心Z坐标
+     * @param newDistance 新的视距
+     * @param listener 回调
+     */
+    public void reconcile(int newCenterX, int newCenterZ, int newDistance, Listener listener) {
+        newDistance = clampDistance(newDistance);
+        prepareHysteresis();
+        FULL_UPDATES.incrementAndGet();
+        long visited = 0;
+        int oldCenterX = this.centerX;
+        int oldCenterZ = this.centerZ;
+        moveTo(newCenterX, newCenterZ, newDistance);
+
+        // 已追踪的区块都在旧中心附近，按旧中心还原坐标
+        for (int word = 0; word < this.tracked.length; word++) {
+            long bits = this.tracked[word];
+            while (bits != 0) {
+                int index = (word << 6) | Long.numberOfTrailingZeros(bits);
+                bits &= bits - 1;
+                if ((this.tracked[word] & (1L << index)) == 0) {
+                    // 缓冲区满时已经提前卸载
+                    continue;
+                }
+                int chunkX = unwrap(index >>> SIDE_BITS, oldCenterX);
+                int chunkZ = unwrap(index & MASK, oldCenterZ);
+                visited++;
+                if (!isInView(chunkX, chunkZ, newCenterX, newCenterZ, newDistance)) {
+                    untrack(chunkX, chunkZ, newCenterX, newCenterZ, newDistance, listener);
+                }
+            }
+        }
+
+        compactPending(listener);
+
+        // 从中心向外加载，离玩家近的区块先发送
+        int radius = newDistance + 1;
+        int x = 0, z = 0, dx = 0, dz = -1;
+        int side = 2 * radius + 1;
+        int cells = side * side;
+        for (int i = 0; i < cells; i++) {
+            int chunkX = newCenterX + x;
+            int chunkZ = newCenterZ + z;
+            visited++;
+            if (isInView(chunkX, chunkZ, newCenterX, newCenterZ, newDistance) && !isTracked(chunkX, chunkZ)) {
+                track(chunkX, chunkZ, listener);
+            }
+            if (x == z || (x < 0 && x == -z) || (x > 0 && x == 1 - z)) {
+                int t = dx;
+                dx = -dz;
+                dz = t;
+            }
+            x += dx;
+            z += dz;
+        }
+
+        CELLS_VISITED.addAndGet(visited);
+    }
+
+    /**
+     * 停止追踪所有区块
+     *
+     * @param listener 回调
+     */
+    public void removeAll(Listener listener) {
+        long changed = 0;
+        for (int word = 0; word < this.tracked.length; word++) {
+            long bits = this.tracked[word];
+            while (bits != 0) {
+                int index = (word << 6) | Long.numberOfTrailingZeros(bits);
+                bits &= bits - 1;
+                listener.updateTracking(unwrap(index >>> SIDE_BITS, this.centerX), unwrap(index & MASK, this.centerZ), false);
+                changed++;
+            }
+        }
+        clear();
+        CELLS_CHANGED.addAndGet(changed);
+    }
+
+    /**
+     * 卸载等待时间已经超过配置的区块，每个服务器刻调用一次
+     *
+     * @param listener 回调
+     */
+    public void expirePending(Listener listener) {
+        if (this.pendingSize == 0) {
+            return;
+        }
+        if (hysteresisChunks() == 0) {
+            // 运行时关闭了滞后
+            this.ring = 0;
+            compactPending(listener);
+            return;
+        }
+
+        long now = System.currentTimeMillis();
+        while (this.pendingSize > 0 && this.pendingDeadlines[this.pendingHead] <= now) {
+            long chunk = this.pendingChunks[this.pendingHead];
+            this.pendingHead = (this.pendingHead + 1) % PENDING_CAPACITY;
+            this.pendingSize--;
+            untrackIfPending(unpackX(chunk), unpackZ(chunk), listener);
+        }
+    }
+
+    /**
+     * 清空位图，不回调
+     */
+    public void clear() {
+        Arrays.fill(this.tracked, 0L);
+        this.pendingHead = 0;
+        this.pendingSize = 0;
+        this.valid = false;
+    }
+
+    /**
+     * 获取当前生效的视距
+     *
+     * @return 视距，位图失效时返回-1
+     */
+    public int getDistance() {
+        return this.valid ? this.distance : -1;
+    }
+
+    /**
+     * 标记位图与记录的视距不再对应，下次更新时完整比对
+     * 用于没有经过这里的追踪更新，例如原版的视距修改
+     *
+     * @param currentCenterX 已追踪区块的中心X坐标
+     * @param currentCenterZ 已追踪区块的中心Z坐标
+     */
+    public void invalidate(int currentCenterX, int currentCenterZ) {
+        this.centerX = currentCenterX;
+        this.centerZ = currentCenterZ;
+        this.valid = false;
+    }
+
+    private void updateIncremental(int newCenterX, int newCenterZ, int newDistance, Listener listener) {
+        INCREMENTAL_UPDATES.incrementAndGet();
+        int oldCenterX = this.centerX;
+        int oldCenterZ = this.centerZ;
+        int[] oldWidths = HALF_WIDTH[this.distance];
+        int[] newWidths = HALF_WIDTH[newDistance];
+        // 缓冲区满时提前卸载的判断要按新中心进行
+        moveTo(newCenterX, newCenterZ, newDistance);
+        int minZ = Math.min(oldCenterZ - oldWidths.length, newCenterZ - newWidths.length) + 1;
+        int maxZ = Math.max(oldCenterZ + oldWidths.length, newCenterZ + newWidths.length) - 1;
+        long visited = 0;
+
+        // 先卸载再加载，两个视野的并集可能超出位图的宽度
+        // 超出滞后环的等待区块在加载之前卸载，加载时位图中只剩新中心附近的区块
+        for (int pass = 0; pass < 2; pass++) {
+            if (pass == 1) {
+                compactPending(listener);
+            }
+            boolean track = pass == 1;
+            int fromX = track ? newCenterX : oldCenterX;
+            int fromZ = track ? newCenterZ : oldCenterZ;
+            int otherX = track ? oldCenterX : newCenterX;
+            int otherZ = track ? oldCenterZ : newCenterZ;
+            int[] widths = track ? newWidths : oldWidths;
+            int[] otherWidths = track ? oldWidths : newWidths;
+
+            for (int chunkZ = minZ; chunkZ <= maxZ; chunkZ++) {
+                int half = halfWidth(widths, chunkZ - fromZ);
+                if (half < 0) {
+                    continue;
+                }
+                int start = fromX - half;
+                int end = fromX + half;
+                int otherHalf = halfWidth(otherWidths, chunkZ - otherZ);
+
+                // 区间[start, end]减去另一个视野在这一行的区间[skipStart, skipEnd]
+                int skipStart = otherHalf < 0 ? end + 1 : otherX - otherHalf;
+                int skipEnd = otherHalf < 0 ? end : otherX + otherHalf;
+                visited += updateRow(chunkZ, start, Math.min(end, skipStart - 1), track, newCenterX, newCenterZ, listener);
+                visited += updateRow(chunkZ, Math.max(start, skipEnd + 1), end, track, newCenterX, newCenterZ, listener);
+            }
+        }
+
+        CELLS_VISITED.addAndGet(visited);
+    }
+
+    /**
+     * 把一行中[start, end]的区块更新为指定的追踪状态
+     *
+     * @return 访问的区块数
+     */
+    private int updateRow(int chunkZ, int start, int end, boolean track, int newCenterX, int newCenterZ, Listener listener) {
+        for (int chunkX = start; chunkX <= end; chunkX++) {
+            boolean tracked = isTracked(chunkX, chunkZ);
+            if (track && !tracked) {
+                track(chunkX, chunkZ, listener);
+            } else if (track) {
+                // 等待卸载的区块重新进入视野，客户端上还有它
+                RESENDS_AVOIDED.incrementAndGet();
+            } else if (tracked) {
+                untrack(chunkX, chunkZ, newCenterX, newCenterZ, this.distance, listener);
+            }
+        }
+        return Math.max(0, end - start + 1);
+    }
+
+    private void track(int chunkX, int chunkZ, Listener listener) {
+        listener.updateTracking(chunkX, chunkZ, true);
+        setTracked(chunkX, chunkZ, true);
+        CELLS_CHANGED.incrementAndGet();
+    }
+
+    /**
+     * 区块离开视野：还在滞后环内时推迟卸载，否则立即卸载
+     */
+    private void untrack(int chunkX, int chunkZ, int newCenterX, int newCenterZ, int newDistance, Listener listener) {
+        if (this.ring > 0 && isInView(chunkX, chunkZ, newCenterX, newCenterZ, newDistance + this.ring)) {
+            addPending(chunkX, chunkZ, listener);
+            return;
+        }
+        listener.updateTracking(chunkX, chunkZ, false);
+        setTracked(chunkX, chunkZ, false);
+        CELLS_CHANGED.incrementAndGet();
+    }
+
+    private void untrackIfPending(int chunkX, int chunkZ, Listener listener) {
+        if (isTracked(chunkX, chunkZ) && !isInView(chunkX, chunkZ, this.centerX, this.centerZ, this.distance)) {
+            listener.updateTracking(chunkX, chunkZ, false);
+            setTracked(chunkX, chunkZ, false);
+            CELLS_CHANGED.incrementAndGet();
+        }
+    }
+
+    private void addPending(int chunkX, int chunkZ, Listener listener) {
+        if (this.pendingChunks == null) {
+            this.pendingChunks = new long[PENDING_CAPACITY];
+            this.pendingDeadlines = new long[PENDING_CAPACITY];
+        }
+        if (this.pendingSize == PENDING_CAPACITY) {
+            // 缓冲区满时提前卸载最早离开视野的区块
+            long oldest = this.pendingChunks[this.pendingHead];
+            this.pendingHead = (this.pendingHead + 1) % PENDING_CAPACITY;
+            this.pendingSize--;
+            untrackIfPending(unpackX(oldest), unpackZ(oldest), listener);
+        }
+        int slot = (this.pendingHead + this.pendingSize) % PENDING_CAPACITY;
+        this.pendingChunks[slot] = pack(chunkX, chunkZ);
+        this.pendingDeadlines[slot] = this.deadline;
+        this.pendingSize++;
+        DEFERRED_UNLOADS.incrementAndGet();
+    }
+
+    /**
+     * 按当前中心整理等待卸载的区块：丢弃已经重新进入视野的，卸载超出滞后环的
+     */
+    private void compactPending(Listener listener) {
+        int kept = 0;
+        for (int i = 0; i < this.pendingSize; i++) {
+            int slot = (this.pendingHead + i) % PENDING_CAPACITY;
+            long chunk = this.pendingChunks[slot];
+            int chunkX = unpackX(chunk);
+            int chunkZ = unpackZ(chunk);
+            if (!isTracked(chunkX, chunkZ) || isInView(chunkX, chunkZ, this.centerX, this.centerZ, this.distance)) {
+                continue;
+            }
+            if (this.ring == 0 || !isInView(chunkX, chunkZ, this.centerX, this.centerZ, this.distance + this.ring)) {
+                untrackIfPending(chunkX, chunkZ, listener);
+                continue;
+            }
+            int target = (this.pendingHead + kept) % PENDING_CAPACITY;
+            this.pendingChunks[target] = chunk;
+            this.pendingDeadlines[target] = this.pendingDeadlines[slot];
+            kept++;
+        }
+        this.pendingSize = kept;
+    }
+
+    private void prepareHysteresis() {
+        this.ring = hysteresisChunks();
+        this.deadline = System.currentTimeMillis() + CeresConfig.SERVER.chunkUnloadHysteresisSeconds.get() * 1000L;
+    }
+
+    /**
+     * 获取滞后环的宽度
+     *
+     * @return 区块数，没有启用时为0
+     */
+    private static int hysteresisChunks() {
+        if (!CeresConfig.SERVER.enableChunkUnloadHysteresis.get()) {
+            return 0;
+        }
+        return Math.min(MAX_RING, (CeresConfig.SERVER.chunkUnloadHysteresisBlocks.get() + 15) >> 4);
+    }
+
+    private static long pack(int chunkX, int chunkZ) {
+        return (long) chunkX << 32 | (chunkZ & 0xFFFFFFFFL);
+    }
+
+    private static int unpackX(long chunk) {
+        return (int) (chunk >> 32);
+    }
+
+    private static int unpackZ(long chunk) {
+        return (int) chunk;
+    }
+
+    private void moveTo(int newCenterX, int newCenterZ, int newDistance) {
+        this.centerX = newCenterX;
+        this.centerZ = newCenterZ;
+        this.distance = newDistance;
+        this.valid = true;
+    }
+
+    private static int halfWidth(int[] widths, int dz) {
+        dz = Math.abs(dz);
+        return dz < widths.length ? widths[dz] : -1;
+    }
+
+    private static int index(int chunkX, int chunkZ) {
+        return ((chunkX & MASK) << SIDE_BITS) | (chunkZ & MASK);
+    }
+
+    /**
+     * 把取模后的坐标还原为离中心最近的实际坐标
+     */
+    private static int unwrap(int wrapped, int center) {
+        return center + (((wrapped - center) << (32 - SIDE_BITS)) >> (32 - SIDE_BITS));
+    }
+
+    private static int clampDistance(int distance) {
+        return Math.max(MIN_DISTANCE, Math.min(MAX_DISTANCE, distance));
+    }
+
+    /**
+     * 获取区块追踪统计信息
+     *
+     * @return 统计信息字符串
+     */
+    public static String getTrackingStats() {
+        if (!isEnabled()) {
+            return "Chunk tracking bitset: disabled";
+        }
+        long visited = CELLS_VISITED.get();
+        long changed = CELLS_CHANGED.get();
+        return String.format("Chunk tracking bitset: %d incremental, %d full updates, %d cells visited, %d changed (%.1f%% useful), "
+                        + "%d unloads deferred, %d resends avoided",
+                INCREMENTAL_UPDATES.get(), FULL_UPDATES.get(), visited, changed, visited > 0 ? changed * 100.0 / visited : 0.0,
+                DEFERRED_UNLOADS.get(), RESENDS_AVOIDED.get());
+    }
+
+    /**
+     * 重置统计信息
+     */
+    public static void resetStats() {
+        INCREMENTAL_UPDATES.set(0);
+        FULL_UPDATES.set(0);
+        CELLS_VISITED.set(0);
+        CELLS_CHANGED.set(0);
+        DEFERRED_UNLOADS.set(0);
+        RESENDS_AVOIDED.set(0);
+    }
+}
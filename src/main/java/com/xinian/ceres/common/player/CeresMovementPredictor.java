@@ -0,0 +1,162 @@
+package com.xinian.ceres.common.player;
+
+import com.xinian.ceres.CeresConfig;
+import it.unimi.dsi.fastutil.longs.LongArrayList;
+import net.minecraft.core.SectionPos;
+import net.minecraft.server.level.ServerPlayer;
+import net.minecraft.world.level.ChunkPos;
+import net.minecraft.world.level.Level;
+
+/**
+ * 根据玩家最近的移动预测即将进入视野的区块
+ *
+ * <p>每个服务器刻记录一次玩家的水平位移，用指数加权平均得到速度。使用位移而不是
+ * {@code getDeltaMovement}，乘坐矿车等载具时也能得到真实的速度。速度超过阈值时，
+ * 按速度外推出未来几秒的位置，把在这些位置会进入视野、而当前不在视野中的区块作为预取候选，
+ * 越早进入视野的区块越靠前。</p>
+ *
+ * <p>玩家所在区块或预测位置所在区块变化时才重新计算候选。</p>
+ *
+ * <p><strong>线程安全性</strong>：只能在服务器主线程中访问。</p>
+ */
+public final class CeresMovementPredictor {
+    /**
+     * 没有更多候选时{@link #poll()}的返回值
+     */
+    public static final long NONE = Long.MAX_VALUE;
+
+    /**
+     * 一刻内超过这个距离的位移视为传送，重新开始测量
+     */
+    private static final double TELEPORT_DISTANCE = 64.0;
+
+    /**
+     * 速度平均的权重，大约反映最近10刻的移动
+     */
+    private static final double SMOOTHING = 0.2;
+
+    private Level lastLevel;
+    private double lastX;
+    private double lastZ;
+    private double velocityX;
+    private double velocityZ;
+
+    private final LongArrayList candidates = new LongArrayList();
+    private int cursor;
+    private int candidateCenterX;
+    private int candidateCenterZ;
+    private int candidateTargetX;
+    private int candidateTargetZ;
+    private int candidateDistance = -1;
+
+    /**
+     * 检查是否启用了区块预取
+     *
+     * @return 如果启用则返回true
+     */
+    public static boolean isEnabled() {
+        return CeresConfig.SERVER.enableChunkPrefetch.get();
+    }
+
+    /**
+     * 记录玩家这一刻的位置，每个服务器刻调用一次
+     *
+     * @param player 玩家
+     */
+    public void update(ServerPlayer player) {
+        double x = player.getX();
+        double z = player.getZ();
+        if (player.level != this.lastLevel) {
+            this.lastLevel = player.level;
+            reset(x, z);
+            return;
+        }
+
+        double dx = x - this.lastX;
+        double dz = z - this.lastZ;
+        if (dx * dx + dz * dz > TELEPORT_DISTANCE * TELEPORT_DISTANCE) {
+            reset(x, z);
+            return;
+        }
+        this.velocityX += (dx - this.velocityX) * SMOOTHING;
+        this.velocityZ += (dz - this.velocityZ) * SMOOTHING;
+        this.lastX = x;
+        this.lastZ = z;
+    }
+
+    private void reset(double x, double z) {
+        this.lastX = x;
+        this.lastZ = z;
+        this.velocityX = 0;
+        this.velocityZ = 0;
+        this.candidates.clear();
+        this.cursor = 0;
+        this.candidateDistance = -1;
+    }
+
+    /**
+     * 检查玩家是否移动得足够快，需要预取
+     *
+     * @return 如果速度超过阈值则返回true
+     */
+    public boolean isFast() {
+        // 速度以方块/刻记录，配置以方块/秒为单位
+        double minSpeed = CeresConfig.SERVER.chunkPrefetchMinSpeed.get() / 20.0;
+        return this.velocityX * this.velocityX + this.velocityZ * this.velocityZ >= minSpeed * minSpeed;
+    }
+
+    /**
+     * 按当前速度更新预取候选
+     *
+     * @param distance 玩家的视距
+     */
+    public void predict(int distance) {
+        int centerX = SectionPos.blockToSectionCoord(this.lastX);
+        int centerZ = SectionPos.blockToSectionCoord(this.lastZ);
+        int seconds = CeresConfig.SERVER.chunkPrefetchLookaheadSeconds.get();
+        int targetX = SectionPos.blockToSectionCoord(this.lastX + this.velocityX * 20 * seconds);
+        int targetZ = SectionPos.blockToSectionCoord(this.lastZ + this.velocityZ * 20 * seconds);
+        if (centerX == this.candidateCenterX && centerZ == this.candidateCenterZ
+                && targetX == this.candidateTargetX && targetZ == this.candidateTargetZ
+                && distance == this.candidateDistance) {
+            return;
+        }
+
+        this.candidates.clear();
+        this.cursor = 0;
+        this.candidateCenterX = centerX;
+        this.candidateCenterZ = centerZ;
+        this.candidateTargetX = targetX;
+        this.candidateTargetZ = targetZ;
+        this.candidateDistance = distance;
+
+        // 每次前进一个区块，依次收集新进入视野的区块
+        int steps = Math.max(Math.abs(targetX - centerX), Math.abs(targetZ - centerZ));
+        int previousX = centerX;
+        int previousZ = centerZ;
+        for (int step = 1; step <= steps; step++) {
+            int stepX = centerX + Math.round((float) (targetX - centerX) * step / steps);
+            int stepZ = centerZ + Math.round((float) (targetZ - centerZ) * step / steps);
+            for (int x = stepX - distance - 1; x <= stepX + distance + 1; x++) {
+                for (int z = stepZ - distance - 1; z <= stepZ + distance + 1; z++) {
+                    if (CeresChunkTrackingView.isInView(x, z, stepX, stepZ, distance)
+                            && !CeresChunkTrackingView.isInView(x, z, previousX, previousZ, distance)
+                            && !CeresChunkTrackingView.isInView(x, z, centerX, centerZ, distance)) {
+                        this.candidates.add(ChunkPos.asLong(x, z));
+                    }
+                }
+            }
+            previousX = stepX;
+            previousZ = stepZ;
+        }
+    }
+
+    /**
+     * 取出下一个预取候选
+     *
+     * @return 打包的区块位置，没有更多候选时返回{@link #NONE}
+     */
+    public long poll() {
+        return this.cursor < this.candidates.size() ? this.candidates.getLong(this.cursor++) : NONE;
+    }
+}
@@ -27,6 +27,27 @@ public interface CeresServerPlayer {
      */
     boolean getNeedsChunksReloaded();
 
+    /**
+     * 获取玩家追踪的区块集合
+     *
+     * @return 区块追踪位图
+     */
+    CeresChunkTrackingView getChunkTrackingView();
+
+    /**
+     * 获取玩家等待发送的区块队列
+     *
+     * @return 区块发送队列
+     */
+    CeresChunkSendQueue getChunkSendQueue();
+
+    /**
+     * 获取玩家的移动预测器
+     *
+     * @return 移动预测器
+     */
+    CeresMovementPredictor getMovementPredictor();
+
     /**
      * 获取玩家上次区块重载时间
      * 用于限制频繁的区块重载请求
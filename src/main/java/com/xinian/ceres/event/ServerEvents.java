@@ -2,7 +2,13 @@ package com.xinian.ceres.event;
 
 import com.xinian.ceres.Ceres;
 import com.xinian.ceres.command.CeresCompressionCommand;
+import com.xinian.ceres.common.network.CeresFlushScheduler;
+import com.xinian.ceres.network.CeresCapabilitiesPacket;
+import net.minecraft.server.level.ServerPlayer;
+import net.minecraftforge.event.TickEvent;
+import net.minecraftforge.event.entity.player.PlayerEvent;
 import net.minecraftforge.event.server.ServerStartingEvent;
+import net.minecraftforge.event.server.ServerStoppingEvent;
 import net.minecraftforge.eventbus.api.SubscribeEvent;
 import net.minecraftforge.fml.common.Mod;
 
@@ -14,5 +20,25 @@ public class ServerEvents {
         Ceres.LOGGER.info("Registering Ceres commands");
         CeresCompressionCommand.register(event.getServer().getCommands().getDispatcher());
     }
-}
 
+    @SubscribeEvent
+    public static void onServerTick(TickEvent.ServerTickEvent event) {
+        if (event.phase == TickEvent.Phase.START) {
+            CeresFlushScheduler.onTickStart();
+        } else {
+            CeresFlushScheduler.onTickEnd();
+        }
+    }
+
+    @SubscribeEvent
+    public static void onServerStopping(ServerStoppingEvent event) {
+        CeresFlushScheduler.flushAll();
+    }
+
+    @SubscribeEvent
+    public static void onPlayerLoggedIn(PlayerEvent.PlayerLoggedInEvent event) {
+        if (event.getEntity() instanceof ServerPlayer player) {
+            CeresCapabilitiesPacket.offer(player);
+        }
+    }
+}
@@ -35,7 +35,7 @@ public class CeresMixinPlugin implements IMixinConfigPlugin {
     @Override
     public boolean shouldApplyMixin(String targetClassName, String mixinClassName) {
         // 这个Mixin与Immersive Portals不兼容
-        if (mixinClassName.contains("optimization.CeresChunkMapMixin")) {
+        if (mixinClassName.contains("avoidwork.CeresChunkMapMixin")) {
             boolean shouldApply = LoadingModList.get().getModFileById("imm_ptl_core") == null;
             if (!shouldApply) {
                 Ceres.LOGGER.info("Detected Immersive Portals mod, disabling CeresChunkMapMixin for compatibility");
@@ -1,40 +1,237 @@
 package com.xinian.ceres.mixin.network.avoidwork;
 
+import com.google.common.collect.Lists;
 import com.xinian.ceres.Ceres;
+import com.xinian.ceres.CeresConfig;
+import com.xinian.ceres.common.network.CeresPreEncodedPacket;
+import com.xinian.ceres.common.network.chunk.CeresChunkPacketCache;
+import com.xinian.ceres.common.network.chunk.CeresChunkPacketCacheHolder;
+import com.xinian.ceres.common.network.compression.CeresCompressionWorkerPool;
+import com.xinian.ceres.common.player.CeresChunkSendQueue;
+import com.xinian.ceres.common.player.CeresMovementPredictor;
+import com.xinian.ceres.common.player.CeresServerPlayer;
+import io.netty.channel.Channel;
 import it.unimi.dsi.fastutil.ints.Int2ObjectMap;
+import net.minecraft.network.protocol.Packet;
 import net.minecraft.network.protocol.game.ClientboundLevelChunkWithLightPacket;
+import net.minecraft.network.protocol.game.ClientboundSetEntityLinkPacket;
+import net.minecraft.network.protocol.game.ClientboundSetPassengersPacket;
+import net.minecraft.network.protocol.game.DebugPackets;
+import net.minecraft.server.level.ChunkHolder;
 import net.minecraft.server.level.ChunkMap;
+import net.minecraft.server.level.ServerLevel;
 import net.minecraft.server.level.ServerPlayer;
+import net.minecraft.server.level.ThreadedLevelLightEngine;
 import net.minecraft.world.entity.Entity;
+import net.minecraft.world.entity.Mob;
+import net.minecraft.world.level.ChunkPos;
 import net.minecraft.world.level.chunk.LevelChunk;
 import org.apache.commons.lang3.mutable.MutableObject;
 import org.spongepowered.asm.mixin.Final;
 import org.spongepowered.asm.mixin.Mixin;
+import org.spongepowered.asm.mixin.Overwrite;
 import org.spongepowered.asm.mixin.Shadow;
+import org.spongepowered.asm.mixin.Unique;
 import org.spongepowered.asm.mixin.injection.At;
 import org.spongepowered.asm.mixin.injection.Inject;
 import org.spongepowered.asm.mixin.injection.callback.CallbackInfo;
 
+import javax.annotation.Nullable;
+import java.util.List;
+
 /**
- * 区块地图优化Mixin - 安全版本
- * 仅添加日志记录，不修改原版行为
+ * 区块地图优化Mixin
+ *
+ * <p>通过{@link CeresChunkPacketCache}共享区块数据包：同一个区块发送给多个玩家时，
+ * 数据包只构建、序列化和压缩一次。</p>
+ *
+ * <p>启用{@link CeresChunkSendQueue}时，区块先进入玩家的发送队列，在每个服务器刻开始时按预算发送。</p>
+ *
+ * <p>快速移动的玩家前方已经加载的区块由{@link CeresMovementPredictor}预测，
+ * 在玩家的发送队列空闲时提前构建并交给工作线程编码和压缩，进入视野时直接使用缓存。</p>
  */
 @Mixin(ChunkMap.class)
-public class CeresChunkMapMixin {
+public abstract class CeresChunkMapMixin implements CeresChunkPacketCacheHolder {
+    @Shadow
+    @Final
+    ServerLevel level;
+
+    @Shadow
+    @Final
+    private ThreadedLevelLightEngine lightEngine;
+
     @Shadow
     @Final
     private Int2ObjectMap<ChunkMap.TrackedEntity> entityMap;
 
+    @Shadow
+    int viewDistance;
+
+    @Shadow
+    @Nullable
+    protected abstract ChunkHolder getVisibleChunkIfPresent(long chunkPos);
+
+    private final CeresChunkPacketCache chunkPacketCache = new CeresChunkPacketCache();
+
+    @Unique
+    private boolean ceres$drainingSendQueue;
+
+    @Unique
+    private Packet<?> ceres$drainedPacket;
+
     /**
-     * 仅添加日志记录，不修改原版行为
+     * 重写玩家加载区块方法，优先发送缓存的预编码区块数据包
+     *
+     * @param player 玩家
+     * @param mutableObject 同一批玩家共享的区块数据包
+     * @param chunk 区块
+     * @author Xinian
+     * @reason 避免为每个玩家重复编码和压缩同一个区块
      */
-    @Inject(method = "playerLoadedChunk", at = @At("HEAD"))
-    public void onPlayerLoadedChunk(ServerPlayer player, MutableObject<ClientboundLevelChunkWithLightPacket> mutableObject, LevelChunk chunk, CallbackInfo ci) {
+    @Overwrite
+    private void playerLoadedChunk(ServerPlayer player, MutableObject<ClientboundLevelChunkWithLightPacket> mutableObject, LevelChunk chunk) {
+        if (!this.ceres$drainingSendQueue && CeresChunkSendQueue.isEnabled() && player instanceof CeresServerPlayer ceresPlayer) {
+            ceresPlayer.getChunkSendQueue().enqueue(chunk.getPos().toLong());
+            return;
+        }
+
+        ChunkPos chunkPos = chunk.getPos();
+
+        Packet<?> packet = this.chunkPacketCache.get(chunkPos.toLong());
+        if (packet == null) {
+            if (mutableObject.getValue() == null) {
+                mutableObject.setValue(new ClientboundLevelChunkWithLightPacket(chunk, this.lightEngine, null, null, true));
+            }
+            packet = this.chunkPacketCache.put(chunkPos.toLong(), mutableObject.getValue());
+        }
+
         if (Ceres.LOGGER.isDebugEnabled()) {
             Ceres.LOGGER.debug("Player {} loaded chunk at {}, {}",
-                    player.getName().getString(),
-                    chunk.getPos().x,
-                    chunk.getPos().z);
+                    player.getName().getString(), chunkPos.x, chunkPos.z);
+        }
+
+        if (this.ceres$drainingSendQueue) {
+            this.ceres$drainedPacket = packet;
+        }
+        player.trackChunk(chunkPos, packet);
+        DebugPackets.sendPoiPacketsForChunk(this.level, chunkPos);
+
+        List<Entity> leashed = Lists.newArrayList();
+        List<Entity> withPassengers = Lists.newArrayList();
+
+        for (ChunkMap.TrackedEntity tracker : this.entityMap.values()) {
+            Entity entity = tracker.entity;
+            if (entity != player && entity.chunkPosition().equals(chunkPos)) {
+                tracker.updatePlayer(player);
+                if (entity instanceof Mob mob && mob.getLeashHolder() != null) {
+                    leashed.add(entity);
+                }
+
+                if (!entity.getPassengers().isEmpty()) {
+                    withPassengers.add(entity);
+                }
+            }
+        }
+
+        for (Entity entity : leashed) {
+            player.connection.send(new ClientboundSetEntityLinkPacket(entity, ((Mob) entity).getLeashHolder()));
+        }
+
+        for (Entity entity : withPassengers) {
+            player.connection.send(new ClientboundSetPassengersPacket(entity));
         }
     }
+
+    /**
+     * 在每个服务器刻开始时按预算发送玩家队列中的区块
+     */
+    @Inject(method = "tick()V", at = @At("HEAD"))
+    private void drainChunkSendQueues(CallbackInfo info) {
+        this.ceres$drainingSendQueue = true;
+        try {
+            for (ServerPlayer player : this.level.players()) {
+                if (!(player instanceof CeresServerPlayer ceresPlayer) || player.connection == null) {
+                    continue;
+                }
+                CeresChunkSendQueue queue = ceresPlayer.getChunkSendQueue();
+                if (queue.isEmpty()) {
+                    continue;
+                }
+                Channel channel = player.connection.getConnection().channel();
+                queue.drain(player, channel, chunkPos -> {
+                    ChunkHolder holder = this.getVisibleChunkIfPresent(chunkPos);
+                    LevelChunk chunk = holder != null ? holder.getTickingChunk() : null;
+                    // 还没有进入ticking状态的区块在准备好时会重新入队
+                    if (chunk == null) {
+                        return null;
+                    }
+                    this.playerLoadedChunk(player, new MutableObject<>(), chunk);
+                    Packet<?> packet = this.ceres$drainedPacket;
+                    this.ceres$drainedPacket = null;
+                    return packet;
+                });
+            }
+        } finally {
+            this.ceres$drainingSendQueue = false;
+        }
+    }
+
+    /**
+     * 为快速移动的玩家预取前方的区块
+     */
+    @Inject(method = "tick()V", at = @At("HEAD"))
+    private void prefetchChunksAhead(CallbackInfo info) {
+        if (!CeresMovementPredictor.isEnabled()) {
+            return;
+        }
+
+        int threshold = this.level.getServer().getCompressionThreshold();
+        int perTick = CeresConfig.SERVER.chunkPrefetchPerTick.get();
+        int maxPrefetched = CeresConfig.SERVER.chunkPrefetchMaxChunks.get();
+        for (ServerPlayer player : this.level.players()) {
+            if (!(player instanceof CeresServerPlayer ceresPlayer) || player.connection == null) {
+                continue;
+            }
+            CeresMovementPredictor predictor = ceresPlayer.getMovementPredictor();
+            predictor.update(player);
+            // 只在这个玩家没有区块等待发送、通道也有余量时预取
+            if (!predictor.isFast() || !ceresPlayer.getChunkSendQueue().isEmpty()
+                    || !player.connection.getConnection().channel().isWritable()) {
+                continue;
+            }
+            if (!this.chunkPacketCache.hasPrefetchRoom(maxPrefetched)) {
+                continue;
+            }
+
+            int distance = ceresPlayer.getChunkTrackingView().getDistance();
+            predictor.predict(distance != -1 ? distance : this.viewDistance);
+
+            int remaining = perTick;
+            long chunkPos;
+            while (remaining > 0 && (chunkPos = predictor.poll()) != CeresMovementPredictor.NONE) {
+                if (!this.chunkPacketCache.canPrefetch(chunkPos, maxPrefetched)) {
+                    continue;
+                }
+                // 不为预取加载区块，只处理已经可以发送的区块
+                ChunkHolder holder = this.getVisibleChunkIfPresent(chunkPos);
+                LevelChunk chunk = holder != null ? holder.getTickingChunk() : null;
+                if (chunk == null) {
+                    continue;
+                }
+
+                CeresPreEncodedPacket packet = this.chunkPacketCache.prefetch(chunkPos,
+                        new ClientboundLevelChunkWithLightPacket(chunk, this.lightEngine, null, null, true), maxPrefetched);
+                if (packet != null) {
+                    CeresCompressionWorkerPool.submitPrecompress(packet, threshold);
+                }
+                remaining--;
+            }
+        }
+        this.chunkPacketCache.expirePrefetched();
+    }
+
+    @Override
+    public CeresChunkPacketCache getChunkPacketCache() {
+        return this.chunkPacketCache;
+    }
 }
@@ -0,0 +1,75 @@
+package com.xinian.ceres.mixin.network.encodeonce;
+
+import com.xinian.ceres.common.network.CeresPreEncodedPacket;
+import com.xinian.ceres.common.network.chunk.CeresChunkPacketCacheHolder;
+import net.minecraft.core.BlockPos;
+import net.minecraft.network.protocol.Packet;
+import net.minecraft.server.level.ChunkHolder;
+import net.minecraft.server.level.ServerPlayer;
+import net.minecraft.world.level.ChunkPos;
+import net.minecraft.world.level.LightLayer;
+import org.spongepowered.asm.mixin.Final;
+import org.spongepowered.asm.mixin.Mixin;
+import org.spongepowered.asm.mixin.Shadow;
+import org.spongepowered.asm.mixin.Unique;
+import org.spongepowered.asm.mixin.injection.At;
+import org.spongepowered.asm.mixin.injection.Inject;
+import org.spongepowered.asm.mixin.injection.ModifyVariable;
+import org.spongepowered.asm.mixin.injection.Redirect;
+import org.spongepowered.asm.mixin.injection.callback.CallbackInfo;
+
+import java.util.List;
+
+/**
+ * 区块持有者Mixin
+ * 方块或光照变化时使该区块的缓存数据包失效，并预编码方块更新广播
+ */
+@Mixin(ChunkHolder.class)
+public class CeresChunkHolderMixin {
+    private static final String GET_PLAYERS = "Lnet/minecraft/server/level/ChunkHolder$PlayerProvider;getPlayers(Lnet/minecraft/world/level/ChunkPos;Z)Ljava/util/List;";
+
+    @Shadow
+    @Final
+    ChunkPos pos;
+
+    @Shadow
+    @Final
+    private ChunkHolder.PlayerProvider playerProvider;
+
+    @Unique
+    private int ceres$broadcastRecipients;
+
+    /**
+     * 记录广播本来就要获取的玩家列表的大小，不再额外查询一次
+     */
+    @Redirect(method = "broadcast", at = @At(value = "INVOKE", target = GET_PLAYERS))
+    private List<ServerPlayer> countBroadcastRecipients(ChunkHolder.PlayerProvider provider, ChunkPos chunkPos, boolean boundaryOnly) {
+        List<ServerPlayer> players = provider.getPlayers(chunkPos, boundaryOnly);
+        this.ceres$broadcastRecipients = players.size();
+        return players;
+    }
+
+    /**
+     * 方块更新广播给所有观察该区块的玩家，只编码一次
+     */
+    @ModifyVariable(method = "broadcast", at = @At(value = "INVOKE", target = GET_PLAYERS, shift = At.Shift.AFTER), argsOnly = true)
+    private Packet<?> preEncodeBroadcast(Packet<?> packet) {
+        return CeresPreEncodedPacket.forBroadcast(packet, this.ceres$broadcastRecipients);
+    }
+
+    @Inject(method = "blockChanged", at = @At("HEAD"))
+    private void invalidateOnBlockChange(BlockPos blockPos, CallbackInfo ci) {
+        invalidateChunkPacket();
+    }
+
+    @Inject(method = "sectionLightChanged", at = @At("HEAD"))
+    private void invalidateOnLightChange(LightLayer lightLayer, int sectionY, CallbackInfo ci) {
+        invalidateChunkPacket();
+    }
+
+    private void invalidateChunkPacket() {
+        if (this.playerProvider instanceof CeresChunkPacketCacheHolder holder) {
+            holder.getChunkPacketCache().invalidate(this.pos.toLong());
+        }
+    }
+}
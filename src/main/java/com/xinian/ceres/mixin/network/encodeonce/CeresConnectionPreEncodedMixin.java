@@ -0,0 +1,44 @@
+package com.xinian.ceres.mixin.network.encodeonce;
+
+import com.xinian.ceres.common.network.CeresPreEncodedPacket;
+import io.netty.channel.Channel;
+import net.minecraft.network.Connection;
+import net.minecraft.network.PacketSendListener;
+import net.minecraft.network.protocol.Packet;
+import org.spongepowered.asm.mixin.Mixin;
+import org.spongepowered.asm.mixin.Shadow;
+import org.spongepowered.asm.mixin.injection.At;
+import org.spongepowered.asm.mixin.injection.ModifyVariable;
+
+/**
+ * 连接预编码数据包Mixin
+ *
+ * <p>内存连接直接传递数据包对象，不经过编码器，因此换回原始数据包。</p>
+ *
+ * <p>Forge为原版客户端安装的过滤器按数据包类修改数据包（例如移除模组属性），
+ * 有这个过滤器的连接同样换回真正的数据包对象，让过滤器照常处理。</p>
+ */
+@Mixin(Connection.class)
+public abstract class CeresConnectionPreEncodedMixin {
+    private static final String VANILLA_FILTER = "forge:vanilla_filter";
+
+    @Shadow
+    private Channel channel;
+
+    @Shadow
+    public abstract boolean isMemoryConnection();
+
+    @ModifyVariable(method = "send(Lnet/minecraft/network/protocol/Packet;Lnet/minecraft/network/PacketSendListener;)V",
+            at = @At("HEAD"), argsOnly = true)
+    private Packet<?> unwrapForMemoryConnection(Packet<?> packet, Packet<?> original, PacketSendListener listener) {
+        if (packet instanceof CeresPreEncodedPacket preEncoded) {
+            if (this.isMemoryConnection()) {
+                return preEncoded.unwrap();
+            }
+            if (this.channel != null && this.channel.pipeline().get(VANILLA_FILTER) != null) {
+                return preEncoded.toPacket();
+            }
+        }
+        return packet;
+    }
+}
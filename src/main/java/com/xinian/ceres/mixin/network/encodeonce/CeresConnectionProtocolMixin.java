@@ -0,0 +1,23 @@
+package com.xinian.ceres.mixin.network.encodeonce;
+
+import com.xinian.ceres.common.network.CeresPreEncodedPacket;
+import net.minecraft.network.ConnectionProtocol;
+import net.minecraft.network.protocol.Packet;
+import org.spongepowered.asm.mixin.Mixin;
+import org.spongepowered.asm.mixin.injection.At;
+import org.spongepowered.asm.mixin.injection.Inject;
+import org.spongepowered.asm.mixin.injection.callback.CallbackInfoReturnable;
+
+/**
+ * 连接协议Mixin
+ * 预编码数据包没有注册到协议中，但它们总是属于游戏阶段
+ */
+@Mixin(ConnectionProtocol.class)
+public class CeresConnectionProtocolMixin {
+    @Inject(method = "getProtocolForPacket", at = @At("HEAD"), cancellable = true)
+    private static void resolvePreEncodedProtocol(Packet<?> packet, CallbackInfoReturnable<ConnectionProtocol> cir) {
+        if (packet instanceof CeresPreEncodedPacket) {
+            cir.setReturnValue(ConnectionProtocol.PLAY);
+        }
+    }
+}
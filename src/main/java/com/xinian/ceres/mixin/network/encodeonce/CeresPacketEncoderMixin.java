@@ -0,0 +1,91 @@
+package com.xinian.ceres.mixin.network.encodeonce;
+
+import com.xinian.ceres.common.network.CeresPacketSizeEstimator;
+import com.xinian.ceres.common.network.CeresPreEncodedPacket;
+import com.xinian.ceres.common.network.compression.CeresCompressionLevelLadder;
+import com.xinian.ceres.common.network.compression.CeresMinecraftCompressEncoder;
+import com.xinian.ceres.common.network.pipeline.CeresLengthPrepender;
+import io.netty.buffer.ByteBuf;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelPromise;
+import io.netty.handler.codec.MessageToByteEncoder;
+import net.minecraft.network.PacketEncoder;
+import net.minecraft.network.protocol.Packet;
+import org.spongepowered.asm.mixin.Mixin;
+import org.spongepowered.asm.mixin.injection.At;
+import org.spongepowered.asm.mixin.injection.Inject;
+import org.spongepowered.asm.mixin.injection.callback.CallbackInfo;
+
+/**
+ * 数据包编码器Mixin
+ *
+ * <p>预编码数据包跳过序列化：如果管道中有Ceres压缩编码器，
+ * 数据包原样交给它以复用压缩结果；否则直接写出编码后的字节。</p>
+ *
+ * <p>单独指定了压缩级别的数据包类在编码前告知压缩编码器，
+ * 编码后的帧在同一次调用中同步经过压缩编码器。</p>
+ *
+ * <p>没有压缩编码器时，输出缓冲区在开头为长度前缀预留空间，由长度前缀编码器原地写入。</p>
+ *
+ * <p>输出缓冲区按{@link CeresPacketSizeEstimator}记录的同类数据包大小分配，大数据包不必在编码中反复扩容。</p>
+ */
+@Mixin(PacketEncoder.class)
+public abstract class CeresPacketEncoderMixin extends MessageToByteEncoder<Packet<?>> {
+    private int ceres$allocatedCapacity;
+
+    @Override
+    public void write(ChannelHandlerContext ctx, Object msg, ChannelPromise promise) throws Exception {
+        if (msg instanceof CeresPreEncodedPacket packet) {
+            if (ctx.pipeline().get("compress") instanceof CeresMinecraftCompressEncoder) {
+                ctx.write(packet, promise);
+            } else {
+                ctx.write(packet.encodedBuffer(), promise);
+            }
+            return;
+        }
+
+        int classLevel = CeresCompressionLevelLadder.classLevel(msg.getClass());
+        if (classLevel >= 0 && ctx.pipeline().get("compress") instanceof CeresMinecraftCompressEncoder encoder) {
+            encoder.setClassLevel(classLevel);
+            try {
+                super.write(ctx, msg, promise);
+            } finally {
+                encoder.setClassLevel(-1);
+            }
+            return;
+        }
+        super.write(ctx, msg, promise);
+    }
+
+    @Override
+    protected ByteBuf allocateBuffer(ChannelHandlerContext ctx, Packet<?> msg, boolean preferDirect) throws Exception {
+        int headroom = CeresLengthPrepender.headroom();
+        if (headroom > 0 && ctx.pipeline().get("compress") != null) {
+            headroom = 0;
+        }
+
+        ByteBuf buf;
+        int capacity = CeresPacketSizeEstimator.isEnabled() ? CeresPacketSizeEstimator.encodeCapacity(msg.getClass()) : -1;
+        if (capacity > 0) {
+            capacity += headroom;
+            buf = preferDirect ? ctx.alloc().ioBuffer(capacity) : ctx.alloc().heapBuffer(capacity);
+        } else {
+            buf = super.allocateBuffer(ctx, msg, preferDirect);
+        }
+        // 没有预估时使用默认容量，扩容不算作误判
+        ceres$allocatedCapacity = capacity > 0 ? buf.capacity() : -1;
+
+        if (headroom > 0) {
+            buf.setIndex(headroom, headroom);
+        }
+        return buf;
+    }
+
+    @Inject(method = "encode(Lio/netty/channel/ChannelHandlerContext;Lnet/minecraft/network/protocol/Packet;Lio/netty/buffer/ByteBuf;)V", at = @At("TAIL"))
+    private void ceres$recordEncodedSize(ChannelHandlerContext ctx, Packet<?> packet, ByteBuf out, CallbackInfo ci) {
+        if (CeresPacketSizeEstimator.isEnabled()) {
+            CeresPacketSizeEstimator.recordEncoded(packet.getClass(), out.readableBytes(),
+                    ceres$allocatedCapacity > 0 && out.capacity() > ceres$allocatedCapacity);
+        }
+    }
+}
@@ -0,0 +1,63 @@
+package com.xinian.ceres.mixin.network.encodeonce;
+
+import com.xinian.ceres.common.network.CeresPreEncodedPacket;
+import net.minecraft.network.protocol.Packet;
+import net.minecraft.resources.ResourceKey;
+import net.minecraft.server.level.ServerPlayer;
+import net.minecraft.server.players.PlayerList;
+import net.minecraft.world.entity.player.Player;
+import net.minecraft.world.level.Level;
+import org.spongepowered.asm.mixin.Final;
+import org.spongepowered.asm.mixin.Mixin;
+import org.spongepowered.asm.mixin.Shadow;
+import org.spongepowered.asm.mixin.injection.At;
+import org.spongepowered.asm.mixin.injection.ModifyVariable;
+
+import java.util.List;
+
+/**
+ * 玩家列表广播Mixin
+ * 时间更新、玩家信息、声音和方块事件等广播只编码一次
+ */
+@Mixin(PlayerList.class)
+public class CeresPlayerListBroadcastMixin {
+    @Shadow
+    @Final
+    private List<ServerPlayer> players;
+
+    @ModifyVariable(method = "broadcastAll(Lnet/minecraft/network/protocol/Packet;)V",
+            at = @At("HEAD"), argsOnly = true)
+    private Packet<?> preEncodeBroadcastAll(Packet<?> packet) {
+        return CeresPreEncodedPacket.forBroadcast(packet, this.players.size());
+    }
+
+    @ModifyVariable(method = "broadcastAll(Lnet/minecraft/network/protocol/Packet;Lnet/minecraft/resources/ResourceKey;)V",
+            at = @At("HEAD"), argsOnly = true)
+    private Packet<?> preEncodeBroadcastInDimension(Packet<?> packet, Packet<?> original, ResourceKey<Level> dimension) {
+        int recipients = 0;
+        for (ServerPlayer player : this.players) {
+            if (player.level.dimension() == dimension) {
+                recipients++;
+            }
+        }
+        return CeresPreEncodedPacket.forBroadcast(packet, recipients);
+    }
+
+    @ModifyVariable(method = "broadcast", at = @At("HEAD"), argsOnly = true)
+    private Packet<?> preEncodeNearbyBroadcast(Packet<?> packet, Player except, double x, double y, double z,
+                                               double radius, ResourceKey<Level> dimension, Packet<?> original) {
+        // 与原版相同的筛选条件，只统计实际会收到的玩家
+        int recipients = 0;
+        for (ServerPlayer player : this.players) {
+            if (player != except && player.level.dimension() == dimension) {
+                double dx = x - player.getX();
+                double dy = y - player.getY();
+                double dz = z - player.getZ();
+                if (dx * dx + dy * dy + dz * dz < radius * radius) {
+                    recipients++;
+                }
+            }
+        }
+        return CeresPreEncodedPacket.forBroadcast(packet, recipients);
+    }
+}
@@ -0,0 +1,41 @@
+package com.xinian.ceres.mixin.network.encodeonce;
+
+import com.xinian.ceres.common.network.CeresPreEncodedPacket;
+import net.minecraft.network.protocol.Packet;
+import net.minecraft.server.level.ChunkMap;
+import net.minecraft.server.level.ServerPlayer;
+import net.minecraft.server.network.ServerPlayerConnection;
+import net.minecraft.world.entity.Entity;
+import org.spongepowered.asm.mixin.Final;
+import org.spongepowered.asm.mixin.Mixin;
+import org.spongepowered.asm.mixin.Shadow;
+import org.spongepowered.asm.mixin.injection.At;
+import org.spongepowered.asm.mixin.injection.ModifyVariable;
+
+import java.util.Set;
+
+/**
+ * 实体追踪广播Mixin
+ * 实体事件、移动和数据更新广播给所有追踪该实体的玩家，只编码一次
+ */
+@Mixin(ChunkMap.TrackedEntity.class)
+public class CeresTrackedEntityBroadcastMixin {
+    @Shadow
+    @Final
+    public Set<ServerPlayerConnection> seenBy;
+
+    @Shadow
+    public Entity entity;
+
+    @ModifyVariable(method = "broadcast", at = @At("HEAD"), argsOnly = true)
+    private Packet<?> preEncodeBroadcast(Packet<?> packet) {
+        return CeresPreEncodedPacket.forBroadcast(packet, this.seenBy.size());
+    }
+
+    @ModifyVariable(method = "broadcastAndSend", at = @At("HEAD"), argsOnly = true)
+    private Packet<?> preEncodeBroadcastAndSend(Packet<?> packet) {
+        // 实体自身是玩家时也会收到这个数据包
+        int recipients = this.seenBy.size() + (this.entity instanceof ServerPlayer ? 1 : 0);
+        return CeresPreEncodedPacket.forBroadcast(packet, recipients);
+    }
+}
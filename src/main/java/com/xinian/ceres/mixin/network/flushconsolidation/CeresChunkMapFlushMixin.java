@@ -1,8 +1,12 @@
 package com.xinian.ceres.mixin.network.flushconsolidation;
 
+import com.xinian.ceres.CeresConfig;
+import com.xinian.ceres.common.entity.CeresSpatialEntityTracker;
 import com.xinian.ceres.common.network.util.CeresAutoFlushUtil;
+import com.xinian.ceres.common.player.CeresChunkTrackingView;
 import com.xinian.ceres.common.player.CeresServerPlayer;
 import it.unimi.dsi.fastutil.ints.Int2ObjectMap;
+import it.unimi.dsi.fastutil.objects.ReferenceOpenHashSet;
 import net.minecraft.core.SectionPos;
 import net.minecraft.network.protocol.game.ClientboundLevelChunkWithLightPacket;
 import net.minecraft.server.level.ChunkMap;
@@ -15,9 +19,14 @@ import org.spongepowered.asm.mixin.Final;
 import org.spongepowered.asm.mixin.Mixin;
 import org.spongepowered.asm.mixin.Overwrite;
 import org.spongepowered.asm.mixin.Shadow;
+import org.spongepowered.asm.mixin.Unique;
 import org.spongepowered.asm.mixin.injection.At;
 import org.spongepowered.asm.mixin.injection.Inject;
 import org.spongepowered.asm.mixin.injection.callback.CallbackInfo;
+import org.spongepowered.asm.mixin.injection.callback.CallbackInfoReturnable;
+
+import java.util.ArrayList;
+import java.util.List;
 
 /**
  * 区块地图刷新优化Mixin
@@ -49,6 +58,12 @@ public abstract class CeresChunkMapFlushMixin {
     @Final
     private ChunkMap.DistanceManager distanceManager;
 
+    /**
+     * 有等待卸载的区块的玩家
+     */
+    @Unique
+    private final ReferenceOpenHashSet<ServerPlayer> playersWithPending = new ReferenceOpenHashSet<>();
+
     @Shadow
     public static boolean isChunkInRange(int x1, int y1, int x2, int y2, int maxDistance) {
         throw new AssertionError("Shadow method not overridden");
@@ -73,6 +88,11 @@ public abstract class CeresChunkMapFlushMixin {
 
         CeresAutoFlushUtil.setAutoFlush(player, false);
 
+        if (player instanceof CeresServerPlayer ceresPlayer) {
+            // 队列中的区块属于玩家离开或之前所在的世界
+            ceresPlayer.getChunkSendQueue().clear();
+        }
+
         try {
             if (added) {
                 this.playerMap.addPlayer(ChunkPos.asLong(chunkPosX, chunkPosZ), player, skipPlayer);
@@ -83,7 +103,15 @@ public abstract class CeresChunkMapFlushMixin {
                 }
 
                 // 如果添加玩家，发送螺旋区块观察数据包
-                sendSpiralChunkWatchPackets(player);
+                CeresChunkTrackingView view = getTrackingView(player);
+                if (view != null) {
+                    // 玩家刚进入这个世界，之前的记录属于别的世界
+                    view.clear();
+                    view.reconcile(chunkPosX, chunkPosZ, getPlayerViewDistance(player), trackingListener(player));
+                    updatePendingPlayer(player, view);
+                } else {
+                    sendSpiralChunkWatchPackets(player);
+                }
             } else {
                 SectionPos chunkSectionPos = player.getLastSectionPos();
                 this.playerMap.removePlayer(chunkSectionPos.chunk().toLong(), player);
@@ -93,7 +121,13 @@ public abstract class CeresChunkMapFlushMixin {
                 }
 
                 // 如果移除玩家，卸载区块
-                unloadChunks(player, chunkPosX, chunkPosZ, viewDistance);
+                this.playersWithPending.remove(player);
+                CeresChunkTrackingView view = getTrackingView(player);
+                if (view != null) {
+                    view.removeAll(trackingListener(player));
+                } else {
+                    unloadChunks(player, chunkPosX, chunkPosZ, viewDistance);
+                }
             }
         } finally {
             CeresAutoFlushUtil.setAutoFlush(player, true);
@@ -110,18 +144,22 @@ public abstract class CeresChunkMapFlushMixin {
      */
     @Overwrite
     public void move(ServerPlayer player) {
-        // TODO: 通过只考虑玩家附近的实体来进一步优化这个方法
-        //       使用FastChunkEntityAccess魔法来实现
-        for (ChunkMap.TrackedEntity entityTracker : this.entityMap.values()) {
-            if (entityTracker.entity == player) {
-                entityTracker.updatePlayers(this.level.players());
-            } else {
-                entityTracker.updatePlayer(player);
-            }
-        }
-
         SectionPos oldPos = player.getLastSectionPos();
         SectionPos newPos = SectionPos.of(player);
+
+        if (CeresSpatialEntityTracker.isEnabled()) {
+            // 只考虑玩家旧位置和新位置附近区块中的实体
+            CeresSpatialEntityTracker.updateTrackers(this.level, this.entityMap, player,
+                    oldPos.x(), oldPos.z(), newPos.x(), newPos.z(), this.viewDistance);
+        } else {
+            for (ChunkMap.TrackedEntity entityTracker : this.entityMap.values()) {
+                if (entityTracker.entity == player) {
+                    entityTracker.updatePlayers(this.level.players());
+                } else {
+                    entityTracker.updatePlayer(player);
+                }
+            }
+        }
         boolean isWatchingWorld = this.playerMap.ignored(player);
         boolean noChunkGen = this.skipPlayer(player);
         boolean movedSections = !oldPos.equals(newPos);
@@ -155,6 +193,86 @@ public abstract class CeresChunkMapFlushMixin {
             this.sendChunkWatchPackets(oldPos, player);
     }
 
+    /**
+     * 把所有对区块追踪的修改同步到玩家的追踪位图，包括原版的调用
+     */
+    @Inject(method = "updateChunkTracking", at = @At("HEAD"))
+    private void recordChunkTracking(ServerPlayer player, ChunkPos pos, MutableObject<ClientboundLevelChunkWithLightPacket> mutableObject,
+                                     boolean oldWithinViewDistance, boolean newWithinViewDistance, CallbackInfo info) {
+        if (oldWithinViewDistance != newWithinViewDistance && player.level == this.level && player instanceof CeresServerPlayer ceresPlayer) {
+            ceresPlayer.getChunkTrackingView().setTracked(pos.x, pos.z, newWithinViewDistance);
+            if (!newWithinViewDistance) {
+                // 还在队列中的区块不再需要发送
+                ceresPlayer.getChunkSendQueue().remove(pos.toLong());
+            }
+        }
+    }
+
+    /**
+     * 原版修改视距时按新视距直接更新了追踪，下次移动时完整比对
+     */
+    @Inject(method = "setViewDistance", at = @At("RETURN"))
+    private void invalidateTrackingViews(int viewDistance, CallbackInfo info) {
+        for (ServerPlayer player : this.level.players()) {
+            if (player instanceof CeresServerPlayer ceresPlayer) {
+                SectionPos pos = player.getLastSectionPos();
+                ceresPlayer.getChunkTrackingView().invalidate(pos.x(), pos.z());
+            }
+        }
+    }
+
+    /**
+     * 等待卸载的区块还在客户端上，继续向这些玩家发送它的更新
+     */
+    @Inject(method = "getPlayers(Lnet/minecraft/world/level/ChunkPos;Z)Ljava/util/List;", at = @At("RETURN"), cancellable = true)
+    private void includePendingPlayers(ChunkPos pos, boolean boundaryOnly, CallbackInfoReturnable<List<ServerPlayer>> cir) {
+        if (boundaryOnly || !CeresChunkTrackingView.isEnabled()) {
+            return;
+        }
+        // 每次方块更新广播都会经过这里，大多数时候没有玩家有等待卸载的区块
+        if (this.playersWithPending.isEmpty()) {
+            return;
+        }
+        List<ServerPlayer> players = cir.getReturnValue();
+        List<ServerPlayer> extended = null;
+        for (ServerPlayer player : this.playersWithPending) {
+            if (((CeresServerPlayer) player).getChunkTrackingView().isPending(pos.x, pos.z)
+                    && !players.contains(player)) {
+                if (extended == null) {
+                    extended = new ArrayList<>(players);
+                }
+                extended.add(player);
+            }
+        }
+        if (extended != null) {
+            cir.setReturnValue(extended);
+        }
+    }
+
+    /**
+     * 卸载等待时间已到的区块，并应用冷却结束的视距修改
+     * 视距修改不需要等玩家移动
+     */
+    @Inject(method = "tick()V", at = @At("HEAD"))
+    private void tickTrackingViews(CallbackInfo info) {
+        if (!CeresChunkTrackingView.isEnabled()) {
+            return;
+        }
+        long now = System.currentTimeMillis();
+        long cooldown = CeresConfig.SERVER.viewDistanceChangeCooldownMs.get();
+        for (ServerPlayer player : this.level.players()) {
+            if (player instanceof CeresServerPlayer ceresPlayer) {
+                if (ceresPlayer.getChunkTrackingView().hasPending()) {
+                    ceresPlayer.getChunkTrackingView().expirePending(trackingListener(player));
+                    updatePendingPlayer(player, ceresPlayer.getChunkTrackingView());
+                }
+                if (ceresPlayer.getNeedsChunksReloaded() && ceresPlayer.canReloadChunks(now, cooldown) && player.level == this.level) {
+                    applyViewDistanceChange(player, ceresPlayer, now);
+                }
+            }
+        }
+    }
+
     /**
      * 在实体追踪开始时禁用自动刷新
      */
@@ -209,6 +327,26 @@ public abstract class CeresChunkMapFlushMixin {
 
             int playerViewDistance = getPlayerViewDistance(player); // +1作为缓冲
 
+            CeresChunkTrackingView view = getTrackingView(player);
+            if (view != null) {
+                int distance = playerViewDistance;
+                if (shouldReloadAllChunks(player)) {
+                    CeresServerPlayer ceresPlayer = (CeresServerPlayer) player;
+                    long now = System.currentTimeMillis();
+                    if (ceresPlayer.canReloadChunks(now, CeresConfig.SERVER.viewDistanceChangeCooldownMs.get())) {
+                        ceresPlayer.setNeedsChunksReloaded(false);
+                        ceresPlayer.setLastChunkReloadTime(now);
+                    } else if (view.getDistance() != -1) {
+                        // 冷却中，先保持当前视距，冷却结束后由tick应用
+                        distance = view.getDistance();
+                    }
+                }
+                // 只为进入或离开视野的区块更新追踪，视距改变时只处理增加或减少的环
+                view.update(newChunkX, newChunkZ, distance, trackingListener(player));
+                updatePendingPlayer(player, view);
+                return;
+            }
+
             if (shouldReloadAllChunks(player)) { // 玩家更新了视距，卸载区块并重新发送（只卸载不可见的区块）
                 if (player instanceof CeresServerPlayer ceresPlayer)
                     ceresPlayer.setNeedsChunksReloaded(false);
@@ -252,11 +390,69 @@ public abstract class CeresChunkMapFlushMixin {
                     }
                 }
             }
+
+            // 追踪在位图之外更新过，重新启用时完整比对
+            if (player instanceof CeresServerPlayer ceresPlayer) {
+                ceresPlayer.getChunkTrackingView().invalidate(newChunkX, newChunkZ);
+            }
         } finally {
             CeresAutoFlushUtil.setAutoFlush(player, true);
         }
     }
 
+    /**
+     * 获取玩家的区块追踪位图
+     *
+     * @param player 玩家
+     * @return 追踪位图，没有启用时返回null
+     */
+    private static CeresChunkTrackingView getTrackingView(ServerPlayer player) {
+        return CeresChunkTrackingView.isEnabled() && player instanceof CeresServerPlayer ceresPlayer
+                ? ceresPlayer.getChunkTrackingView() : null;
+    }
+
+    /**
+     * 在冷却结束后应用等待中的视距修改
+     * 视图中心保持在{@code playerMap}和{@code distanceManager}记录的区段，
+     * 玩家离开这个区段时由{@link #move}负责移动中心
+     */
+    private void applyViewDistanceChange(ServerPlayer player, CeresServerPlayer ceresPlayer, long now) {
+        ceresPlayer.setNeedsChunksReloaded(false);
+        ceresPlayer.setLastChunkReloadTime(now);
+
+        SectionPos pos = player.getLastSectionPos();
+        CeresChunkTrackingView view = ceresPlayer.getChunkTrackingView();
+        CeresAutoFlushUtil.setAutoFlush(player, false);
+        try {
+            view.update(pos.x(), pos.z(), getPlayerViewDistance(player), trackingListener(player));
+            updatePendingPlayer(player, view);
+        } finally {
+            CeresAutoFlushUtil.setAutoFlush(player, true);
+        }
+    }
+
+    /**
+     * 记录玩家是否有等待卸载的区块，追踪视图变化后调用
+     */
+    private void updatePendingPlayer(ServerPlayer player, CeresChunkTrackingView view) {
+        if (view.hasPending()) {
+            this.playersWithPending.add(player);
+        } else {
+            this.playersWithPending.remove(player);
+        }
+    }
+
+    /**
+     * 创建把追踪变化转发给{@link #updateChunkTracking}的回调
+     *
+     * @param player 玩家
+     * @return 回调
+     */
+    private CeresChunkTrackingView.Listener trackingListener(ServerPlayer player) {
+        return (chunkX, chunkZ, track) ->
+                this.updateChunkTracking(player, new ChunkPos(chunkX, chunkZ), new MutableObject<>(), !track, track);
+    }
+
     /**
      * 以螺旋方式向客户端发送区块观察数据包，适用于该区域没有加载区块的玩家
      *
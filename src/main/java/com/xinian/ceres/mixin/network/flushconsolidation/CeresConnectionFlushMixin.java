@@ -1,9 +1,14 @@
 package com.xinian.ceres.mixin.network.flushconsolidation;
 
 import com.xinian.ceres.common.network.CeresConfigurableAutoFlush;
+import com.xinian.ceres.common.network.CeresFlushScheduler;
 import io.netty.channel.Channel;
+import io.netty.channel.ChannelFuture;
 import net.minecraft.network.Connection;
+import net.minecraft.network.ConnectionProtocol;
+import net.minecraft.network.protocol.PacketFlow;
 import org.objectweb.asm.Opcodes;
+import org.spongepowered.asm.mixin.Final;
 import org.spongepowered.asm.mixin.Mixin;
 import org.spongepowered.asm.mixin.Shadow;
 import org.spongepowered.asm.mixin.injection.At;
@@ -13,11 +18,16 @@ import org.spongepowered.asm.mixin.injection.callback.CallbackInfo;
 import java.util.concurrent.atomic.AtomicBoolean;
 /**
  * 优化Connection类，添加跳过自动刷新和尽可能使用void promises的能力
+ *
+ * <p>服务器端游戏阶段的数据包交给{@link CeresFlushScheduler}，按服务器刻合并刷新。</p>
  */
 @Mixin(Connection.class)
 public abstract class CeresConnectionFlushMixin implements CeresConfigurableAutoFlush {
     @Shadow
     private Channel channel;
+    @Shadow
+    @Final
+    private PacketFlow receiving;
     private AtomicBoolean autoFlush;
 
     @Inject(method = "<init>", at = @At("RETURN"))
@@ -29,11 +39,27 @@ public abstract class CeresConnectionFlushMixin implements CeresConfigurableAuto
     public Channel disableForcedFlushEveryTick(Connection clientConnection) {
         return null;
     }
+
+    /**
+     * 关闭自动刷新时只写入，服务器端游戏阶段的数据包由刷新调度器决定何时刷新
+     */
+    @Redirect(method = "doSendPacket", at = @At(value = "INVOKE", target = "Lio/netty/channel/Channel;writeAndFlush(Ljava/lang/Object;)Lio/netty/channel/ChannelFuture;"))
+    private ChannelFuture consolidateFlush(Channel channel, Object packet) {
+        if (!this.autoFlush.get()) {
+            return channel.write(packet);
+        }
+        if (this.receiving == PacketFlow.SERVERBOUND && CeresFlushScheduler.isEnabled()
+                && channel.attr(Connection.ATTRIBUTE_PROTOCOL).get() == ConnectionProtocol.PLAY) {
+            return CeresFlushScheduler.write(channel, packet);
+        }
+        return channel.writeAndFlush(packet);
+    }
+
     @Override
     public void setShouldAutoFlush(boolean shouldAutoFlush) {
         boolean prev = this.autoFlush.getAndSet(shouldAutoFlush);
         if (!prev && shouldAutoFlush) {
-            this.channel.flush();
+            CeresFlushScheduler.requestFlush(this.channel);
         }
     }
 
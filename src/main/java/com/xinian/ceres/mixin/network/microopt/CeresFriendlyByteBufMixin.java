@@ -1,8 +1,10 @@
 package com.xinian.ceres.mixin.network.microopt;
 
+import com.xinian.ceres.common.network.util.CeresByteBufUtil;
 import com.xinian.ceres.common.network.util.CeresVarIntUtil;
 import io.netty.buffer.ByteBuf;
 import io.netty.buffer.ByteBufUtil;
+import io.netty.handler.codec.DecoderException;
 import io.netty.handler.codec.EncoderException;
 import net.minecraft.network.FriendlyByteBuf;
 import org.spongepowered.asm.mixin.Final;
@@ -12,8 +14,11 @@ import org.spongepowered.asm.mixin.Shadow;
 import java.nio.charset.Charset;
 import java.nio.charset.StandardCharsets;
 /**
- * 数据包写入的多个微优化
- * 优化变长整数编码和字符串写入性能
+ * 数据包读写的多个微优化
+ * 优化变长整数和字符串的编解码性能
+ *
+ * <p>所有方法直接操作底层缓冲区并返回自身，读写一个字段不会分配任何对象（字符串本身除外）。
+ * {@code writeId}、{@code writeEnum}、{@code readEnum}等辅助方法都经过这里的VarInt实现。</p>
  */
 @Mixin(FriendlyByteBuf.class)
 public abstract class CeresFriendlyByteBufMixin extends ByteBuf {
@@ -40,7 +45,7 @@ public abstract class CeresFriendlyByteBufMixin extends ByteBuf {
      * 并使用{@link ByteBufUtil#utf8Bytes(CharSequence)}提前计算字节大小
      *
      * @param string 要写入的字符串
-     * @param i 最大字节长度
+     * @param i 最大字符数
      * @return 友好字节缓冲区
      * @author Andrew (原作者)
      * @author Xinian (Ceres适配)
@@ -48,15 +53,43 @@ public abstract class CeresFriendlyByteBufMixin extends ByteBuf {
      */
     @Overwrite
     public FriendlyByteBuf writeUtf(String string, int i) {
+        // 与1.19.2原版相同，限制的是编码后的字节数
         int utf8Bytes = ByteBufUtil.utf8Bytes(string);
         if (utf8Bytes > i) {
             throw new EncoderException("String too big (was " + utf8Bytes + " bytes encoded, max " + i + ")");
         } else {
             this.writeVarInt(utf8Bytes);
             this.writeCharSequence(string, StandardCharsets.UTF_8);
-            return new FriendlyByteBuf(source);
+            return (FriendlyByteBuf) (Object) this;
         }
     }
+
+    /**
+     * 直接从底层缓冲区解码UTF-8字符串
+     *
+     * @param i 最大字符数
+     * @return 读取的字符串
+     * @author Xinian
+     * @reason 堆缓冲区直接解码，直接缓冲区复用线程本地数组，不为每个字符串分配临时数组
+     */
+    @Overwrite
+    public String readUtf(int i) {
+        // 与1.19.2原版相同，编码长度最多为字符数的4倍
+        int maxBytes = i * 4;
+        int length = this.readVarInt();
+        if (length > maxBytes) {
+            throw new DecoderException("The received encoded string buffer length is longer than maximum allowed (" + length + " > " + maxBytes + ")");
+        } else if (length < 0) {
+            throw new DecoderException("The received encoded string buffer length is less than zero! Weird string!");
+        }
+
+        String string = CeresByteBufUtil.readUtf8(source, source.readerIndex(), length);
+        source.skipBytes(length);
+        if (string.length() > i) {
+            throw new DecoderException("The received string length is longer than maximum allowed (" + length + " > " + i + ")");
+        }
+        return string;
+    }
     /**
      * 优化的VarInt写入
      *
@@ -78,7 +111,85 @@ public abstract class CeresFriendlyByteBufMixin extends ByteBuf {
         } else {
             writeVarIntFull(source, value);
         }
-        return new FriendlyByteBuf(source);
+        return (FriendlyByteBuf) (Object) this;
+    }
+
+    /**
+     * 展开的VarInt读取
+     *
+     * @return 读取的整数值
+     * @author Xinian
+     * @reason 直接读取底层缓冲区，按字节数展开循环
+     */
+    @Overwrite
+    public int readVarInt() {
+        byte b = source.readByte();
+        if (b >= 0) {
+            return b;
+        }
+        int result = b & 0x7F;
+        if ((b = source.readByte()) >= 0) {
+            return result | b << 7;
+        }
+        result |= (b & 0x7F) << 7;
+        if ((b = source.readByte()) >= 0) {
+            return result | b << 14;
+        }
+        result |= (b & 0x7F) << 14;
+        if ((b = source.readByte()) >= 0) {
+            return result | b << 21;
+        }
+        result |= (b & 0x7F) << 21;
+        if ((b = source.readByte()) < 0) {
+            throw new RuntimeException("VarInt too big");
+        }
+        return result | b << 28;
+    }
+
+    /**
+     * 直接读取底层缓冲区的VarLong
+     *
+     * @return 读取的长整数值
+     * @author Xinian
+     * @reason 直接读取底层缓冲区，一字节的情况单独处理
+     */
+    @Overwrite
+    public long readVarLong() {
+        byte b = source.readByte();
+        if (b >= 0) {
+            return b;
+        }
+        long result = b & 0x7F;
+        for (int shift = 7; shift < 70; shift += 7) {
+            b = source.readByte();
+            result |= (long) (b & 0x7F) << shift;
+            if (b >= 0) {
+                return result;
+            }
+        }
+        throw new RuntimeException("VarLong too big");
+    }
+
+    /**
+     * VarLong写入，能放进VarInt的值使用合并写入
+     *
+     * @param value 要写入的长整数值
+     * @return 友好字节缓冲区
+     * @author Xinian
+     * @reason 小值复用VarInt的合并写入，其余按字节写入底层缓冲区
+     */
+    @Overwrite
+    public FriendlyByteBuf writeVarLong(long value) {
+        if ((value & (0xFFFFFFFFFFFFFFFFL << 28)) == 0) {
+            writeVarIntFull(source, (int) value);
+        } else {
+            while ((value & ~0x7FL) != 0) {
+                source.writeByte((int) (value & 0x7F) | 0x80);
+                value >>>= 7;
+            }
+            source.writeByte((int) value);
+        }
+        return (FriendlyByteBuf) (Object) this;
     }
     /**
      * 完整的VarInt写入实现
@@ -0,0 +1,46 @@
+package com.xinian.ceres.mixin.network.pipeline;
+
+import com.xinian.ceres.common.network.pipeline.CeresLengthPrepender;
+import io.netty.buffer.ByteBuf;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelPromise;
+import io.netty.handler.codec.MessageToByteEncoder;
+import net.minecraft.network.Varint21LengthFieldPrepender;
+import org.spongepowered.asm.mixin.Mixin;
+import org.spongepowered.asm.mixin.Overwrite;
+
+/**
+ * 长度前缀编码器Mixin
+ *
+ * <p>帧前面有预留空间且缓冲区为独占时，长度直接写在预留的位置，原缓冲区继续向下传递；
+ * 否则（未压缩的帧、共享的预编码帧）按原版方式复制一次，但输出缓冲区一次分配到准确的大小。</p>
+ */
+@Mixin(Varint21LengthFieldPrepender.class)
+public abstract class CeresVarint21LengthFieldPrependerMixin extends MessageToByteEncoder<ByteBuf> {
+
+    @Override
+    public void write(ChannelHandlerContext ctx, Object msg, ChannelPromise promise) throws Exception {
+        if (msg instanceof ByteBuf buf && CeresLengthPrepender.isEnabled()
+                && CeresLengthPrepender.tryPrependInPlace(buf)) {
+            ctx.write(buf, promise);
+            return;
+        }
+        super.write(ctx, msg, promise);
+    }
+
+    @Override
+    protected ByteBuf allocateBuffer(ChannelHandlerContext ctx, ByteBuf msg, boolean preferDirect) throws Exception {
+        int length = msg.readableBytes();
+        int size = CeresLengthPrepender.headerSize(length) + length;
+        return preferDirect ? ctx.alloc().ioBuffer(size) : ctx.alloc().heapBuffer(size);
+    }
+
+    /**
+     * @author Xinian
+     * @reason 使用合并写入的VarInt，输出缓冲区已经按准确大小分配
+     */
+    @Overwrite
+    protected void encode(ChannelHandlerContext ctx, ByteBuf msg, ByteBuf out) {
+        CeresLengthPrepender.prependCopy(msg, out);
+    }
+}
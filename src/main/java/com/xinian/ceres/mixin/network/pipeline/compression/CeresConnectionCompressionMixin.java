@@ -5,6 +5,7 @@ import com.xinian.ceres.CeresConfig;
 import com.xinian.ceres.common.network.compression.CeresMinecraftCompressDecoder;
 import com.xinian.ceres.common.network.compression.CeresMinecraftCompressEncoder;
 import com.xinian.ceres.common.network.compression.CeresMinecraftCompressorFactory;
+import com.xinian.ceres.common.network.pipeline.CeresMinecraftCipherFactory;
 import com.xinian.ceres.common.network.util.CeresNatives;
 import io.netty.channel.Channel;
 import net.minecraft.network.Connection;
@@ -65,8 +66,8 @@ public class CeresConnectionCompressionMixin {
                     // 创建新的压缩处理器
                     int level = CeresConfig.COMMON.compressionLevel.get();
 
-                    // 使用CeresNatives创建压缩器
-                    CeresNatives.CeresCompressor compressor = CeresNatives.compress.create(level);
+                    // 根据当前压缩引擎创建压缩器
+                    CeresNatives.CeresCompressor compressor = CeresMinecraftCompressorFactory.createCompressor(level);
 
                     // 创建编码器和解码器
                     encoder = new CeresMinecraftCompressEncoder(compressionThreshold, compressor);
@@ -79,6 +80,9 @@ public class CeresConnectionCompressionMixin {
                     Ceres.LOGGER.debug("Enabled packet compression with threshold {} bytes and level {}",
                             compressionThreshold, level);
 
+                    // 加密已经启用时合并压缩和加密
+                    CeresMinecraftCipherFactory.fuseIfPossible(channel);
+
                     // 记录压缩器实现信息
                     if (CeresConfig.COMMON.enableLogging.get()) {
                         CeresMinecraftCompressorFactory.logImplementationDetails();
@@ -3,6 +3,7 @@ package com.xinian.ceres.mixin.network.pipeline.encryption;
 import com.xinian.ceres.common.network.CeresClientConnectionEncryptionExtension;
 import com.xinian.ceres.common.network.pipeline.CeresMinecraftCipherDecoder;
 import com.xinian.ceres.common.network.pipeline.CeresMinecraftCipherEncoder;
+import com.xinian.ceres.common.network.pipeline.CeresMinecraftCipherFactory;
 import com.xinian.ceres.common.network.util.CeresNatives;
 import com.xinian.ceres.common.network.util.CeresNatives.CeresCipher;
 import io.netty.channel.Channel;
@@ -29,6 +30,7 @@ public class CeresConnectionMixin implements CeresClientConnectionEncryptionExte
             this.encrypted = true;
             this.channel.pipeline().addBefore("splitter", "decrypt", new CeresMinecraftCipherDecoder(decryption));
             this.channel.pipeline().addBefore("prepender", "encrypt", new CeresMinecraftCipherEncoder(encryption));
+            CeresMinecraftCipherFactory.fuseIfPossible(this.channel);
         }
     }
 }
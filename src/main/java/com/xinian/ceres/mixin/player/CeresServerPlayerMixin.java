@@ -1,5 +1,8 @@
 package com.xinian.ceres.mixin.player;
 
+import com.xinian.ceres.common.player.CeresChunkSendQueue;
+import com.xinian.ceres.common.player.CeresChunkTrackingView;
+import com.xinian.ceres.common.player.CeresMovementPredictor;
 import com.xinian.ceres.common.player.CeresServerPlayer;
 import net.minecraft.network.protocol.game.ServerboundClientInformationPacket;
 import net.minecraft.server.level.ServerPlayer;
@@ -27,19 +30,26 @@ public class CeresServerPlayerMixin implements CeresServerPlayer {
     @Unique
     private long lastChunkReloadTime = 0L;
 
+    @Unique
+    private final CeresChunkTrackingView chunkTrackingView = new CeresChunkTrackingView();
+
+    @Unique
+    private final CeresChunkSendQueue chunkSendQueue = new CeresChunkSendQueue();
+
+    @Unique
+    private final CeresMovementPredictor movementPredictor = new CeresMovementPredictor();
+
     /**
      * 在玩家更新选项时注入，检测视距变化并标记需要重新加载区块
      */
     @Inject(method = "updateOptions", at = @At("HEAD"))
     public void updateOptions(ServerboundClientInformationPacket packet, CallbackInfo ci) {
-        // 检查视距是否变化
-        needsChunksReloaded = (playerViewDistance != packet.viewDistance());
-        playerViewDistance = packet.viewDistance();
-
-        if (needsChunksReloaded) {
-            // 记录区块重载时间
-            lastChunkReloadTime = System.currentTimeMillis();
+        // 检查视距是否变化，还没应用的修改不会被之后相同视距的选项清除
+        // 重载时间在修改实际应用时记录，用于限制频繁修改
+        if (playerViewDistance != packet.viewDistance()) {
+            needsChunksReloaded = true;
         }
+        playerViewDistance = packet.viewDistance();
     }
 
     @Override
@@ -57,6 +67,21 @@ public class CeresServerPlayerMixin implements CeresServerPlayer {
         }
     }
 
+    @Override
+    public CeresChunkTrackingView getChunkTrackingView() {
+        return chunkTrackingView;
+    }
+
+    @Override
+    public CeresChunkSendQueue getChunkSendQueue() {
+        return chunkSendQueue;
+    }
+
+    @Override
+    public CeresMovementPredictor getMovementPredictor() {
+        return movementPredictor;
+    }
+
     @Override
     public int getPlayerViewDistance() {
         return playerViewDistance;
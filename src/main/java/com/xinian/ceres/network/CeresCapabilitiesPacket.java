@@ -0,0 +1,96 @@
+package com.xinian.ceres.network;
+
+import com.xinian.ceres.Ceres;
+import com.xinian.ceres.CeresConfig;
+import com.xinian.ceres.common.compression.CeresCompressionDictionary;
+import com.xinian.ceres.common.network.CeresProtocolFeatures;
+import net.minecraft.network.Connection;
+import net.minecraft.network.FriendlyByteBuf;
+import net.minecraft.server.level.ServerPlayer;
+import net.minecraftforge.network.NetworkEvent;
+import net.minecraftforge.network.PacketDistributor;
+
+import java.util.function.Supplier;
+
+/**
+ * Ceres协议扩展能力声明
+ *
+ * <p>服务器在玩家登录后发送自己支持的扩展，客户端回复双方都支持的部分并切换自己的编码器，
+ * 服务器收到回复后切换自己的编码器。模式切换本身通过压缩层的控制帧完成，
+ * 因此这个数据包在哪个线程处理都不影响正确性。</p>
+ */
+public class CeresCapabilitiesPacket {
+    private final int features;
+    private final int dictionaryVersion;
+    private final int dictionaryId;
+
+    public CeresCapabilitiesPacket(int features, int dictionaryVersion, int dictionaryId) {
+        this.features = features;
+        this.dictionaryVersion = dictionaryVersion;
+        this.dictionaryId = dictionaryId;
+    }
+
+    /**
+     * 使用本地能力创建声明
+     *
+     * @param features 要声明的扩展位
+     * @return 能力声明
+     */
+    public static CeresCapabilitiesPacket of(int features) {
+        return new CeresCapabilitiesPacket(features, CeresCompressionDictionary.VERSION, CeresCompressionDictionary.id());
+    }
+
+    /**
+     * 向安装了Ceres的玩家声明服务器支持的扩展
+     *
+     * @param player 刚登录的玩家
+     */
+    public static void offer(ServerPlayer player) {
+        Connection connection = player.connection.connection;
+        int features = CeresProtocolFeatures.localFeatures();
+        if (features == 0 || !Ceres.NETWORK.isRemotePresent(connection)
+                || !CeresProtocolFeatures.hasCeresPipeline(connection)) {
+            return;
+        }
+
+        Ceres.NETWORK.send(PacketDistributor.PLAYER.with(() -> player), of(features));
+    }
+
+    public void encode(FriendlyByteBuf buf) {
+        buf.writeVarInt(features);
+        buf.writeVarInt(dictionaryVersion);
+        buf.writeInt(dictionaryId);
+    }
+
+    public static CeresCapabilitiesPacket decode(FriendlyByteBuf buf) {
+        return new CeresCapabilitiesPacket(buf.readVarInt(), buf.readVarInt(), buf.readInt());
+    }
+
+    public void handle(Supplier<NetworkEvent.Context> ctx) {
+        NetworkEvent.Context context = ctx.get();
+        Connection connection = context.getNetworkManager();
+        int agreed = CeresProtocolFeatures.hasCeresPipeline(connection)
+                ? CeresProtocolFeatures.negotiate(features, dictionaryVersion, dictionaryId)
+                : 0;
+
+        if (context.getDirection().getReceptionSide().isClient()) {
+            // 服务器根据回复切换自己的编码器；客户端编码器的切换由控制帧告知服务器
+            Ceres.NETWORK.reply(of(agreed), context);
+        }
+
+        if (agreed != 0) {
+            CeresProtocolFeatures.enableEncoder(connection, agreed);
+        }
+
+        if (CeresConfig.COMMON.enableLogging.get()) {
+            Ceres.LOGGER.debug("Ceres capabilities from {}: offered {}, agreed {}",
+                    connection.getRemoteAddress(), features, agreed);
+        }
+
+        context.setPacketHandled(true);
+    }
+
+    public int getFeatures() {
+        return features;
+    }
+}
@@ -3,6 +3,7 @@ package com.xinian.ceres.network;
 
 import com.xinian.ceres.Ceres;
 import com.xinian.ceres.CeresConfig;
+import com.xinian.ceres.common.compression.CeresCompressibilityEstimator;
 import com.xinian.ceres.common.compression.CeresCompressionManager;
 import com.xinian.ceres.common.compression.CeresCompressionType;
 import com.xinian.ceres.common.compression.CeresLibdeflate;
@@ -47,6 +48,12 @@ public class PacketCompressor {
             return data;
         }
 
+        // 预计压缩不会变小时直接跳过压缩器
+        if (CeresCompressibilityEstimator.isLikelyIncompressible(data, 0, data.length)) {
+            PACKETS_SKIPPED.incrementAndGet();
+            return data;
+        }
+
         long startTime = System.nanoTime();
         try {
             byte[] compressedData;